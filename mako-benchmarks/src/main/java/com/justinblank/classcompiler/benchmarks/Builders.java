@@ -0,0 +1,117 @@
+package com.justinblank.classcompiler.benchmarks;
+
+import com.justinblank.classcompiler.ClassBuilder;
+import com.justinblank.classcompiler.CompilerUtil;
+import com.justinblank.classcompiler.GenericVars;
+import com.justinblank.classcompiler.lang.Builtin;
+import com.justinblank.classcompiler.lang.CodeElement;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.justinblank.classcompiler.lang.ArrayRead.arrayRead;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+
+/**
+ * ClassBuilders for the benchmarked classes. Compiling a builder consumes it, so each call returns a new builder.
+ */
+public class Builders {
+
+    private static final AtomicInteger CLASS_NAME_COUNTER = new AtomicInteger();
+    private static final String INT_UNARY_FUNCTION = CompilerUtil.internalName(IntUnaryFunction.class);
+    private static final String INT_ARRAY_FUNCTION = CompilerUtil.internalName(IntArrayFunction.class);
+
+    public static String uniqueClassName(String prefix) {
+        return prefix + CLASS_NAME_COUNTER.incrementAndGet();
+    }
+
+    /**
+     * @return a builder for a class implementing IntUnaryFunction with the naive recursive fibonacci function
+     */
+    public static ClassBuilder fibonacci() {
+        var builder = new ClassBuilder(uniqueClassName("Fibonacci"), "", "java/lang/Object", new String[]{INT_UNARY_FUNCTION});
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        method.cond(lt(read("x"), 2)).withBody(List.of(returnValue(1)));
+        method.returnValue(plus(
+                call("apply", Builtin.I, thisRef(), sub(read("x"), 1)),
+                call("apply", Builtin.I, thisRef(), sub(read("x"), 2))));
+        return builder;
+    }
+
+    /**
+     * @return a builder for a class implementing IntArrayFunction with the solver for Advent of Code 2021, problem 7
+     */
+    public static ClassBuilder crabSolver() {
+        var builder = new ClassBuilder(uniqueClassName("CrabSolver"), "", "java/lang/Object", new String[]{INT_ARRAY_FUNCTION});
+        builder.addEmptyConstructor();
+        var vars = new GenericVars("crabPositions", "min", "index", "guess", "total", "difference");
+        var method = builder.mkMethod("apply", List.of("[I"), "I", vars);
+        method.set("min", Integer.MAX_VALUE);
+        method.set("guess", 0);
+        method.loop(null,
+                List.of(
+                        set("index", 0),
+                        set("total", 0),
+                        loop(lt(read("index"), arrayLength(read("crabPositions"))),
+                                List.of(
+                                        set("difference", callStatic(Math.class, "abs", Builtin.I,
+                                                sub(read("guess"), arrayRead(read("crabPositions"), read("index"))))),
+                                        set("total", plus(read("total"), read("difference"))),
+                                        set("index", plus(read("index"), 1)))),
+                        set("guess", plus(read("guess"), literal(1))),
+                        cond(lt(read("total"), read("min"))).withBody(List.of(
+                                set("min", read("total")))),
+                        cond(gt(read("total"), read("min"))).withBody(List.of(
+                                returnValue(read("min"))))));
+        method.returnValue(read("min"));
+        return builder;
+    }
+
+    /**
+     * @param cases the number of cases in the switch
+     * @return a builder for a class implementing IntUnaryFunction with a dense switch over its argument
+     */
+    public static ClassBuilder denseSwitch(int cases) {
+        var builder = new ClassBuilder(uniqueClassName("DenseSwitch"), "", "java/lang/Object", new String[]{INT_UNARY_FUNCTION});
+        builder.addEmptyConstructor();
+        addSwitchMethod(builder, "apply", cases);
+        return builder;
+    }
+
+    /**
+     * A class with many methods, each with a switch and a loop, roughly modelled on the DFA classes needle generates.
+     *
+     * @param methods the number of methods
+     * @return the builder
+     */
+    public static ClassBuilder huge(int methods) {
+        var builder = new ClassBuilder(uniqueClassName("Huge"), "", "java/lang/Object", new String[]{INT_UNARY_FUNCTION});
+        builder.addEmptyConstructor();
+        addSwitchMethod(builder, "apply", 64);
+        for (int i = 0; i < methods; i++) {
+            var method = builder.mkMethod("state" + i, List.of("I"), "I", new GenericVars("x", "i", "total"));
+            method.set("i", 0);
+            method.set("total", 0);
+            method.loop(lt(read("i"), read("x")), List.of(
+                    set("total", plus(read("total"), call("apply", Builtin.I, thisRef(), read("i")))),
+                    cond(eq(mod(read("total"), 7), i % 7)).withBody(List.of(
+                            set("total", plus(read("total"), 1)))),
+                    set("i", plus(read("i"), 1))));
+            method.returnValue(read("total"));
+        }
+        return builder;
+    }
+
+    private static void addSwitchMethod(ClassBuilder builder, String name, int cases) {
+        var method = builder.mkMethod(name, List.of("I"), "I", new GenericVars("x"));
+        var switchStatement = method.addSwitch(read("x"));
+        for (int i = 0; i < cases; i++) {
+            switchStatement.setCase(i, List.<CodeElement>of(returnValue(i * 31 + 7)));
+        }
+        switchStatement.setDefault(List.of(returnValue(-1)));
+        method.returnValue(-2);
+    }
+}
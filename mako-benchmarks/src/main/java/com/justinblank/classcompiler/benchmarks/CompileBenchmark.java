@@ -0,0 +1,47 @@
+package com.justinblank.classcompiler.benchmarks;
+
+import com.justinblank.classcompiler.ClassBuilder;
+import com.justinblank.classcompiler.ClassCompiler;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time to compile a ClassBuilder to bytes. Run with "-prof gc" to also measure allocation per compile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompileBenchmark {
+
+    @Param({"small", "medium", "huge"})
+    public String size;
+
+    private ClassBuilder builder;
+
+    // Compiling mutates the builder, so each invocation needs a fresh one
+    @Setup(Level.Invocation)
+    public void setup() {
+        switch (size) {
+            case "small":
+                builder = Builders.fibonacci();
+                break;
+            case "medium":
+                builder = Builders.crabSolver();
+                break;
+            case "huge":
+                builder = Builders.huge(200);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown size " + size);
+        }
+    }
+
+    @Benchmark
+    public byte[] compile() {
+        return new ClassCompiler(builder).generateClassAsBytes();
+    }
+}
@@ -0,0 +1,94 @@
+package com.justinblank.classcompiler.benchmarks;
+
+import com.justinblank.classcompiler.ClassBuilder;
+import com.justinblank.classcompiler.ClassCompiler;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the speed of mako generated methods against the same code compiled by javac.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class GeneratedCodeBenchmark {
+
+    private static final int SWITCH_CASES = 32;
+
+    private IntUnaryFunction makoFibonacci;
+    private IntUnaryFunction javaFibonacci;
+    private IntArrayFunction makoCrabSolver;
+    private IntArrayFunction javaCrabSolver;
+    private IntUnaryFunction makoSwitch;
+    private IntUnaryFunction javaSwitch;
+
+    private int[] crabPositions;
+    private int[] switchInputs;
+
+    @Setup
+    public void setup() throws Exception {
+        makoFibonacci = instantiate(Builders.fibonacci(), IntUnaryFunction.class);
+        javaFibonacci = new JavaImplementations.Fibonacci();
+        makoCrabSolver = instantiate(Builders.crabSolver(), IntArrayFunction.class);
+        javaCrabSolver = new JavaImplementations.CrabSolver();
+        makoSwitch = instantiate(Builders.denseSwitch(SWITCH_CASES), IntUnaryFunction.class);
+        javaSwitch = new JavaImplementations.DenseSwitch();
+
+        var random = new Random(7);
+        crabPositions = new int[1000];
+        for (int i = 0; i < crabPositions.length; i++) {
+            crabPositions[i] = random.nextInt(2000);
+        }
+        switchInputs = new int[1024];
+        for (int i = 0; i < switchInputs.length; i++) {
+            // Mostly hits, with some misses to exercise the default case
+            switchInputs[i] = random.nextInt(SWITCH_CASES + 4);
+        }
+    }
+
+    private static <T> T instantiate(ClassBuilder builder, Class<T> type) throws Exception {
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        return type.cast(cls.getDeclaredConstructors()[0].newInstance());
+    }
+
+    @Benchmark
+    public int makoFibonacci() {
+        return makoFibonacci.apply(20);
+    }
+
+    @Benchmark
+    public int javaFibonacci() {
+        return javaFibonacci.apply(20);
+    }
+
+    @Benchmark
+    public int makoCrabSolver() {
+        return makoCrabSolver.apply(crabPositions);
+    }
+
+    @Benchmark
+    public int javaCrabSolver() {
+        return javaCrabSolver.apply(crabPositions);
+    }
+
+    @Benchmark
+    public void makoDenseSwitch(Blackhole blackhole) {
+        for (var input : switchInputs) {
+            blackhole.consume(makoSwitch.apply(input));
+        }
+    }
+
+    @Benchmark
+    public void javaDenseSwitch(Blackhole blackhole) {
+        for (var input : switchInputs) {
+            blackhole.consume(javaSwitch.apply(input));
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package com.justinblank.classcompiler.benchmarks;
+
+/**
+ * Implemented by generated classes so that benchmarks can call them without reflection.
+ */
+public interface IntUnaryFunction {
+
+    int apply(int x);
+}
@@ -0,0 +1,82 @@
+package com.justinblank.classcompiler.benchmarks;
+
+/**
+ * Hand written equivalents of the classes in {@link Builders}, compiled by javac.
+ */
+public class JavaImplementations {
+
+    public static class Fibonacci implements IntUnaryFunction {
+        @Override
+        public int apply(int x) {
+            if (x < 2) {
+                return 1;
+            }
+            return apply(x - 1) + apply(x - 2);
+        }
+    }
+
+    public static class CrabSolver implements IntArrayFunction {
+        @Override
+        public int apply(int[] crabPositions) {
+            int min = Integer.MAX_VALUE;
+            int guess = 0;
+            while (true) {
+                int total = 0;
+                for (int index = 0; index < crabPositions.length; index++) {
+                    total += Math.abs(guess - crabPositions[index]);
+                }
+                guess++;
+                if (total < min) {
+                    min = total;
+                }
+                if (total > min) {
+                    return min;
+                }
+            }
+        }
+    }
+
+    /**
+     * Equivalent to {@link Builders#denseSwitch(int)} with 32 cases.
+     */
+    public static class DenseSwitch implements IntUnaryFunction {
+        @Override
+        public int apply(int x) {
+            switch (x) {
+                case 0: return 7;
+                case 1: return 38;
+                case 2: return 69;
+                case 3: return 100;
+                case 4: return 131;
+                case 5: return 162;
+                case 6: return 193;
+                case 7: return 224;
+                case 8: return 255;
+                case 9: return 286;
+                case 10: return 317;
+                case 11: return 348;
+                case 12: return 379;
+                case 13: return 410;
+                case 14: return 441;
+                case 15: return 472;
+                case 16: return 503;
+                case 17: return 534;
+                case 18: return 565;
+                case 19: return 596;
+                case 20: return 627;
+                case 21: return 658;
+                case 22: return 689;
+                case 23: return 720;
+                case 24: return 751;
+                case 25: return 782;
+                case 26: return 813;
+                case 27: return 844;
+                case 28: return 875;
+                case 29: return 906;
+                case 30: return 937;
+                case 31: return 968;
+                default: return -1;
+            }
+        }
+    }
+}
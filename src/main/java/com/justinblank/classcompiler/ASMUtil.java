@@ -45,6 +45,18 @@ public class ASMUtil {
             case (Opcodes.IFGE): {
                 return Opcodes.IFLT;
             }
+            case (Opcodes.IF_ACMPEQ): {
+                return Opcodes.IF_ACMPNE;
+            }
+            case (Opcodes.IF_ACMPNE): {
+                return Opcodes.IF_ACMPEQ;
+            }
+            case (Opcodes.IFNULL): {
+                return Opcodes.IFNONNULL;
+            }
+            case (Opcodes.IFNONNULL): {
+                return Opcodes.IFNULL;
+            }
             default: {
                 return -1;
             }
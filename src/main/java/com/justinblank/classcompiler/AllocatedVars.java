@@ -0,0 +1,276 @@
+package com.justinblank.classcompiler;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The local variables of a method after assigning them to slots based on where each variable is live.
+ *
+ * Arguments keep the slots the JVM passes them in. Every other variable is live over an interval of the method's
+ * operations, from its first assignment to the last point where its value may still be read, and variables whose
+ * intervals don't overlap share a slot. Longs and doubles take two slots.
+ */
+class AllocatedVars implements Vars {
+
+    private final Map<String, Integer> slots;
+    private final Map<String, Operation> rangeStarts;
+    private final Map<String, Operation> rangeEnds;
+
+    private AllocatedVars(Map<String, Integer> slots, Map<String, Operation> rangeStarts,
+                          Map<String, Operation> rangeEnds) {
+        this.slots = slots;
+        this.rangeStarts = rangeStarts;
+        this.rangeEnds = rangeEnds;
+    }
+
+    /**
+     * Assign the variables of a lowered method to slots, rewriting its operations to use them.
+     *
+     * @param method the method, whose operations refer to variables by their index in the given vars
+     * @param vars the method's variables, whose first variables are its arguments
+     * @return the allocated variables, or null if the method refers to variables that aren't in its vars
+     */
+    static AllocatedVars allocate(Method method, Vars vars) {
+        var names = new ArrayList<String>();
+        var indexes = new HashMap<Integer, Integer>();
+        for (var pair : vars.allVars()) {
+            indexes.put(pair.getRight(), names.size());
+            names.add(pair.getLeft());
+        }
+        var positions = new ArrayList<Operation>();
+        var variables = new IdentityHashMap<Operation, Integer>();
+        var wide = new boolean[names.size()];
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                positions.add(op);
+                var variable = variableOf(op, vars, indexes);
+                if (variable == null) {
+                    continue;
+                }
+                if (variable < 0) {
+                    return null;
+                }
+                variables.put(op, variable);
+                wide[variable] |= isWide(op.spec.descriptor);
+            }
+        }
+
+        var isStatic = (method.modifiers & ACC_STATIC) != 0;
+        var argumentCount = Math.min(method.arguments.size(), names.size());
+        var slots = new LinkedHashMap<String, Integer>();
+        var next = isStatic ? 0 : 1;
+        for (var i = 0; i < method.arguments.size(); i++) {
+            if (i < argumentCount) {
+                slots.put(names.get(i), next);
+            }
+            next += isWide(method.arguments.get(i)) ? 2 : 1;
+        }
+        var firstLocal = next;
+
+        var intervals = liveIntervals(method.getBlocks(), variables, names.size());
+        var locals = new ArrayList<Integer>();
+        for (var i = argumentCount; i < names.size(); i++) {
+            if (intervals[i] != null) {
+                locals.add(i);
+            }
+        }
+        locals.sort(Comparator.comparingInt(i -> intervals[i][0]));
+        // The position of the last operation of the variable currently assigned to each slot
+        var busyUntil = new ArrayList<Integer>();
+        Map<String, Operation> rangeStarts = new HashMap<>();
+        Map<String, Operation> rangeEnds = new HashMap<>();
+        for (var local : locals) {
+            var interval = intervals[local];
+            var width = wide[local] ? 2 : 1;
+            var slot = firstLocal;
+            while (!isFree(busyUntil, slot - firstLocal, width, interval[0])) {
+                slot++;
+            }
+            for (var i = slot - firstLocal; i < slot - firstLocal + width; i++) {
+                while (busyUntil.size() <= i) {
+                    busyUntil.add(-1);
+                }
+                busyUntil.set(i, interval[1]);
+            }
+            var name = names.get(local);
+            slots.put(name, slot);
+            rangeStarts.put(name, positions.get(interval[0]));
+            rangeEnds.put(name, positions.get(interval[1]));
+        }
+
+        for (var block : method.getBlocks()) {
+            block.operations.replaceAll(op -> {
+                var variable = variables.get(op);
+                if (variable == null || op.inst == Operation.Inst.INCREMENT) {
+                    // Increments find their slot by name
+                    return op;
+                }
+                var name = names.get(variable);
+                var spec = new RefSpec(name, null, op.spec.descriptor);
+                var rewritten = new Operation(op.inst, slots.get(name), null, spec, null);
+                if (rangeStarts.get(name) == op) {
+                    rangeStarts.put(name, rewritten);
+                }
+                if (rangeEnds.get(name) == op) {
+                    rangeEnds.put(name, rewritten);
+                }
+                return rewritten;
+            });
+        }
+        return new AllocatedVars(slots, rangeStarts, rangeEnds);
+    }
+
+    /**
+     * @return the index in names of the variable the operation uses, null if it uses none, or -1 if the variable is
+     * unknown
+     */
+    private static Integer variableOf(Operation op, Vars vars, Map<Integer, Integer> indexes) {
+        switch (op.inst) {
+            case READ_VAR:
+                if (op.spec != null && op.spec.isSelf) {
+                    return null;
+                }
+                // Reads of named references are emitted by name, so the name takes precedence
+                if (op.spec != null && op.spec.name != null && ClassCompiler.loadOpcode(op) == ALOAD) {
+                    return indexes.getOrDefault(indexByName(vars, op.spec.name), -1);
+                }
+                return indexes.getOrDefault(op.count, -1);
+            case SET_VAR:
+                if (op.spec == null) {
+                    return -1;
+                }
+                return indexes.getOrDefault(op.count, -1);
+            case INCREMENT:
+                return indexes.getOrDefault(indexByName(vars, op.spec.name), -1);
+            default:
+                return null;
+        }
+    }
+
+    private static int indexByName(Vars vars, String name) {
+        try {
+            return vars.indexByName(name);
+        }
+        catch (IllegalStateException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Compute the interval of operation positions over which each variable must keep its value, as the span from the
+     * first to the last operation where it's assigned, read, or live.
+     *
+     * @return the first and last position for each variable, or null for variables that are never used
+     */
+    private static int[][] liveIntervals(List<Block> blocks, Map<Operation, Integer> variables, int variableCount) {
+        var liveness = Liveness.analyze(blocks, variables, variableCount);
+        var liveIn = liveness.liveIn;
+        var liveOut = liveness.liveOut;
+
+        // A variable is live between the points where it's used within a block, and from the start or to the end of
+        // blocks where it's live on entry or exit, so those points bound every position where it's live
+        var intervals = new int[variableCount][];
+        var position = 0;
+        for (var i = 0; i < blocks.size(); i++) {
+            var operations = blocks.get(i).operations;
+            if (operations.isEmpty()) {
+                continue;
+            }
+            var first = position;
+            for (var op : operations) {
+                var variable = variables.get(op);
+                if (variable != null) {
+                    extend(intervals, variable, position);
+                }
+                position++;
+            }
+            var last = position - 1;
+            for (var variable = liveIn[i].nextSetBit(0); variable >= 0; variable = liveIn[i].nextSetBit(variable + 1)) {
+                extend(intervals, variable, first);
+            }
+            for (var variable = liveOut[i].nextSetBit(0); variable >= 0; variable = liveOut[i].nextSetBit(variable + 1)) {
+                extend(intervals, variable, last);
+            }
+        }
+        return intervals;
+    }
+
+    private static void extend(int[][] intervals, int variable, int position) {
+        var interval = intervals[variable];
+        if (interval == null) {
+            intervals[variable] = new int[]{position, position};
+        }
+        else {
+            interval[0] = Math.min(interval[0], position);
+            interval[1] = Math.max(interval[1], position);
+        }
+    }
+
+    private static boolean isFree(List<Integer> busyUntil, int offset, int width, int start) {
+        for (var i = offset; i < offset + width; i++) {
+            if (i < busyUntil.size() && busyUntil.get(i) >= start) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWide(String descriptor) {
+        return "J".equals(descriptor) || "D".equals(descriptor);
+    }
+
+    @Override
+    public int indexByName(String name) {
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            throw new IllegalStateException("Tried to get index for nonexistant Var=" + name);
+        }
+        return slot;
+    }
+
+    @Override
+    public List<Pair<String, Integer>> allVars() {
+        var vars = new ArrayList<Pair<String, Integer>>();
+        for (var e : slots.entrySet()) {
+            vars.add(Pair.of(e.getKey(), e.getValue()));
+        }
+        return vars;
+    }
+
+    @Override
+    public String nameByIndex(int i) {
+        // Several variables may share a slot, so this gives the first
+        for (var e : slots.entrySet()) {
+            if (e.getValue() == i) {
+                return e.getKey();
+            }
+        }
+        throw new IllegalStateException("Tried to get name for out of bound index Index=" + i);
+    }
+
+    /**
+     * @return the first operation where the variable is live, or null if it's live for the whole method
+     */
+    Operation rangeStart(String name) {
+        return rangeStarts.get(name);
+    }
+
+    /**
+     * @return true if the variable's range starts with the store that gives it a value, so that the variable only
+     * holds its value after that operation
+     */
+    boolean rangeStartsWithStore(String name) {
+        var start = rangeStarts.get(name);
+        return start != null && start.inst == Operation.Inst.SET_VAR && name.equals(start.spec.name);
+    }
+
+    /**
+     * @return the last operation where the variable is live, or null if it's live for the whole method
+     */
+    Operation rangeEnd(String name) {
+        return rangeEnds.get(name);
+    }
+}
@@ -46,6 +46,11 @@ public class Block {
         return this;
     }
 
+    public Block increment(String varName, int increment) {
+        addOperation(Operation.mkIncrement(varName, increment));
+        return this;
+    }
+
     /**
      * Add an operation for reading a static value off of the current class
      *
@@ -128,6 +133,11 @@ public class Block {
         return this;
     }
 
+    public Block push(String s) {
+        addOperation(Operation.pushValue(s));
+        return this;
+    }
+
     public Block push(boolean b) {
         addOperation(Operation.pushValue(b));
         return this;
@@ -0,0 +1,238 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.CanonicalForm;
+import com.justinblank.classloader.ClassLoaderStrategy;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * A cache of compiled classes, keyed by the structure of the {@link ClassBuilder} that produced them. Builders with
+ * the same name, package, supertypes, fields and methods produce the same key, so a cache hit skips method resolution,
+ * type inference and bytecode generation.
+ *
+ * The cache holds at most maxSize entries, and evicts the least recently used entry when full. Since a cached class
+ * stays reachable until it is evicted, classes defined through the cache can only be unloaded after eviction.
+ *
+ * Builders must be passed to the cache before they have been compiled.
+ */
+public class ClassCache {
+
+    private final int maxSize;
+    private final ClassLoaderStrategy strategy;
+    private final LinkedHashMap<String, CacheEntry> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Create a cache that defines each class in its own class loader
+     * @param maxSize the maximum number of classes to cache
+     */
+    public ClassCache(int maxSize) {
+        this(maxSize, ClassLoaderStrategy.perClass());
+    }
+
+    /**
+     * Create a cache
+     * @param maxSize the maximum number of classes to cache
+     * @param strategy the strategy used to define classes returned by {@link #getClass(ClassBuilder)}. A class is
+     *                 defined again after it's evicted, and builders with the same name but a different structure
+     *                 have different entries, so the strategy must be able to define a name more than once, which rules
+     *                 out {@link ClassLoaderStrategy#shared()} and {@link ClassLoaderStrategy#group()}
+     */
+    public ClassCache(int maxSize, ClassLoaderStrategy strategy) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive, got " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.strategy = Objects.requireNonNull(strategy, "strategy cannot be null");
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > ClassCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the bytes for the class the builder describes, compiling it if it is not cached
+     * @param builder the class builder
+     * @return the class file
+     */
+    public byte[] getBytes(ClassBuilder builder) {
+        return entry(builder).bytes.clone();
+    }
+
+    /**
+     * Get the class the builder describes, compiling and defining it if it is not cached
+     * @param builder the class builder
+     * @return the class
+     */
+    public Class<?> getClass(ClassBuilder builder) {
+        var entry = entry(builder);
+        synchronized (entry) {
+            if (entry.cls == null) {
+                var name = CompilerUtil.internalNameToCanonicalName(builder.getFQCN());
+                entry.cls = strategy.define(name, entry.bytes);
+            }
+            return entry.cls;
+        }
+    }
+
+    private CacheEntry entry(ClassBuilder builder) {
+        var key = hash(builder);
+        synchronized (this) {
+            var entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry;
+            }
+            misses++;
+        }
+        // Compile outside the lock, so that one slow compile doesn't block other callers
+        var bytes = new ClassCompiler(builder).generateClassAsBytes();
+        synchronized (this) {
+            // Another thread may have compiled the same class in the meantime--keep the first to preserve class identity
+            return entries.computeIfAbsent(key, k -> new CacheEntry(bytes));
+        }
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Compute a hash of the structure of the class builder. Builders that will generate the same class have the same
+     * hash.
+     *
+     * @param builder the class builder, which must not have been compiled yet
+     * @return a hex encoded SHA-256 hash
+     */
+    public static String hash(ClassBuilder builder) {
+        var sb = new StringBuilder();
+        appendString(sb, builder.getClassName());
+        appendString(sb, builder.getClassPackage());
+        appendString(sb, builder.superClass);
+        if (builder.interfaces != null) {
+            for (var i : builder.interfaces) {
+                appendString(sb, i);
+            }
+        }
+        sb.append("fields");
+        for (var field : builder.fields) {
+            sb.append(field.modifier).append(' ');
+            appendString(sb, field.name);
+            appendString(sb, field.descriptor);
+            appendString(sb, field.signature);
+            appendString(sb, field.value == null ? null : field.value.getClass().getSimpleName() + " " + field.value);
+        }
+        sb.append("static");
+        appendBlocks(sb, builder.staticBlocks);
+        var methodNames = new ArrayList<>(builder.methods.keySet());
+        Collections.sort(methodNames);
+        for (var methodName : methodNames) {
+            for (var method : builder.methods.get(methodName)) {
+                appendMethod(sb, method);
+            }
+        }
+        return sha256(sb.toString());
+    }
+
+    private static void appendMethod(StringBuilder sb, Method method) {
+        sb.append("method ").append(method.modifiers).append(' ');
+        appendString(sb, method.methodName);
+        appendString(sb, method.descriptor());
+        method.getMatchingVars().ifPresent(vars -> {
+            for (var pair : vars.allVars()) {
+                appendString(sb, pair.getLeft());
+                sb.append(pair.getRight()).append(';');
+            }
+        });
+        appendBlocks(sb, method.getBlocks());
+        CanonicalForm.append(sb, method.getElements());
+    }
+
+    private static void appendBlocks(StringBuilder sb, List<Block> blocks) {
+        sb.append('{');
+        for (var block : blocks) {
+            sb.append('B').append(block.number).append(':');
+            for (var op : block.operations) {
+                sb.append(op.inst).append(' ').append(op.count).append(' ');
+                appendString(sb, op.constant == null ? null : op.constant.getClass().getSimpleName() + " " + op.constant);
+                sb.append(op.target == null ? "-" : op.target.number).append(' ');
+                if (op.blockTargets != null) {
+                    for (var target : op.blockTargets) {
+                        sb.append(target.number).append(',');
+                    }
+                }
+                if (op.spec != null) {
+                    appendString(sb, op.spec.name);
+                    appendString(sb, op.spec.className);
+                    appendString(sb, op.spec.descriptor);
+                    sb.append(op.spec.isSelf);
+                }
+                if (op.ints != null) {
+                    sb.append(op.ints);
+                }
+                sb.append(';');
+            }
+        }
+        sb.append('}');
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("-1;");
+        }
+        else {
+            sb.append(s.length()).append(':').append(s).append(';');
+        }
+    }
+
+    private static String sha256(String s) {
+        try {
+            var digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            var sb = new StringBuilder(digest.length * 2);
+            for (var b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class CacheEntry {
+        private final byte[] bytes;
+        private Class<?> cls;
+
+        private CacheEntry(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
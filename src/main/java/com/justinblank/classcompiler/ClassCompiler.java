@@ -1,13 +1,16 @@
 package com.justinblank.classcompiler;
 
 import com.justinblank.classcompiler.lang.Type;
-import com.justinblank.classloader.MyClassLoader;
+import com.justinblank.classloader.ClassLoaderStrategy;
 import org.apache.commons.lang3.tuple.Pair;
 import org.objectweb.asm.*;
 import org.objectweb.asm.util.CheckClassAdapter;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
@@ -17,16 +20,35 @@ import static com.justinblank.classcompiler.lang.CodeElement.read;
 import static org.objectweb.asm.Opcodes.*;
 
 // TODO: Simplify/remove functionality that just passes through to ASM
+/**
+ * Compiles a {@link ClassBuilder} to bytecode.
+ *
+ * Thread safety: a ClassCompiler, and the ClassBuilder, Methods and Blocks it compiles, must be confined to one thread
+ * while it runs. Compiling a class mutates its methods, so a builder must not be compiled twice concurrently, and two
+ * builders must not share Method or Block instances. Otherwise, distinct builders may be compiled concurrently, either
+ * by separate ClassCompilers or through {@link #compileAll(Collection, Executor)}. The resulting classes may be
+ * defined concurrently through any {@link ClassLoaderStrategy}.
+ */
 public class ClassCompiler {
 
-    private final ClassWriter classWriter;
-    private final ClassVisitor classVisitor;
+    private ClassWriter classWriter;
+    private ClassVisitor classVisitor;
     private final ClassBuilder classBuilder;
     private final String className;
     private final boolean debug;
     private int lineNumber = 1;
 
     private final PrintStream printStream;
+    private Executor methodExecutor;
+    private CompilationListener listener;
+    private boolean inlining;
+    private boolean loopInvariantCodeMotion;
+    private boolean commonSubexpressionElimination;
+    // Null when ASM computes frames
+    private Map<Method, StackMapFrames> frames;
+    private StackMapFrames staticInitializerFrames;
+    // The code size still free in <clinit>, which array constants created while resolving methods are added to
+    private AtomicInteger staticInitializerSpace;
 
     public ClassCompiler(ClassBuilder classBuilder) {
         this(classBuilder, false, System.out);
@@ -35,27 +57,140 @@ public class ClassCompiler {
     public ClassCompiler(ClassBuilder classBuilder, boolean debug, PrintStream output) {
         Objects.requireNonNull(classBuilder, "class builder cannot be null");
         Objects.requireNonNull(output, "output cannot be null");
-        this.classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
         this.debug = debug;
-        if (debug) {
-            this.classVisitor = new CheckClassAdapter(this.classWriter);
-        }
-        else {
-            this.classVisitor = this.classWriter;
-        }
         this.classBuilder = classBuilder;
         this.className = classBuilder.getClassName();
         this.printStream = output;
     }
 
+    /**
+     * Resolve the methods of the class in parallel using the given executor. Each method is resolved and optimized
+     * independently, only writing the final bytecode happens on the calling thread.
+     *
+     * @param executor the executor, or null to resolve methods on the calling thread
+     * @return this compiler
+     */
+    public ClassCompiler withMethodExecutor(Executor executor) {
+        this.methodExecutor = executor;
+        return this;
+    }
+
+    /**
+     * Report the time and allocation of each compilation phase, and the size of each method, to the given listener.
+     *
+     * @param listener the listener, or null to stop reporting
+     * @return this compiler
+     */
+    public ClassCompiler withListener(CompilationListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Choose whether calls to small private, static or final methods of the class are replaced with the body of the
+     * called method. Private methods that are no longer called once their calls are inlined are left out of the class.
+     * Disabled by default.
+     *
+     * @param inlining true to inline calls
+     * @return this compiler
+     */
+    public ClassCompiler withInlining(boolean inlining) {
+        this.inlining = inlining;
+        return this;
+    }
+
+    /**
+     * Choose whether expressions that don't change while a loop runs, such as the length of an array that the loop
+     * doesn't reassign, or reads of final fields, are computed once before the loop. Disabled by default.
+     *
+     * @param loopInvariantCodeMotion true to move invariant expressions out of loops
+     * @return this compiler
+     */
+    public ClassCompiler withLoopInvariantCodeMotion(boolean loopInvariantCodeMotion) {
+        this.loopInvariantCodeMotion = loopInvariantCodeMotion;
+        return this;
+    }
+
+    /**
+     * Choose whether an expression without side effects that is evaluated again with the same value, such as a repeated
+     * array read or arithmetic on the same variables, is computed once and stored in a variable. Disabled by default.
+     *
+     * @param commonSubexpressionElimination true to compute repeated expressions once
+     * @return this compiler
+     */
+    public ClassCompiler withCommonSubexpressionElimination(boolean commonSubexpressionElimination) {
+        this.commonSubexpressionElimination = commonSubexpressionElimination;
+        return this;
+    }
+
     public byte[] generateClassAsBytes() {
         return writeClassAsBytes();
     }
 
     public Class<?> generateClass() {
+        return generateClass(ClassLoaderStrategy.shared());
+    }
+
+    /**
+     * Generate the class and define it using the given strategy.
+     *
+     * @param strategy the strategy that determines which loader the class is defined in
+     * @return the generated class
+     */
+    public Class<?> generateClass(ClassLoaderStrategy strategy) {
+        Objects.requireNonNull(strategy, "strategy cannot be null");
         byte[] classBytes = generateClassAsBytes();
         var name = CompilerUtil.internalNameToCanonicalName(classBuilder.getFQCN());
-        return MyClassLoader.getInstance().loadClass(name, classBytes);
+        var timer = PhaseTimer.start(listener);
+        var cls = strategy.define(name, classBytes);
+        if (timer != null) {
+            timer.finish(listener, className, null, CompilationPhase.CLASS_DEFINITION);
+        }
+        return cls;
+    }
+
+    /**
+     * Compile many class builders in parallel.
+     *
+     * @param builders the builders to compile, which must be distinct and must not share methods
+     * @param executor the executor that runs each compilation, e.g. a ForkJoinPool
+     * @return the class files, in the iteration order of builders
+     * @throws ClassCompilationException if any builder fails to compile
+     */
+    public static List<byte[]> compileAll(Collection<ClassBuilder> builders, Executor executor) {
+        Objects.requireNonNull(builders, "builders cannot be null");
+        Objects.requireNonNull(executor, "executor cannot be null");
+        var seen = Collections.newSetFromMap(new IdentityHashMap<ClassBuilder, Boolean>());
+        for (var builder : builders) {
+            if (!seen.add(Objects.requireNonNull(builder, "builders cannot contain null"))) {
+                throw new IllegalArgumentException("Cannot compile the same builder twice, className=" + builder.getClassName());
+            }
+        }
+        var futures = new ArrayList<CompletableFuture<byte[]>>(builders.size());
+        for (var builder : builders) {
+            futures.add(CompletableFuture.supplyAsync(() -> new ClassCompiler(builder).generateClassAsBytes(), executor));
+        }
+        var results = new ArrayList<byte[]>(futures.size());
+        for (var future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+
+    static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ClassCompilationException(cause);
+        }
     }
 
     protected String getClassName() {
@@ -68,10 +203,29 @@ public class ClassCompiler {
             // Resolve methods in mako library, translating from the user-visible representation into a lower level
             // representation internal to mako.
             // This is where type inference happens.
-            for (var method : classBuilder.allMethods()) {
-                method.setClass(getClassName(), classBuilder.getClassPackage());
-                method.resolve();
-                if (debug) {
+            var allMethods = classBuilder.allMethods();
+            // The methods' array constants share the static initializer with the class's own static blocks
+            staticInitializerSpace = new AtomicInteger(MethodSize.MAX_METHOD_SIZE
+                    - MethodSize.estimate(classBuilder.staticBlocks, Optional.empty()) - 1);
+            for (var method : allMethods) {
+                setUp(method);
+            }
+            resolveMethods(allMethods);
+            resolveOutlinedMethods(allMethods);
+            allMethods = classBuilder.allMethods();
+            for (var method : allMethods) {
+                for (var constant : method.getArrayConstants().entrySet()) {
+                    classBuilder.addArrayConstant(constant.getKey(), ACC_PRIVATE, constant.getValue());
+                }
+                method.getArrayConstants().clear();
+            }
+            if (inlining) {
+                var timer = PhaseTimer.start(listener);
+                new Inliner(allMethods, this::isSelf).inline();
+                finishPhase(timer, null, CompilationPhase.INLINING);
+            }
+            if (debug) {
+                for (var method : allMethods) {
                     printStream.println("Method " + method.methodName + ": " + GraphUtil.methodVis(method));
                 }
             }
@@ -82,15 +236,23 @@ public class ClassCompiler {
                 printStream.println(stringWriter);
             }
 
+            var methodsToWrite = methodsToWrite(allMethods);
+            computeFrames(methodsToWrite);
+            createClassWriter();
+
             // Now take that representation and emit calls to the ASM library
             defineClass(classBuilder);
             addFields();
 
             writeStaticBlocks();
-            for (var method : methodsToWrite(classBuilder.allMethods())) {
+            for (var method : methodsToWrite) {
                 writeMethod(method);
             }
+            var timer = PhaseTimer.start(listener);
             classBytes = classWriter.toByteArray();
+            if (timer != null) {
+                timer.finish(listener, className, null, CompilationPhase.FRAME_COMPUTATION);
+            }
         }
         catch (ClassCompilationException e) {
             e.setClassName(getClassName());
@@ -113,6 +275,106 @@ public class ClassCompiler {
         return classBytes;
     }
 
+    /**
+     * Compute the stack map frames, max stack and max locals of every method, unless one of them needs ASM to compute
+     * its frames, in which case ASM computes them for the whole class.
+     */
+    private void computeFrames(Collection<Method> methods) {
+        var internalName = CompilerUtil.internalName(classBuilder.getFQCN());
+        var methodFrames = new IdentityHashMap<Method, StackMapFrames>();
+        String methodName = "<clinit>";
+        try {
+            if (!classBuilder.staticBlocks.isEmpty()) {
+                staticInitializerFrames = StackMapFrames.computeStaticInitializer(internalName, classBuilder.staticBlocks);
+            }
+            for (var method : methods) {
+                methodName = method.methodName;
+                var timer = PhaseTimer.start(listener);
+                methodFrames.put(method, StackMapFrames.compute(internalName, method));
+                finishPhase(timer, methodName, CompilationPhase.FRAME_COMPUTATION);
+            }
+            frames = methodFrames;
+        }
+        catch (StackMapFrames.AnalysisException e) {
+            if (debug) {
+                printStream.println("Using ASM to compute frames, method " + methodName + ": " + e.getMessage());
+            }
+            frames = null;
+            staticInitializerFrames = null;
+        }
+        catch (ClassCompilationException e) {
+            e.setMethodName(methodName);
+            throw e;
+        }
+    }
+
+    private void createClassWriter() {
+        // When we supply the frames and maximums, ASM has nothing left to compute
+        classWriter = new ClassWriter(frames == null ? ClassWriter.COMPUTE_FRAMES : 0);
+        if (debug) {
+            classVisitor = new CheckClassAdapter(classWriter);
+        }
+        else {
+            classVisitor = classWriter;
+        }
+    }
+
+    private void setUp(Method method) {
+        method.setClass(getClassName(), classBuilder.getClassPackage());
+        method.setListener(listener);
+        var fieldModifiers = new HashMap<String, Integer>();
+        for (var field : classBuilder.getFields()) {
+            fieldModifiers.put(field.name, field.modifier);
+        }
+        method.setFieldModifiers(fieldModifiers);
+        method.setStaticInitializerSpace(staticInitializerSpace);
+        if (loopInvariantCodeMotion) {
+            method.enableLoopInvariantCodeMotion();
+        }
+        if (commonSubexpressionElimination) {
+            method.enableCommonSubexpressionElimination();
+        }
+    }
+
+    private void resolveMethods(Collection<Method> methods) {
+        if (methodExecutor == null || methods.size() < 2) {
+            for (var method : methods) {
+                method.resolve();
+            }
+            return;
+        }
+        // Methods share no state during resolution, so they can be resolved independently
+        var futures = new ArrayList<CompletableFuture<Void>>(methods.size());
+        for (var method : methods) {
+            futures.add(CompletableFuture.runAsync(method::resolve, methodExecutor));
+        }
+        for (var future : futures) {
+            join(future);
+        }
+    }
+
+    /**
+     * Add the helpers that methods were split into to the class, and resolve them, which may split them further.
+     */
+    private void resolveOutlinedMethods(Collection<Method> methods) {
+        List<Method> outlined = new ArrayList<>();
+        for (var method : methods) {
+            outlined.addAll(method.getOutlinedMethods());
+        }
+        while (!outlined.isEmpty()) {
+            for (var method : outlined) {
+                setUp(method);
+                classBuilder.addMethod(method);
+            }
+            resolveMethods(outlined);
+            List<Method> nextOutlined = new ArrayList<>();
+            for (var method : outlined) {
+                nextOutlined.addAll(method.getOutlinedMethods());
+            }
+            outlined = nextOutlined;
+        }
+    }
+
     // TODO: Could consider removing this...it's convenient for needle and possibly some other use-cases, but a bit
     //  weird
     /**
@@ -137,7 +399,7 @@ public class ClassCompiler {
                 for (var op : block.operations) {
                     if (op.inst == Operation.Inst.CALL) {
                         var spec = op.spec;
-                        if (spec.isSelf || spec.className.equals(getClassName())) {
+                        if (isSelf(spec)) {
                             for (var otherMethod : allMethods) {
                                 if (otherMethod.methodName.equals(spec.name) && !methods.contains(otherMethod)) {
                                     methodsToAdd.add(otherMethod);
@@ -151,6 +413,14 @@ public class ClassCompiler {
         return methods;
     }
 
+    /**
+     * @return true if the method or field referenced belongs to the class being compiled
+     */
+    boolean isSelf(RefSpec spec) {
+        return spec.isSelf || spec.className.equals(getClassName())
+                || spec.className.equals(CompilerUtil.internalName(classBuilder.getFQCN()));
+    }
+
     protected ClassBuilder getClassBuilder() {
         return classBuilder;
     }
@@ -159,20 +429,20 @@ public class ClassCompiler {
         if (classBuilder.staticBlocks.isEmpty()) {
             return;
         }
+        var timer = PhaseTimer.start(listener);
         var mv = classVisitor.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
         mv.visitCode();
 
-        for (var b : classBuilder.staticBlocks) {
-            visitBlock(mv, Optional.empty(), b);
+        var pendingFrame = visitBlocks(mv, Optional.empty(), classBuilder.staticBlocks, staticInitializerFrames,
+                new HashMap<>(), new HashMap<>());
+        if (pendingFrame != null) {
+            visitFrame(mv, pendingFrame);
         }
         mv.visitInsn(RETURN);
-        if (debug) {
-            mv.visitMaxs(6, 6);
-        }
-        else {
-            mv.visitMaxs(-1, -1);
-        }
+        timer = finishPhase(timer, "<clinit>", CompilationPhase.EMISSION);
+        visitMaxs(mv, staticInitializerFrames, 6);
         mv.visitEnd();
+        finishPhase(timer, "<clinit>", CompilationPhase.FRAME_COMPUTATION);
     }
 
     private void defineClass(ClassBuilder builder) {
@@ -187,27 +457,27 @@ public class ClassCompiler {
 
     void writeMethod(Method method) {
         try {
+            var timer = PhaseTimer.start(listener);
             var mv = classVisitor.visitMethod(method.modifiers, method.methodName, method.descriptor(), null, null);
             Optional<Vars> vars = method.getMatchingVars();
 
             mv.visitCode();
             Label startLabel = new Label();
             mv.visitLabel(startLabel);
-            for (var block : method.getBlocks()) {
-                visitBlock(mv, vars, block);
-            }
+            Map<Operation, Label> labelsBefore = new IdentityHashMap<>();
+            Map<Operation, Label> labelsAfter = new IdentityHashMap<>();
+            visitBlocks(mv, vars, method.getBlocks(), frames == null ? null : frames.get(method), labelsBefore,
+                    labelsAfter);
 
             Label endLabel = new Label();
             mv.visitLabel(endLabel);
-            visitLocalVars(method, mv, startLabel, endLabel);
+            visitLocalVars(method, mv, startLabel, endLabel, labelsBefore, labelsAfter);
+            timer = finishPhase(timer, method.methodName, CompilationPhase.EMISSION);
 
-            if (debug) {
-                mv.visitMaxs(12, 12);
-            }
-            else {
-                mv.visitMaxs(-1, -1);
-            }
+            // With COMPUTE_FRAMES, ASM computes the frames for the method here
+            visitMaxs(mv, frames == null ? null : frames.get(method), 12);
             mv.visitEnd();
+            finishPhase(timer, method.methodName, CompilationPhase.FRAME_COMPUTATION);
         }
         catch (ClassCompilationException e) {
             e.setMethodName(method.methodName);
@@ -220,7 +490,37 @@ public class ClassCompiler {
         }
     }
 
-    private static void visitLocalVars(Method method, MethodVisitor mv, Label startLabel, Label endLabel) {
+    /**
+     * @param blockFrames the frames of the method, or null if ASM computes them
+     * @param debugSize the maximums to use in debug mode, when ASM computes frames
+     */
+    private void visitMaxs(MethodVisitor mv, StackMapFrames blockFrames, int debugSize) {
+        if (blockFrames != null) {
+            mv.visitMaxs(blockFrames.maxStack(), blockFrames.maxLocals());
+        }
+        else if (debug) {
+            mv.visitMaxs(debugSize, debugSize);
+        }
+        else {
+            mv.visitMaxs(-1, -1);
+        }
+    }
+
+    private PhaseTimer finishPhase(PhaseTimer timer, String methodName, CompilationPhase phase) {
+        if (timer == null) {
+            return null;
+        }
+        timer.finish(listener, className, methodName, phase);
+        return PhaseTimer.start(listener);
+    }
+
+    /**
+     * @param labelsBefore the labels visited before the operations where variables become live
+     * @param labelsAfter the labels visited after the operations where variables are assigned their first value, or
+     *                    stop being live
+     */
+    private static void visitLocalVars(Method method, MethodVisitor mv, Label startLabel, Label endLabel,
+                                       Map<Operation, Label> labelsBefore, Map<Operation, Label> labelsAfter) {
         var vars = method.getMatchingVars();
         vars.ifPresent((v) -> {
             List<Pair<String, Integer>> variablesWithIndexes = v.allVars();
@@ -237,22 +537,97 @@ public class ClassCompiler {
                     // Typically this is an unused variable, we can omit it from the debug info, rather than crash
                     continue;
                 }
-                mv.visitLocalVariable(variableName, typeDescriptor, null, startLabel, endLabel, pair.getRight());
+                var start = startLabel;
+                var end = endLabel;
+                if (v instanceof AllocatedVars && ((AllocatedVars) v).rangeStart(variableName) != null) {
+                    var allocated = (AllocatedVars) v;
+                    // A variable that's first assigned has no value until the store is done
+                    var startLabels = allocated.rangeStartsWithStore(variableName) ? labelsAfter : labelsBefore;
+                    start = startLabels.get(allocated.rangeStart(variableName));
+                    end = labelsAfter.get(allocated.rangeEnd(variableName));
+                    if (start == null || end == null) {
+                        // Inlining or pruning removed an operation that bounded the range. Any other range could
+                        // overlap the variables sharing the slot, so leave the variable out of the debug info
+                        continue;
+                    }
+                }
+                mv.visitLocalVariable(variableName, typeDescriptor, null, start, end, pair.getRight());
             }
         });
     }
 
-    private void visitBlock(MethodVisitor mv, Optional<Vars> vars, Block block) {
-        mv.visitLabel(block.getLabel());
-        for (var op : block.operations) {
-            writeOperation(mv, vars, op);
+    /**
+     * Visit the blocks of a method, along with their frames, skipping unreachable blocks.
+     *
+     * @param blockFrames the frames of the blocks, or null if ASM computes them
+     * @param labelsBefore filled with the labels visited before the operations where variables become live
+     * @param labelsAfter filled with the labels visited after the operations where variables are assigned their first
+     *                    value, or stop being live
+     * @return a frame that still needs to be visited, if the last block was an empty jump target
+     */
+    private StackMapFrames.Frame visitBlocks(MethodVisitor mv, Optional<Vars> vars, List<Block> blocks,
+                                             StackMapFrames blockFrames, Map<Operation, Label> labelsBefore,
+                                             Map<Operation, Label> labelsAfter) {
+        Set<Operation> labelledBefore = Collections.newSetFromMap(new IdentityHashMap<>());
+        Set<Operation> labelledAfter = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (vars.isPresent() && vars.get() instanceof AllocatedVars) {
+            var allocated = (AllocatedVars) vars.get();
+            for (var pair : allocated.allVars()) {
+                var start = allocated.rangeStart(pair.getLeft());
+                if (start != null) {
+                    if (allocated.rangeStartsWithStore(pair.getLeft())) {
+                        labelledAfter.add(start);
+                    }
+                    else {
+                        labelledBefore.add(start);
+                    }
+                    labelledAfter.add(allocated.rangeEnd(pair.getLeft()));
+                }
+            }
         }
+        StackMapFrames.Frame pendingFrame = null;
+        for (var block : blocks) {
+            if (blockFrames != null && !blockFrames.isReachable(block)) {
+                continue;
+            }
+            mv.visitLabel(block.getLabel());
+            if (blockFrames != null && blockFrames.frameAt(block) != null) {
+                // An empty block shares its offset with the next block, and only one frame can be visited at each
+                // offset. The later frame is the one to keep, since the empty block's state flows into it.
+                pendingFrame = blockFrames.frameAt(block);
+            }
+            if (block.isEmpty()) {
+                continue;
+            }
+            if (pendingFrame != null) {
+                visitFrame(mv, pendingFrame);
+                pendingFrame = null;
+            }
+            for (var op : block.operations) {
+                if (labelledBefore.contains(op) && !labelsBefore.containsKey(op)) {
+                    var label = new Label();
+                    mv.visitLabel(label);
+                    labelsBefore.put(op, label);
+                }
+                writeOperation(mv, vars, op, blockFrames);
+                if (labelledAfter.contains(op) && !labelsAfter.containsKey(op)) {
+                    var label = new Label();
+                    mv.visitLabel(label);
+                    labelsAfter.put(op, label);
+                }
+            }
+        }
+        return pendingFrame;
+    }
+
+    private static void visitFrame(MethodVisitor mv, StackMapFrames.Frame frame) {
+        mv.visitFrame(F_NEW, frame.locals.length, frame.locals, frame.stack.length, frame.stack);
     }
 
-    private void writeOperation(MethodVisitor mv, Optional<Vars> vars, Operation op) {
+    private void writeOperation(MethodVisitor mv, Optional<Vars> vars, Operation op, StackMapFrames blockFrames) {
         switch (op.inst) {
             case INCREMENT:
-                mv.visitIincInsn(vars.get().indexByName(op.spec.name), op.count);
+                mv.visitIincInsn(incrementIndex(op, vars), op.count);
                 return;
             case RETURN:
             case PASSTHROUGH:
@@ -282,11 +657,11 @@ public class ClassCompiler {
                 mv.visitMethodInsn(opcode, name, spec.name, spec.descriptor, isInterface);
                 return;
             case VALUE:
-                if (op.number == null) {
+                if (op.constant == null) {
                     pushInt(mv, op.count);
                 }
                 else {
-                    mv.visitLdcInsn(op.number);
+                    mv.visitLdcInsn(op.constant);
                 }
                 return;
             case READ_VAR:
@@ -303,25 +678,10 @@ public class ClassCompiler {
                 mv.visitFieldInsn(GETSTATIC, name, op.spec.name, op.spec.descriptor);
                 return;
             case SET_VAR:
-                if (op.spec != null) {
-                    if (op.count < 0) {
-                        throw new IllegalArgumentException("Illegal variable: index=" + op.count + ", Spec=" + op.spec);
-                    }
-                    switch (op.spec.descriptor) {
-                        case "I":
-                        case "Z":
-                        case "D":
-                        case "F":
-                        case "C":
-                            mv.visitVarInsn(ISTORE, op.count);
-                            break;
-                        default:
-                            mv.visitVarInsn(ASTORE, op.count);
-                    }
-                }
-                else {
-                    mv.visitVarInsn(ISTORE, op.count);
+                if (op.spec != null && op.count < 0) {
+                    throw new IllegalArgumentException("Illegal variable: index=" + op.count + ", Spec=" + op.spec);
                 }
+                mv.visitVarInsn(storeOpcode(op), op.count);
                 return;
             case SET_FIELD:
                 mv.visitFieldInsn(PUTFIELD, op.spec.className, op.spec.name, op.spec.descriptor);
@@ -335,6 +695,10 @@ public class ClassCompiler {
                 mv.visitJumpInsn(op.count, op.target.getLabel());
                 return;
             case NEW:
+                if (blockFrames != null && blockFrames.labelFor(op) != null) {
+                    // Frames refer to the uninitialized object by the offset of the instruction that created it
+                    mv.visitLabel(blockFrames.labelFor(op));
+                }
                 mv.visitTypeInsn(NEW, op.spec.descriptor);
                 return;
             case NEWARRAY:
@@ -357,7 +721,7 @@ public class ClassCompiler {
                 for (var i = 0; i < op.ints.size(); i++) {
                     keys[i] = op.ints.get(i);
                 }
-                mv.visitLookupSwitchInsn(op.blockTargets.get(0).getLabel(), keys, labels.toArray(new Label[0]));
+                mv.visitLookupSwitchInsn(op.target.getLabel(), keys, labels.toArray(new Label[0]));
                 return;
             default:
                 throw new IllegalStateException("Unrecognized opcode: " + op.inst);
@@ -365,48 +729,63 @@ public class ClassCompiler {
         }
 
     private void handleReadVar(MethodVisitor mv, Operation op, Optional<Vars> vars) {
+        var index = loadIndex(op, vars);
+        if (index < 0) {
+            throw new IllegalArgumentException("Illegal variable: index=" + index + ", Spec=" + op.spec);
+        }
+        mv.visitVarInsn(loadOpcode(op), index);
+    }
+
+    static int loadOpcode(Operation op) {
         switch (op.spec.descriptor) {
             case "C":
+            case "S":
             case "I":
             case "B":
             case "Z":
-                if (op.count < 0) {
-                    throw new IllegalArgumentException("Illegal variable: index=" + op.count + ", Spec=" + op.spec);
-                }
-                mv.visitVarInsn(ILOAD, op.count);
-                return;
-            case "L":
-                if (op.count < 0) {
-                    throw new IllegalArgumentException("Illegal variable: index=" + op.count + ", Spec=" + op.spec);
-                }
-                mv.visitVarInsn(LLOAD, op.count);
-                return;
+                return ILOAD;
+            case "J":
+                return LLOAD;
             case "F":
-                if (op.count < 0) {
-                    throw new IllegalArgumentException("Illegal variable: index=" + op.count + ", Spec=" + op.spec);
-                }
-                mv.visitVarInsn(FLOAD, op.count);
-                return;
+                return FLOAD;
             case "D":
-                if (op.count < 0) {
-                    throw new IllegalArgumentException("Illegal variable: index=" + op.count + ", Spec=" + op.spec);
-                }
-                mv.visitVarInsn(DLOAD, op.count);
-                return;
+                return DLOAD;
             default:
-                AtomicInteger count = new AtomicInteger(op.count);
-                vars.ifPresent((v) -> {
-                    if (op.spec.name != null) {
-                        count.set(v.indexByName(op.spec.name));
-                    }
-                });
-                if (count.get() < 0) {
-                    throw new IllegalArgumentException("Illegal variable: index=" + count.get() + ", Spec=" + op.spec);
-                }
-                mv.visitVarInsn(ALOAD, count.get());
-                return;
+                return ALOAD;
+        }
+    }
+
+    static int loadIndex(Operation op, Optional<Vars> vars) {
+        if (loadOpcode(op) == ALOAD && op.spec.name != null && vars.isPresent()) {
+            return vars.get().indexByName(op.spec.name);
         }
+        return op.count;
+    }
+
+    static int storeOpcode(Operation op) {
+        if (op.spec == null) {
+            return ISTORE;
+        }
+        switch (op.spec.descriptor) {
+            case "C":
+            case "S":
+            case "I":
+            case "B":
+            case "Z":
+                return ISTORE;
+            case "J":
+                return LSTORE;
+            case "F":
+                return FSTORE;
+            case "D":
+                return DSTORE;
+            default:
+                return ASTORE;
+        }
+    }
 
+    static int incrementIndex(Operation op, Optional<Vars> vars) {
+        return vars.get().indexByName(op.spec.name);
     }
 
     protected int newLine() {
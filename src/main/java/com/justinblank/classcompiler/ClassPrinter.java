@@ -86,11 +86,11 @@ public class ClassPrinter {
                 }
                 break;
             case VALUE:
-                if (op.number == null) {
+                if (op.constant == null) {
                     println(op.count);
                 }
                 else {
-                    println(op.number);
+                    println(op.constant);
                 }
                 return;
             case JUMP:
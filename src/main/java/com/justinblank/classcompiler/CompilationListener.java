@@ -0,0 +1,36 @@
+package com.justinblank.classcompiler;
+
+/**
+ * Receives timing and size information while a class is compiled. See
+ * {@link ClassCompiler#withListener(CompilationListener)}.
+ *
+ * If the compiler resolves methods using an executor, the listener is called from the executor's threads, so it must
+ * be thread-safe.
+ */
+public interface CompilationListener {
+
+    /**
+     * Called when a phase finishes.
+     *
+     * @param className the name of the class being compiled
+     * @param methodName the name of the method the phase applied to, or null for phases that apply to the whole class
+     * @param phase the phase
+     * @param nanos the wall clock time the phase took
+     * @param allocatedBytes the bytes allocated by the compiling thread during the phase, or -1 if the JVM does not
+     *                       support measuring allocation
+     */
+    default void phaseCompleted(String className, String methodName, CompilationPhase phase, long nanos,
+                                long allocatedBytes) {
+    }
+
+    /**
+     * Called once a method has been resolved and its blocks pruned.
+     *
+     * @param className the name of the class being compiled
+     * @param methodName the name of the method
+     * @param blocks the number of blocks in the method
+     * @param operations the number of operations in the method
+     */
+    default void methodResolved(String className, String methodName, int blocks, int operations) {
+    }
+}
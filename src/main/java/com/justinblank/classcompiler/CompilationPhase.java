@@ -0,0 +1,61 @@
+package com.justinblank.classcompiler;
+
+/**
+ * The phases of compiling a class, as reported to a {@link CompilationListener}.
+ */
+public enum CompilationPhase {
+    /**
+     * Inferring the types of the variables and expressions of a method.
+     */
+    TYPE_INFERENCE,
+    /**
+     * Folding constant expressions and simplifying algebraic identities in the elements of a method.
+     */
+    CONSTANT_FOLDING,
+    /**
+     * Moving expressions that don't change while a loop runs out of the loop. Only reported when enabled.
+     */
+    LOOP_INVARIANT_CODE_MOTION,
+    /**
+     * Computing expressions that are evaluated repeatedly with the same value once. Only reported when enabled, as it
+     * is by default.
+     */
+    COMMON_SUBEXPRESSION_ELIMINATION,
+    /**
+     * Translating the elements of a method into blocks of operations.
+     */
+    LOWERING,
+    /**
+     * Removing dead and redundant blocks and instructions from a method.
+     */
+    BLOCK_PRUNING,
+    /**
+     * Moving code out of a method that is too large into helper methods, and lowering it again. Only reported for
+     * methods that need it.
+     */
+    METHOD_SPLITTING,
+    /**
+     * Removing stores to local variables that are never read.
+     */
+    DEAD_STORE_ELIMINATION,
+    /**
+     * Assigning the local variables of a method to slots, based on where each variable is live.
+     */
+    SLOT_ALLOCATION,
+    /**
+     * Replacing calls to small methods of the class with the bodies of those methods. Reported once per class.
+     */
+    INLINING,
+    /**
+     * Passing the operations of a method to ASM.
+     */
+    EMISSION,
+    /**
+     * Computing stack map frames and max stack and locals, and serializing the class file.
+     */
+    FRAME_COMPUTATION,
+    /**
+     * Defining the class in a class loader.
+     */
+    CLASS_DEFINITION
+}
@@ -0,0 +1,138 @@
+package com.justinblank.classcompiler;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The control flow graph of a method's blocks: the blocks control can pass to from each block, and the blocks it can
+ * come from.
+ *
+ * Blocks are identified by their position in the list the graph is built from, which stays valid while blocks are
+ * changed in place, but not once they're added, removed or reordered. Building the graph takes time linear in the
+ * number of operations.
+ *
+ * Blocks may contain conditional jumps before their last operation, so a block can have several successors besides
+ * the block after it.
+ */
+class ControlFlowGraph {
+
+    private final Map<Block, Integer> indexes;
+    private final List<List<Integer>> successors;
+    private final List<List<Integer>> predecessors;
+    // The number of times each block is the target of a jump or switch operation
+    private final int[] jumpCounts;
+
+    private ControlFlowGraph(Map<Block, Integer> indexes, List<List<Integer>> successors,
+                             List<List<Integer>> predecessors, int[] jumpCounts) {
+        this.indexes = indexes;
+        this.successors = successors;
+        this.predecessors = predecessors;
+        this.jumpCounts = jumpCounts;
+    }
+
+    static ControlFlowGraph of(List<Block> blocks) {
+        Map<Block, Integer> indexes = new IdentityHashMap<>();
+        for (var i = 0; i < blocks.size(); i++) {
+            indexes.put(blocks.get(i), i);
+        }
+        var successors = new ArrayList<List<Integer>>(blocks.size());
+        var predecessors = new ArrayList<List<Integer>>(blocks.size());
+        for (var i = 0; i < blocks.size(); i++) {
+            predecessors.add(new ArrayList<>());
+        }
+        var jumpCounts = new int[blocks.size()];
+        for (var i = 0; i < blocks.size(); i++) {
+            var blockSuccessors = successors(blocks, i, indexes, jumpCounts);
+            for (var successor : blockSuccessors) {
+                predecessors.get(successor).add(i);
+            }
+            successors.add(blockSuccessors);
+        }
+        return new ControlFlowGraph(indexes, successors, predecessors, jumpCounts);
+    }
+
+    private static List<Integer> successors(List<Block> blocks, int index, Map<Block, Integer> indexes,
+                                            int[] jumpCounts) {
+        var successors = new ArrayList<Integer>();
+        var fallsThrough = true;
+        for (var op : blocks.get(index).operations) {
+            if (op.target != null) {
+                addTarget(op.target, indexes, successors, jumpCounts, op.isJump() || op.isSwitch());
+            }
+            if (op.isSwitch()) {
+                for (var target : op.blockTargets) {
+                    addTarget(target, indexes, successors, jumpCounts, true);
+                }
+            }
+            fallsThrough = fallsThrough(op);
+        }
+        if (fallsThrough && index + 1 < blocks.size()) {
+            successors.add(index + 1);
+        }
+        return successors;
+    }
+
+    /**
+     * @return true if control can pass from the operation to the one after it
+     */
+    static boolean fallsThrough(Operation op) {
+        switch (op.inst) {
+            case JUMP:
+                return op.count != GOTO;
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+            case RETURN:
+                return false;
+            case PASSTHROUGH:
+                return op.count != ATHROW && (op.count < IRETURN || op.count > RETURN);
+            default:
+                return true;
+        }
+    }
+
+    private static void addTarget(Block target, Map<Block, Integer> indexes, List<Integer> successors,
+                                  int[] jumpCounts, boolean isSuccessor) {
+        var targetIndex = indexes.get(target);
+        if (targetIndex == null) {
+            return;
+        }
+        jumpCounts[targetIndex]++;
+        if (isSuccessor) {
+            successors.add(targetIndex);
+        }
+    }
+
+    int size() {
+        return successors.size();
+    }
+
+    /**
+     * @return the position of the block, or null if it isn't in the graph
+     */
+    Integer indexOf(Block block) {
+        return indexes.get(block);
+    }
+
+    List<Integer> successors(int index) {
+        return successors.get(index);
+    }
+
+    List<Integer> predecessors(int index) {
+        return predecessors.get(index);
+    }
+
+    /**
+     * @return true if an operation jumps to the block, rather than only falling through to it
+     */
+    boolean isJumpTarget(int index) {
+        return jumpCounts[index] > 0;
+    }
+
+    /**
+     * @return the number of operations that jump to the block, counting a switch once for each case that leads to it
+     */
+    int jumpCount(int index) {
+        return jumpCounts[index];
+    }
+}
@@ -0,0 +1,175 @@
+package com.justinblank.classcompiler;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Removes stores to local variables whose value is never read, along with the code computing the stored value when
+ * that code has no side effects and can't throw. When it might, the value is popped instead of stored.
+ *
+ * Removing a store can make the stores of the variables it read dead in turn, so the analysis is repeated until
+ * nothing changes. Variables left with no stores or reads are dropped when slots are allocated.
+ */
+class DeadStoreElimination {
+
+    private DeadStoreElimination() {
+    }
+
+    /**
+     * @param blocks the blocks of the method
+     * @param vars the method's variables
+     * @return true if any operation was removed
+     */
+    static boolean eliminate(List<Block> blocks, Optional<Vars> vars) {
+        var eliminated = false;
+        while (true) {
+            var variables = variables(blocks, vars);
+            if (variables == null || variables.isEmpty()) {
+                return eliminated;
+            }
+            var variableCount = 0;
+            for (var variable : variables.values()) {
+                variableCount = Math.max(variableCount, variable + 1);
+            }
+            var liveness = Liveness.analyze(blocks, variables, variableCount);
+            var changed = false;
+            for (var i = 0; i < blocks.size(); i++) {
+                changed |= eliminate(blocks.get(i).operations, variables, liveness,
+                        (BitSet) liveness.liveOut[i].clone());
+            }
+            if (!changed) {
+                return eliminated;
+            }
+            eliminated = true;
+        }
+    }
+
+    private static boolean eliminate(List<Operation> operations, Map<Operation, Integer> variables,
+                                     Liveness liveness, BitSet live) {
+        var changed = false;
+        for (var i = operations.size() - 1; i >= 0; i--) {
+            var op = operations.get(i);
+            var variable = variables.get(op);
+            if (variable == null) {
+                // Jumps from the middle of the block make the variables live where they lead live here
+                liveness.transfer(op, live);
+                continue;
+            }
+            switch (op.inst) {
+                case READ_VAR:
+                    live.set(variable);
+                    break;
+                case INCREMENT:
+                    // An increment reads and writes the variable, so it stays live if it was
+                    if (!live.get(variable)) {
+                        operations.remove(i);
+                        changed = true;
+                    }
+                    break;
+                case SET_VAR:
+                    if (live.get(variable)) {
+                        live.clear(variable);
+                    }
+                    else {
+                        i = removeStore(operations, i);
+                        changed = true;
+                    }
+                    break;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Remove the store at the given index, along with the operations computing its value, if they're pure.
+     *
+     * @return the index of the first operation that was removed or replaced
+     */
+    private static int removeStore(List<Operation> operations, int index) {
+        // The number of values the operations from here to the store still need from the stack
+        var needed = 1;
+        var start = index;
+        while (needed > 0 && start > 0) {
+            var pops = pureOperands(operations.get(start - 1));
+            if (pops < 0) {
+                break;
+            }
+            needed += pops - 1;
+            start--;
+        }
+        if (needed == 0) {
+            operations.subList(start, index + 1).clear();
+            return start;
+        }
+        var descriptor = operations.get(index).spec == null ? "I" : operations.get(index).spec.descriptor;
+        var wide = descriptor.equals("J") || descriptor.equals("D");
+        operations.set(index, Operation.mkOperation(wide ? POP2 : POP));
+        return index;
+    }
+
+    /**
+     * @return the number of values the operation pops, if it pushes one value, has no side effects and can't throw,
+     * otherwise -1
+     */
+    private static int pureOperands(Operation op) {
+        switch (op.inst) {
+            case VALUE:
+                return 0;
+            case READ_VAR:
+                return 0;
+            case PASSTHROUGH:
+                var opcode = op.count;
+                if (opcode >= ACONST_NULL && opcode <= DCONST_1) {
+                    return 0;
+                }
+                if (opcode == IDIV || opcode == LDIV || opcode == IREM || opcode == LREM) {
+                    return -1;
+                }
+                if ((opcode >= IADD && opcode <= DREM) || (opcode >= ISHL && opcode <= LXOR)
+                        || (opcode >= LCMP && opcode <= DCMPG)) {
+                    return 2;
+                }
+                if ((opcode >= INEG && opcode <= DNEG) || (opcode >= I2L && opcode <= I2S)) {
+                    return 1;
+                }
+                return -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return the variable each operation that reads or writes a variable uses, identified by its index, or null if
+     * some variable can't be identified
+     */
+    private static Map<Operation, Integer> variables(List<Block> blocks, Optional<Vars> vars) {
+        Map<Operation, Integer> variables = new IdentityHashMap<>();
+        for (var block : blocks) {
+            for (var op : block.operations) {
+                switch (op.inst) {
+                    case READ_VAR:
+                        if (op.spec == null || !op.spec.isSelf) {
+                            variables.put(op, ClassCompiler.loadIndex(op, vars));
+                        }
+                        break;
+                    case SET_VAR:
+                        variables.put(op, op.count);
+                        break;
+                    case INCREMENT:
+                        if (vars.isEmpty()) {
+                            return null;
+                        }
+                        variables.put(op, ClassCompiler.incrementIndex(op, vars));
+                        break;
+                }
+            }
+        }
+        for (var variable : variables.values()) {
+            if (variable < 0) {
+                return null;
+            }
+        }
+        return variables;
+    }
+}
@@ -0,0 +1,251 @@
+package com.justinblank.classcompiler;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Replaces calls to small methods of the class being compiled with the bodies of those methods.
+ *
+ * Only methods that can't be overridden are inlined: private, static and final methods. The arguments on the stack at
+ * the call site are stored into fresh local variables, the callee's variables are renumbered to follow the caller's,
+ * and the callee's returns become jumps to the code following the call, leaving the return value on the stack.
+ *
+ * Inlining is repeated a bounded number of times, so calls that were themselves inlined into a callee are
+ * flattened as well.
+ */
+class Inliner {
+
+    // Matches the default MaxInlineSize of HotSpot, the size below which it inlines methods that aren't hot
+    static final int MAX_INLINE_SIZE = 35;
+    static final int MAX_INLINE_DEPTH = 4;
+
+    private final Collection<Method> methods;
+    private final Predicate<RefSpec> isSelf;
+
+    Inliner(Collection<Method> methods, Predicate<RefSpec> isSelf) {
+        this.methods = methods;
+        this.isSelf = isSelf;
+    }
+
+    /**
+     * Inline calls in every method.
+     *
+     * @return true if any call was inlined
+     */
+    boolean inline() {
+        var inlined = false;
+        for (var depth = 0; depth < MAX_INLINE_DEPTH; depth++) {
+            var changed = false;
+            for (var method : methods) {
+                changed |= inlineCalls(method);
+            }
+            if (!changed) {
+                break;
+            }
+            inlined = true;
+        }
+        return inlined;
+    }
+
+    private boolean inlineCalls(Method caller) {
+        var changed = false;
+        // The list of blocks changes as we inline, so restart the scan after each inlined call
+        var inlinedCall = true;
+        while (inlinedCall) {
+            inlinedCall = false;
+            for (var block : caller.getBlocks()) {
+                for (var i = 0; i < block.operations.size(); i++) {
+                    var callee = inlineTarget(caller, block.operations.get(i));
+                    if (callee != null) {
+                        inline(caller, block, i, callee);
+                        inlinedCall = true;
+                        changed = true;
+                        break;
+                    }
+                }
+                if (inlinedCall) {
+                    break;
+                }
+            }
+        }
+        if (changed) {
+            // Arguments the callee never read, including receivers, were stored for nothing
+            DeadStoreElimination.eliminate(caller.getBlocks(), caller.getMatchingVars());
+            caller.pruneBlocks();
+        }
+        return changed;
+    }
+
+    /**
+     * @return the method that the operation calls, if it can be inlined into the caller, otherwise null
+     */
+    private Method inlineTarget(Method caller, Operation op) {
+        if (op.inst != Operation.Inst.CALL && op.inst != Operation.Inst.INVOKESTATIC
+                && op.inst != Operation.Inst.INVOKESPECIAL) {
+            return null;
+        }
+        if (!isSelf.test(op.spec)) {
+            return null;
+        }
+        for (var method : methods) {
+            if (method != caller && method.methodName.equals(op.spec.name)
+                    && method.descriptor().equals(op.spec.descriptor)
+                    && ((method.modifiers & ACC_STATIC) != 0) == (op.inst == Operation.Inst.INVOKESTATIC)) {
+                if (canInline(caller, method)) {
+                    return method;
+                }
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static boolean canInline(Method caller, Method callee) {
+        if ((callee.modifiers & (ACC_PRIVATE | ACC_STATIC | ACC_FINAL)) == 0
+                || (callee.modifiers & (ACC_SYNCHRONIZED | ACC_NATIVE | ACC_ABSTRACT)) != 0
+                || callee.methodName.startsWith("<") || callee.getBlocks().isEmpty()) {
+            return false;
+        }
+        for (var block : callee.getBlocks()) {
+            for (var op : block.operations) {
+                // Recursive methods would be inlined until we hit the depth limit
+                if (op.spec != null && op.spec.name != null && op.spec.name.equals(callee.methodName)
+                        && op.spec.descriptor.equals(callee.descriptor())) {
+                    return false;
+                }
+            }
+        }
+        var calleeSize = MethodSize.estimate(callee);
+        return calleeSize <= MAX_INLINE_SIZE
+                && MethodSize.estimate(caller) + calleeSize < MethodSize.MAX_METHOD_SIZE;
+    }
+
+    private void inline(Method caller, Block block, int callIndex, Method callee) {
+        var firstLocal = nextLocal(caller);
+        var isStatic = (callee.modifiers & ACC_STATIC) != 0;
+
+        // The operations after the call move to a new block, which the callee's returns jump to
+        var continuation = new Block(-1, new ArrayList<>(block.operations.subList(callIndex + 1, block.operations.size())));
+        var argumentStores = new ArrayList<Operation>();
+        var argumentSlots = new ArrayList<Integer>();
+        var slot = isStatic ? 0 : 1;
+        for (var argument : callee.arguments) {
+            argumentSlots.add(slot);
+            // Longs and doubles take two slots
+            slot += argument.equals("J") || argument.equals("D") ? 2 : 1;
+        }
+        // The last argument is on top of the stack
+        for (var i = callee.arguments.size() - 1; i >= 0; i--) {
+            argumentStores.add(Operation.mkSetVar(firstLocal + argumentSlots.get(i),
+                    storeDescriptor(callee.arguments.get(i))));
+        }
+        if (!isStatic) {
+            // Calling a method on null throws, whether or not the method uses its receiver
+            argumentStores.add(Operation.mkOperation(DUP));
+            argumentStores.add(Operation.callStatic("requireNonNull", "java/util/Objects",
+                    "(Ljava/lang/Object;)Ljava/lang/Object;"));
+            argumentStores.add(Operation.mkOperation(POP));
+            argumentStores.add(Operation.mkSetVar(firstLocal, "Ljava/lang/Object;"));
+        }
+        while (block.operations.size() > callIndex) {
+            block.operations.remove(block.operations.size() - 1);
+        }
+        block.operations.addAll(argumentStores);
+
+        var copies = new IdentityHashMap<Block, Block>();
+        for (var calleeBlock : callee.getBlocks()) {
+            copies.put(calleeBlock, new Block(-1, new ArrayList<>()));
+        }
+        var calleeVars = callee.getMatchingVars();
+        for (var calleeBlock : callee.getBlocks()) {
+            var copy = copies.get(calleeBlock);
+            for (var op : calleeBlock.operations) {
+                copy(op, copy, copies, continuation, firstLocal, calleeVars);
+            }
+        }
+
+        List<Block> blocks = new ArrayList<>(caller.getBlocks());
+        var position = blocks.indexOf(block) + 1;
+        for (var calleeBlock : callee.getBlocks()) {
+            blocks.add(position++, copies.get(calleeBlock));
+        }
+        blocks.add(position, continuation);
+        for (var i = 0; i < blocks.size(); i++) {
+            blocks.get(i).number = i;
+        }
+        caller.setBlocks(blocks);
+    }
+
+    private static void copy(Operation op, Block target, Map<Block, Block> copies, Block continuation, int firstLocal,
+                             Optional<Vars> calleeVars) {
+        switch (op.inst) {
+            case READ_VAR:
+                var index = op.spec.isSelf ? 0 : ClassCompiler.loadIndex(op, calleeVars);
+                target.readVar(firstLocal + index, op.spec.isSelf ? "Ljava/lang/Object;" : op.spec.descriptor);
+                return;
+            case SET_VAR:
+                target.setVar(firstLocal + op.count, op.spec == null ? "I" : op.spec.descriptor);
+                return;
+            case INCREMENT:
+                // Increments find their variable by name, which the caller's variables don't include
+                var local = firstLocal + ClassCompiler.incrementIndex(op, calleeVars);
+                target.readVar(local, "I").push(op.count).operate(IADD).setVar(local, "I");
+                return;
+            case RETURN:
+                target.jump(continuation, GOTO);
+                return;
+            case JUMP:
+                target.jump(copies.get(op.target), op.count);
+                return;
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+                var targets = new ArrayList<Block>();
+                for (var blockTarget : op.blockTargets) {
+                    targets.add(copies.get(blockTarget));
+                }
+                target.addOperation(new Operation(op.inst, targets, copies.get(op.target), op.count, op.ints));
+                return;
+            default:
+                // Other operations have no mutable state or references to blocks, so they can be shared
+                target.addOperation(op);
+        }
+    }
+
+    private static String storeDescriptor(String descriptor) {
+        switch (descriptor) {
+            case "Z":
+            case "B":
+            case "C":
+            case "S":
+            case "I":
+                return "I";
+            default:
+                return descriptor;
+        }
+    }
+
+    /**
+     * @return the first local variable slot that the method doesn't use
+     */
+    private static int nextLocal(Method method) {
+        var next = (method.modifiers & ACC_STATIC) != 0 ? 0 : 1;
+        next += 2 * method.arguments.size();
+        var vars = method.getMatchingVars();
+        if (vars.isPresent()) {
+            for (var pair : vars.get().allVars()) {
+                next = Math.max(next, pair.getRight() + 2);
+            }
+        }
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                if (op.inst == Operation.Inst.READ_VAR || op.inst == Operation.Inst.SET_VAR) {
+                    // Leave room for longs and doubles, which take two slots
+                    next = Math.max(next, op.count + 2);
+                }
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,107 @@
+package com.justinblank.classcompiler;
+
+import java.util.*;
+
+/**
+ * Which variables are live at the start and end of each block of a method, meaning that the value they hold there
+ * may be read later.
+ *
+ * Blocks may contain conditional jumps before their last operation, so a variable assigned after such a jump may
+ * still be live before the assignment, in the code the jump leads to.
+ */
+class Liveness {
+
+    final BitSet[] liveIn;
+    final BitSet[] liveOut;
+    private final ControlFlowGraph graph;
+    private final Map<Operation, Integer> variables;
+
+    private Liveness(List<Block> blocks, ControlFlowGraph graph, Map<Operation, Integer> variables,
+                     int variableCount) {
+        this.graph = graph;
+        this.variables = variables;
+        this.liveIn = new BitSet[blocks.size()];
+        this.liveOut = new BitSet[blocks.size()];
+        for (var i = 0; i < blocks.size(); i++) {
+            liveIn[i] = new BitSet(variableCount);
+            liveOut[i] = new BitSet(variableCount);
+        }
+    }
+
+    /**
+     * @param blocks the blocks of the method, in order
+     * @param variables the variable that each operation reading or writing a variable uses
+     * @param variableCount the number of variables
+     */
+    static Liveness analyze(List<Block> blocks, Map<Operation, Integer> variables, int variableCount) {
+        var graph = ControlFlowGraph.of(blocks);
+        var liveness = new Liveness(blocks, graph, variables, variableCount);
+        // Only blocks whose successors changed need to be visited again. Visiting later blocks first means most
+        // blocks see their successors' final state the first time
+        var pending = new ArrayDeque<Integer>();
+        var queued = new BitSet(blocks.size());
+        for (var i = blocks.size() - 1; i >= 0; i--) {
+            pending.add(i);
+            queued.set(i);
+        }
+        while (!pending.isEmpty()) {
+            int i = pending.poll();
+            queued.clear(i);
+            var out = new BitSet(variableCount);
+            for (var successor : graph.successors(i)) {
+                out.or(liveness.liveIn[successor]);
+            }
+            var in = (BitSet) out.clone();
+            var operations = blocks.get(i).operations;
+            for (var j = operations.size() - 1; j >= 0; j--) {
+                liveness.transfer(operations.get(j), in);
+            }
+            liveness.liveOut[i] = out;
+            if (!in.equals(liveness.liveIn[i])) {
+                liveness.liveIn[i] = in;
+                for (var predecessor : graph.predecessors(i)) {
+                    if (!queued.get(predecessor)) {
+                        pending.add(predecessor);
+                        queued.set(predecessor);
+                    }
+                }
+            }
+        }
+        return liveness;
+    }
+
+    /**
+     * Update the variables live after an operation to those live before it.
+     */
+    void transfer(Operation op, BitSet live) {
+        switch (op.inst) {
+            case JUMP:
+                addLiveIn(op.target, live);
+                return;
+            case TABLESWITCH:
+            case LOOKUPSWITCH:
+                for (var target : op.blockTargets) {
+                    addLiveIn(target, live);
+                }
+                addLiveIn(op.target, live);
+                return;
+        }
+        var variable = variables.get(op);
+        if (variable == null) {
+            return;
+        }
+        if (op.inst == Operation.Inst.SET_VAR) {
+            live.clear(variable);
+        }
+        else {
+            live.set(variable);
+        }
+    }
+
+    private void addLiveIn(Block target, BitSet live) {
+        var index = graph.indexOf(target);
+        if (index != null) {
+            live.or(liveIn[index]);
+        }
+    }
+}
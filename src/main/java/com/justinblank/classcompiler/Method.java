@@ -3,10 +3,10 @@ package com.justinblank.classcompiler;
 import com.justinblank.classcompiler.lang.*;
 import com.justinblank.classcompiler.lang.Void;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static com.justinblank.classcompiler.Operation.Inst.JUMP;
 import static com.justinblank.classcompiler.lang.Literal.literal;
@@ -23,16 +23,38 @@ public class Method {
     final int modifiers;
     final List<String> arguments;
     private List<Block> blocks;
+    // Inserting blocks shifts the blocks after them, whose numbers are only updated when they're next needed, so that
+    // a series of insertions doesn't renumber the same blocks over and over
+    private int staleNumbersFrom = Integer.MAX_VALUE;
 
     public final String returnType;
 
     // TODO: should matchingVars really be nullable?
-    private final Vars matchingVars;
+    private Vars matchingVars;
+    // The modifiers of the fields declared by the class, by name
+    private Map<String, Integer> fieldModifiers = new HashMap<>();
+    private boolean loopInvariantCodeMotion;
+    private boolean commonSubexpressionElimination;
+    private int syntheticVars;
     private final Map<String, Object> attributes = new HashMap<>();
     private List<CodeElement> elements = new ArrayList<>();
+    private CompilationListener listener;
+    // Static arrays needed by the lowered code, which the compiler adds to the class once the method is resolved
+    private final Map<String, int[]> arrayConstants = new LinkedHashMap<>();
+    // The code size still free in the class's static initializer, which is shared by all methods of the class
+    private AtomicInteger staticInitializerSpace = new AtomicInteger(MethodSize.MAX_METHOD_SIZE);
+    // The part of the static initializer this method's array constants are expected to use
+    private int reservedStaticInitializerSpace;
+    // The estimated code size of each switch arm, by the identity of the arm's body, used to split large methods
+    private final Map<List<CodeElement>, Integer> armSizes = new IdentityHashMap<>();
+    // Helper methods created to hold code moved out of this method
+    private final List<Method> outlinedMethods = new ArrayList<>();
 
     private final Stack<Block> currentBlock = new Stack<>();
 
+    // Pruning rarely changes anything after its second round
+    private static final int MAX_PRUNING_ROUNDS = 3;
+
     // The blocks in this stack are the blocks where conditions of the loop are stored
     private final Stack<Block> currentLoop = new Stack<>();
 
@@ -99,11 +121,10 @@ public class Method {
      * @return the new block
      */
     public Block addBlockAfter(Block block) {
-        var inserted = new Block(block.number, new ArrayList<>());
-        this.blocks.add(block.number + 1, inserted);
-        for (int i = block.number + 1; i < blocks.size(); i++) {
-            this.blocks.get(i).number++;
-        }
+        var index = positionOf(block) + 1;
+        var inserted = new Block(index, new ArrayList<>());
+        this.blocks.add(index, inserted);
+        staleNumbersFrom = Math.min(staleNumbersFrom, index + 1);
         return inserted;
     }
 
@@ -120,6 +141,10 @@ public class Method {
         return CompilerUtil.descriptor(arguments, returnType);
     }
 
+    List<CodeElement> getElements() {
+        return elements;
+    }
+
     public Optional<Vars> getMatchingVars() {
         return Optional.ofNullable(matchingVars);
     }
@@ -147,25 +172,51 @@ public class Method {
         return Objects.hash(methodName, modifiers);
     }
 
-    // TODO: fix n-squared
+    /**
+     * Insert blocks after the given block.
+     *
+     * @param anchor the block after which the new blocks will be inserted
+     * @param newBlocks the blocks to insert, in order
+     */
     public void insertBlocks(Block anchor, List<Block> newBlocks) {
-        var i = blocks.indexOf(anchor) + 1;
-        for (var block : newBlocks) {
-            block.number = i;
-            blocks.add(i++, block);
-            for (var j = i; j < blocks.size(); j++) {
-                blocks.get(j).number++;
+        var index = positionOf(anchor) + 1;
+        blocks.addAll(index, newBlocks);
+        for (var i = 0; i < newBlocks.size(); i++) {
+            newBlocks.get(i).number = index + i;
+        }
+        staleNumbersFrom = Math.min(staleNumbersFrom, index + newBlocks.size());
+    }
+
+    /**
+     * @return the position of a block of this method, renumbering the blocks first if its number may be stale
+     */
+    private int positionOf(Block block) {
+        var number = block.number;
+        if (number < 0 || number >= blocks.size() || blocks.get(number) != block) {
+            renumberStaleBlocks();
+            number = block.number;
+            if (number < 0 || number >= blocks.size() || blocks.get(number) != block) {
+                throw new IllegalArgumentException("Block " + number + " is not part of method " + methodName);
             }
         }
+        return number;
+    }
 
+    private void renumberStaleBlocks() {
+        for (var i = staleNumbersFrom; i < blocks.size(); i++) {
+            blocks.get(i).number = i;
+        }
+        staleNumbersFrom = Integer.MAX_VALUE;
     }
 
     public List<Block> getBlocks() {
+        renumberStaleBlocks();
         return Collections.unmodifiableList(blocks);
     }
 
     public void setBlocks(List<Block> blocks) {
         this.blocks = new ArrayList<>(blocks);
+        staleNumbersFrom = Integer.MAX_VALUE;
     }
 
     public void addElement(CodeElement codeElement) {
@@ -280,17 +331,60 @@ public class Method {
 
     void resolve() {
         try {
+            var timer = PhaseTimer.start(listener);
             doTypeInference();
+            timer = finishPhase(timer, CompilationPhase.TYPE_INFERENCE);
+            elements = new ConstantFolding(this).fold(elements);
+            timer = finishPhase(timer, CompilationPhase.CONSTANT_FOLDING);
+            // Constructors and static initializers assign the final fields that would be treated as constant
+            if (loopInvariantCodeMotion && !methodName.startsWith("<")) {
+                elements = new LoopInvariantCodeMotion(this, this::isFinalField,
+                        type -> addSyntheticVar("licm", type)).hoist(elements);
+                timer = finishPhase(timer, CompilationPhase.LOOP_INVARIANT_CODE_MOTION);
+            }
+            if (commonSubexpressionElimination) {
+                elements = new CommonSubexpressionElimination(this, this::isStableField,
+                        type -> addSyntheticVar("cse", type)).eliminate(elements);
+                timer = finishPhase(timer, CompilationPhase.COMMON_SUBEXPRESSION_ELIMINATION);
+            }
 
+            // Methods built directly from blocks are left alone, as we have no way to restructure them
+            var lowered = this.blocks.isEmpty();
+            var splittable = lowered && isSplittable();
             if (this.blocks.isEmpty()) {
                 this.addBlock();
             }
             for (var element : elements) {
                 resolveTopLevelElement(element);
             }
+            timer = finishPhase(timer, CompilationPhase.LOWERING);
             pruneBlocks();
+            timer = finishPhase(timer, CompilationPhase.BLOCK_PRUNING);
+            if (splittable && MethodSize.estimate(this) > MethodSize.MAX_METHOD_SIZE) {
+                split();
+                timer = finishPhase(timer, CompilationPhase.METHOD_SPLITTING);
+            }
+            if (lowered && matchingVars != null) {
+                if (DeadStoreElimination.eliminate(blocks, getMatchingVars())) {
+                    pruneBlocks();
+                }
+                timer = finishPhase(timer, CompilationPhase.DEAD_STORE_ELIMINATION);
+                var allocated = AllocatedVars.allocate(this, matchingVars);
+                if (allocated != null) {
+                    matchingVars = allocated;
+                }
+                finishPhase(timer, CompilationPhase.SLOT_ALLOCATION);
+            }
+            if (listener != null) {
+                var operations = 0;
+                for (var block : blocks) {
+                    operations += block.operations.size();
+                }
+                listener.methodResolved(className, methodName, blocks.size(), operations);
+            }
             // TODO: did I have a good reason for this? Tests pass without it
             this.elements = new ArrayList<>();
+            typeInference.clear();
         }
         catch (Exception e) {
             var thrown = new ClassCompilationException("Error resolving method", e);
@@ -299,6 +393,152 @@ public class Method {
         }
     }
 
+    private boolean isSplittable() {
+        // Helpers are instance methods, and can't be called before a constructor calls its superclass constructor
+        return (modifiers & ACC_STATIC) == 0 && !methodName.equals("<init>") && matchingVars != null;
+    }
+
+    /**
+     * Move switch arms into helper methods until the method's code fits in the limit the JVM imposes, or there's
+     * nothing left that can be moved, then lower the method again.
+     */
+    private void split() {
+        var splitter = new MethodSplitter(this);
+        var excess = MethodSize.estimate(this) - MethodSize.MAX_METHOD_SIZE;
+        while (excess > 0) {
+            var helpers = splitter.split(elements, armSizes, excess);
+            if (helpers.isEmpty()) {
+                return;
+            }
+            outlinedMethods.addAll(helpers);
+            blocks = new ArrayList<>();
+            staleNumbersFrom = Integer.MAX_VALUE;
+            currentBlock.clear();
+            currentLoop.clear();
+            arrayConstants.clear();
+            staticInitializerSpace.addAndGet(reservedStaticInitializerSpace);
+            reservedStaticInitializerSpace = 0;
+            armSizes.clear();
+            addBlock();
+            for (var element : elements) {
+                resolveTopLevelElement(element);
+            }
+            pruneBlocks();
+            excess = MethodSize.estimate(this) - MethodSize.MAX_METHOD_SIZE;
+        }
+    }
+
+    /**
+     * Record the fields the class declares, which optimizations use to decide which field reads they can move or
+     * reuse.
+     *
+     * @param fieldModifiers the modifiers of each field, by name
+     */
+    void setFieldModifiers(Map<String, Integer> fieldModifiers) {
+        this.fieldModifiers = fieldModifiers;
+    }
+
+    /**
+     * Share the code size still free in the class's static initializer, which array constants are initialized in.
+     *
+     * @param staticInitializerSpace the free space, shared with the other methods of the class
+     */
+    void setStaticInitializerSpace(AtomicInteger staticInitializerSpace) {
+        this.staticInitializerSpace = staticInitializerSpace;
+    }
+
+    /**
+     * Treat the final fields of the class as constant, and move expressions that don't change in a loop out of it.
+     */
+    void enableLoopInvariantCodeMotion() {
+        this.loopInvariantCodeMotion = true;
+    }
+
+    /**
+     * Compute expressions that are evaluated repeatedly with the same value once.
+     */
+    void enableCommonSubexpressionElimination() {
+        this.commonSubexpressionElimination = true;
+    }
+
+    private boolean isFinalField(Expression expression) {
+        return isOwnField(expression) && (modifiersOf(expression) & ACC_FINAL) != 0;
+    }
+
+    /**
+     * @return true if the expression reads a field of the class that can only change when code writes it, not at
+     * any moment from another thread
+     */
+    private boolean isStableField(Expression expression) {
+        return isOwnField(expression) && (modifiersOf(expression) & ACC_VOLATILE) == 0;
+    }
+
+    private boolean isOwnField(Expression expression) {
+        var modifiers = modifiersOf(expression);
+        if (modifiers < 0) {
+            return false;
+        }
+        if (expression instanceof FieldReference) {
+            var reference = (FieldReference) expression;
+            return reference.expression instanceof ThisRef && (modifiers & ACC_STATIC) == 0;
+        }
+        else if (expression instanceof StaticFieldReference) {
+            var reference = (StaticFieldReference) expression;
+            var receiver = CompilerUtil.internalName(reference.receiver);
+            var self = CompilerUtil.internalName(StringUtils.isNotBlank(classPackage)
+                    ? classPackage + "." + className : className);
+            return (receiver.equals(className) || receiver.equals(self)) && (modifiers & ACC_STATIC) != 0;
+        }
+        return false;
+    }
+
+    /**
+     * @return the modifiers of the field the expression reads, or -1 if the class doesn't declare it
+     */
+    private int modifiersOf(Expression expression) {
+        String name = null;
+        if (expression instanceof FieldReference) {
+            name = ((FieldReference) expression).fieldName;
+        }
+        else if (expression instanceof StaticFieldReference) {
+            name = ((StaticFieldReference) expression).fieldName;
+        }
+        return fieldModifiers.getOrDefault(name, -1);
+    }
+
+    /**
+     * Add a variable that the method's code doesn't mention, for a value computed by an optimization.
+     *
+     * @param prefix the start of the variable's name, identifying the optimization
+     * @param type the type of the variable
+     * @return the name of the variable, or null if the method's variables can't be extended
+     */
+    private String addSyntheticVar(String prefix, Type type) {
+        if (!(matchingVars instanceof GenericVars)) {
+            return null;
+        }
+        if (syntheticVars == 0) {
+            // The vars may be shared with other methods, so we add to a copy
+            var copy = new GenericVars();
+            for (var pair : matchingVars.allVars()) {
+                copy.addVar(pair.getLeft());
+            }
+            matchingVars = copy;
+        }
+        var name = prefix + "$" + syntheticVars++;
+        ((GenericVars) matchingVars).addVar(name);
+        typeEnvironment.put(name, TypeVariable.of(type));
+        return name;
+    }
+
+    private PhaseTimer finishPhase(PhaseTimer timer, CompilationPhase phase) {
+        if (timer == null) {
+            return null;
+        }
+        timer.finish(listener, className, methodName, phase);
+        return PhaseTimer.start(listener);
+    }
+
     private void doTypeInference() {
         if (this.matchingVars != null) {
             for (var v : this.matchingVars.allVars()) {
@@ -312,30 +552,63 @@ public class Method {
         }
     }
 
-    private void pruneBlocks() {
+    /**
+     * Remove unreachable operations, jumps to the next block, and empty blocks, redirect jumps to blocks that only
+     * jump elsewhere, merge blocks that nothing jumps to into the block before them, and drop those that control
+     * can't reach.
+     *
+     * Each round of pruning takes time linear in the number of operations, and the steps are ordered so that one round
+     * does nearly all the work. A later round only finds what a step exposed for an earlier one, such as a goto left
+     * pointing at the next block once the unreachable blocks between them are dropped, so the number of rounds is
+     * bounded, which keeps pruning linear.
+     */
+    void pruneBlocks() {
         // TODO: not sure how to test that this is working--can test that it doesn't break code, but
         // testing that we're actually pruning is going to be obnoxious/brittle
         // maybe snapshot testing is the way, once we fix the low-hanging fruit of emitting decent bytecode?
+        var rounds = 0;
         var changed = false;
         do {
             changed = pruneDeadInstructions();
-            changed |= pruneDeadGotos();
-            changed |= redirectRedundantJumps();
-            changed |= removeEmptyBlocks();
-            changed |= combineConsecutiveBlocks();
-        } while (changed);
+            var graph = ControlFlowGraph.of(blocks);
+            changed |= pruneDeadGotos(graph);
+            changed |= redirectRedundantJumps(graph);
+            changed |= removeEmptyBlocks(graph);
+            changed |= combineConsecutiveBlocks(ControlFlowGraph.of(blocks));
+        } while (changed && ++rounds < MAX_PRUNING_ROUNDS);
+    }
+
+    /**
+     * @return for each block, the position of the first non-empty block at or after it, or of the last block, if
+     * every block from there on is empty
+     */
+    private int[] nonEmptyTargets() {
+        var targets = new int[blocks.size()];
+        for (var i = blocks.size() - 1; i >= 0; i--) {
+            if (i == blocks.size() - 1 || !blocks.get(i).isEmpty()) {
+                targets[i] = i;
+            }
+            else {
+                targets[i] = targets[i + 1];
+            }
+        }
+        return targets;
     }
 
-    private boolean removeEmptyBlocks() {
-        Set<Integer> blocksToTake = new HashSet<>();
-        for (var b : blocks) {
+    private boolean removeEmptyBlocks(ControlFlowGraph graph) {
+        var nonEmptyTargets = nonEmptyTargets();
+        var blocksToTake = new BitSet(blocks.size());
+        for (var i = 0; i < blocks.size(); i++) {
+            var b = blocks.get(i);
             if (!b.isEmpty()) {
-                blocksToTake.add(b.number);
+                blocksToTake.set(i);
                 for (var op : b.operations) {
                     if (op.inst == JUMP) {
-                        var target = op.target;
-                        op.target = GraphUtil.actualTarget(this, target.number);
-                        blocksToTake.add(op.target.number);
+                        op.target = actualTarget(graph, nonEmptyTargets, op.target, blocksToTake);
+                    }
+                    else if (op.isSwitch()) {
+                        op.target = actualTarget(graph, nonEmptyTargets, op.target, blocksToTake);
+                        op.blockTargets.replaceAll(target -> actualTarget(graph, nonEmptyTargets, target, blocksToTake));
                     }
                 }
             }
@@ -343,59 +616,102 @@ public class Method {
         return keepSpecifiedBlocks(blocksToTake);
     }
 
-    private boolean combineConsecutiveBlocks() {
-        Set<Integer> blocksToTake = new HashSet<>();
-        for (var b : blocks) {
+    /**
+     * @return the first non-empty block at or after the target, which is marked to be kept
+     */
+    private Block actualTarget(ControlFlowGraph graph, int[] nonEmptyTargets, Block target, BitSet blocksToTake) {
+        var index = graph.indexOf(target);
+        if (index == null) {
+            return target;
+        }
+        blocksToTake.set(nonEmptyTargets[index]);
+        return blocks.get(nonEmptyTargets[index]);
+    }
+
+    private boolean combineConsecutiveBlocks(ControlFlowGraph graph) {
+        var jumpCounts = new int[blocks.size()];
+        for (var i = 0; i < blocks.size(); i++) {
+            jumpCounts[i] = graph.jumpCount(i);
+        }
+        var blocksToTake = new BitSet(blocks.size());
+        Block priorBlock = null;
+        for (var i = 0; i < blocks.size(); i++) {
+            var b = blocks.get(i);
             if (!b.isEmpty()) {
-                if (blocksToTake.isEmpty() || mustTake(b)) {
-                    blocksToTake.add(b.number);
+                if (priorBlock == null || i == 0 || jumpCounts[i] > 0) {
+                    blocksToTake.set(i);
+                    priorBlock = b;
                 }
-                else {
+                else if (ControlFlowGraph.fallsThrough(priorBlock.operations.get(priorBlock.operations.size() - 1))) {
                     // not the first block, not the target of a jump, so we can squash it
-                    var lastBlock = b.number;
-                    while (!blocksToTake.contains(lastBlock)) {
-                        lastBlock--;
-                    }
-                    var priorBlock = blocks.get(lastBlock);
                     priorBlock.operations.addAll(b.operations);
                 }
+                else {
+                    // Nothing reaches the block, so it's dropped, and the blocks only it jumped to are unreachable too
+                    for (var op : b.operations) {
+                        forEachTarget(op, target -> {
+                            var index = graph.indexOf(target);
+                            if (index != null) {
+                                jumpCounts[index]--;
+                            }
+                        });
+                    }
+                }
             }
         }
         return keepSpecifiedBlocks(blocksToTake);
     }
 
-    private boolean keepSpecifiedBlocks(Set<Integer> blocksToTake) {
-        var listBlocksToTake = new ArrayList<>(blocksToTake);
-        Collections.sort(listBlocksToTake);
-
-        boolean changed = blocksToTake.size() < this.blocks.size();
-
-        var newBlocks = new ArrayList<Block>();
-        for (var n : listBlocksToTake) {
-            newBlocks.add(blocks.get(n));
+    private static void forEachTarget(Operation op, Consumer<Block> action) {
+        if (op.target != null) {
+            action.accept(op.target);
         }
+        if (op.isSwitch()) {
+            op.blockTargets.forEach(action);
+        }
+    }
 
-        var i = 0;
-        for (var block : newBlocks) {
-            block.number = i++;
+    private boolean keepSpecifiedBlocks(BitSet blocksToTake) {
+        boolean changed = blocksToTake.cardinality() < this.blocks.size();
+        staleNumbersFrom = Integer.MAX_VALUE;
+
+        var newBlocks = new ArrayList<Block>(blocksToTake.cardinality());
+        for (var n = blocksToTake.nextSetBit(0); n >= 0; n = blocksToTake.nextSetBit(n + 1)) {
+            var block = blocks.get(n);
+            block.number = newBlocks.size();
+            newBlocks.add(block);
         }
         this.blocks = newBlocks;
         return changed;
     }
 
-    private boolean pruneDeadGotos() {
+    /**
+     * Remove gotos that lead to the next block, or past empty blocks to the first non-empty one. Working backwards
+     * means that a block emptied by removing its goto is already known to be empty when the blocks before it are
+     * checked.
+     */
+    private boolean pruneDeadGotos(ControlFlowGraph graph) {
         var pruned = false;
-        for (var block : blocks) {
-            if (!block.isEmpty()) {
+        // The position of the first non-empty block at or after each block, as in nonEmptyTargets
+        var nonEmptyTargets = new int[blocks.size()];
+        for (var i = blocks.size() - 1; i >= 0; i--) {
+            var block = blocks.get(i);
+            if (!block.isEmpty() && i + 1 < blocks.size()) {
                 var lastOperation = block.operations.get(block.operations.size() - 1);
                 if (lastOperation.isGoto()) {
-                    var target = lastOperation.target;
-                    if (target.number == block.number + 1) {
+                    var target = graph.indexOf(lastOperation.target);
+                    if (target != null && target > i && nonEmptyTargets[target] == nonEmptyTargets[i + 1]) {
                         block.operations.remove(block.operations.size() - 1);
                         pruned = true;
                     }
                 }
             }
+            if (i == blocks.size() - 1 || !block.isEmpty()) {
+                nonEmptyTargets[i] = i;
+            }
+            else {
+                nonEmptyTargets[i] = nonEmptyTargets[i + 1];
+            }
         }
         return pruned;
     }
@@ -405,35 +721,34 @@ public class Method {
         for (var block : blocks) {
             int pruneIndex = -1;
             for (int i = 0; i < block.operations.size(); i++) {
-                var op = block.operations.get(i);
-                if (op.inst == Operation.Inst.RETURN || op.isGoto() ) {
+                if (!ControlFlowGraph.fallsThrough(block.operations.get(i))) {
                     pruneIndex = i;
                     break;
                 }
             }
             if (pruneIndex != -1) {
-                while (block.operations.size() > pruneIndex + 1) {
-                    pruned = true;
-                    block.operations.remove(block.operations.size() - 1);
-                }
+                pruned |= block.operations.size() > pruneIndex + 1;
+                block.operations.subList(pruneIndex + 1, block.operations.size()).clear();
             }
         }
         return pruned;
     }
 
-    private boolean redirectRedundantJumps() {
+    /**
+     * Point jumps to a block that starts with a goto at the goto's eventual destination instead.
+     */
+    private boolean redirectRedundantJumps(ControlFlowGraph graph) {
+        var nonEmptyTargets = nonEmptyTargets();
+        // Where following gotos from each block ends, so that every chain is only followed once
+        Map<Block, Block> destinations = new IdentityHashMap<>();
         boolean changed = false;
         for (var block : blocks) {
             for (var op : block.operations) {
                 if (op.inst == JUMP) {
-                    var target = GraphUtil.actualTarget(this, op.target.number);
-                    // Depending on phase ordering, we can have a jump pointing to an empty block
-                    if (!target.isEmpty()) {
-                        var firstInstruction = target.operations.get(0);
-                        if (firstInstruction.isGoto()) {
-                            op.target = firstInstruction.target;
-                            changed = true;
-                        }
+                    var destination = followGotos(graph, nonEmptyTargets, op.target, destinations);
+                    if (destination != op.target) {
+                        op.target = destination;
+                        changed = true;
                     }
                 }
             }
@@ -441,24 +756,117 @@ public class Method {
         return changed;
     }
 
-    private boolean mustTake(Block b) {
-        if (b.number == 0) {
-            return true;
+    /**
+     * @return the target of the goto that the block starts with, following further gotos, or the block itself if it
+     * doesn't start with a goto
+     */
+    private Block followGotos(ControlFlowGraph graph, int[] nonEmptyTargets, Block block,
+                              Map<Block, Block> destinations) {
+        Set<Block> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        var current = block;
+        Block destination = current;
+        while (true) {
+            var known = destinations.get(current);
+            if (known != null) {
+                destination = known;
+                break;
+            }
+            var index = graph.indexOf(current);
+            // Depending on phase ordering, we can have a jump pointing to an empty block
+            var actual = index == null ? current : blocks.get(nonEmptyTargets[index]);
+            if (actual.isEmpty() || !actual.operations.get(0).isGoto() || !visited.add(current)) {
+                // A cycle of gotos has no destination outside it, so it stays as it is
+                destination = current;
+                break;
+            }
+            current = actual.operations.get(0).target;
+        }
+        for (var seen : visited) {
+            destinations.put(seen, destination);
+        }
+        destinations.put(block, destination);
+        return destination;
+    }
+
+    /**
+     * Determine whether an assignment adds a constant to an int variable, so that it can use IINC.
+     *
+     * @return the amount added, or empty if the assignment isn't an increment
+     */
+    private Optional<Integer> incrementFor(Assignment assignment) {
+        if (!(assignment.expression instanceof Binary)) {
+            return Optional.empty();
+        }
+        var binary = (Binary) assignment.expression;
+        Expression read;
+        Expression constant;
+        if (isRead(binary.left, assignment.variable)) {
+            read = binary.left;
+            constant = binary.right;
+        }
+        else if (binary.operator == BinaryOperator.PLUS && isRead(binary.right, assignment.variable)) {
+            read = binary.right;
+            constant = binary.left;
         }
         else {
-            // This seems too quick...what if otherBlock is dead?
-            for (var otherBlock : blocks) {
-                for (var op : otherBlock.operations) {
-                    if (op.isJump() && op.target == b) {
-                        return true;
-                    }
-                    else if (op.isSwitch() && op.blockTargets.contains(b) || op.target == b) {
-                        return true;
-                    }
-                }
-            }
+            return Optional.empty();
         }
-        return false;
+        if (!(constant instanceof Literal) || !(((Literal) constant).value instanceof Integer)) {
+            return Optional.empty();
+        }
+        // IINC would skip the narrowing that storing to a short, char or byte variable requires
+        if (typeInference.analyze(read, typeEnvironment).type() != Builtin.I) {
+            return Optional.empty();
+        }
+        long amount = (Integer) ((Literal) constant).value;
+        if (binary.operator == BinaryOperator.SUBTRACT) {
+            amount = -amount;
+        }
+        else if (binary.operator != BinaryOperator.PLUS) {
+            return Optional.empty();
+        }
+        // The range of a wide IINC
+        if (amount < Short.MIN_VALUE || amount > Short.MAX_VALUE) {
+            return Optional.empty();
+        }
+        return Optional.of((int) amount);
+    }
+
+    private static boolean isRead(Expression expression, String variable) {
+        return expression instanceof VariableRead && ((VariableRead) expression).variable.equals(variable);
+    }
+
+    /**
+     * Lower a multiplication, division or remainder with a literal operand using cheaper instructions, if possible.
+     *
+     * @return true if the operation was lowered
+     */
+    private boolean reduceStrength(Binary operation) {
+        var operator = operation.operator;
+        if (operator != BinaryOperator.MULTIPLY && operator != BinaryOperator.DIVIDE && operator != BinaryOperator.MOD) {
+            return false;
+        }
+        Expression value = operation.left;
+        Expression constant = operation.right;
+        // Multiplication commutes, so the literal may be on either side
+        if (operator == BinaryOperator.MULTIPLY && value instanceof Literal && !(constant instanceof Literal)) {
+            value = operation.right;
+            constant = operation.left;
+        }
+        if (!(constant instanceof Literal)) {
+            return false;
+        }
+        var type = typeInference.analyze(value, typeEnvironment).type();
+        if (!(type instanceof Builtin)) {
+            return false;
+        }
+        resolve(value);
+        if (!StrengthReduction.reduce(currentBlock(), operator, (Builtin) type, ((Literal) constant).value)) {
+            // Evaluating a literal has no side effects, so this is fine even if we swapped the operands
+            resolve(constant);
+            currentBlock().operate(operation.asmOP(this));
+        }
+        return true;
     }
 
     private TypeVariable typeVariableFor(String s) {
@@ -471,7 +879,7 @@ public class Method {
                 return TypeVariable.of(Builtin.C);
             case "F":
                 return TypeVariable.of(Builtin.F);
-            case "L":
+            case "J":
                 return TypeVariable.of(Builtin.L);
             case "D":
                 return TypeVariable.of(Builtin.D);
@@ -480,17 +888,20 @@ public class Method {
             case "B":
                 return TypeVariable.of(Builtin.OCTET);
             default:
+                if (s.startsWith("[")) {
+                    return TypeVariable.of(Type.fromDescriptor(s));
+                }
                 var internalName = CompilerUtil.internalName(CompilerUtil.extractDiscriptorInnards(s));
                 return TypeVariable.of(ReferenceType.of(internalName));
         }
     }
 
     void resolveTopLevelElement(CodeElement element) {
-        resolve(element, false, false, false);
+        resolve(element, false);
     }
 
-    Optional<Integer> resolve(CodeElement element) {
-        return resolve(element, true, false, false);
+    void resolve(CodeElement element) {
+        resolve(element, true);
     }
 
     /**
@@ -499,10 +910,8 @@ public class Method {
      * @param element the element to resolve
      * @param asConsumedValue true if we're inside a context where a value pushed to the stack will be consumed (binary
      *                       operation, method call, assignment, etc). Otherwise false.
-     * @param asValue if the value produced by this expression will be stored/returned as a value, rather than used for
-     *               a conditional
      */
-    Optional<Integer> resolve(CodeElement element, boolean asConsumedValue, boolean asValue, boolean negated) {
+    void resolve(CodeElement element, boolean asConsumedValue) {
         if (element instanceof Literal) {
             var lit = (Literal) element;
             if (lit.value instanceof Integer) {
@@ -539,7 +948,7 @@ public class Method {
         } else if (element instanceof ReturnExpression) {
             var returnExpression = (ReturnExpression) element;
             Expression expression = returnExpression.expression;
-            resolve(expression, true, true, false);
+            resolve(expression);
             var type = typeInference.analyze(expression, typeEnvironment);
             Builtin.from(returnType).ifPresent(returning -> {
                 applyCast(type, returning);
@@ -586,7 +995,12 @@ public class Method {
                     CompilerUtil.descriptor(fieldReference.type));
         } else if (element instanceof Assignment) {
             var assignment = (Assignment) element;
-            resolve(assignment.expression, true, true, false);
+            var increment = incrementFor(assignment);
+            if (increment.isPresent()) {
+                currentBlock().increment(assignment.variable, increment.get());
+                return;
+            }
+            resolve(assignment.expression);
             currentBlock().setVar(getMatchingVars().get().indexByName(assignment.variable), descriptorForExpression(assignment.expression));
         } else if (element instanceof Binary) {
             var operation = (Binary) element;
@@ -595,158 +1009,52 @@ public class Method {
                 case LESS_THAN_OR_EQUALS:
                 case GREATER_THAN:
                 case GREATER_THAN_OR_EQUALS:
-                    var block = addBlock();
-                    var analyzed = typeInference.analyze(operation.left, typeEnvironment).type();
-                    var asmOp = operation.asmOP(this);
-                    if (asValue) {
-                        final var targetBlock = block;
-                        withBlock(targetBlock, () -> {
-                            resolve(operation.left);
-                            resolve(operation.right);
-                            var eqBlock = addBlock().push(1);
-                            var finalBlock = addBlock();
-
-
-                            // TODO: need specific test case for characters
-                            if (analyzed == Builtin.I || analyzed == Builtin.C) {
-                                targetBlock.jump(eqBlock, asmOp)
-                                        .push(0)
-                                        .jump(finalBlock, GOTO);
-                            }
-                            else {
-                                operation.comparisonOperation(this).ifPresent(targetBlock::operate);
-                                targetBlock.jump(eqBlock, asmOp)
-                                        .push(0)
-                                        .jump(finalBlock, GOTO);
-                            }
-                        });
-                        return Optional.empty();
-                    } else {
-                        resolve(operation.left);
-                        resolve(operation.right);
-                        // TODO: need specific test case for characters
-                        if (analyzed == Builtin.I || analyzed == Builtin.C) {
-                            return Optional.of(asmOp);
-                        }
-                        else {
-                            operation.comparisonOperation(this).ifPresent(block::operate);
-                            return Optional.of(asmOp);
-                        }
-                    }
                 case EQUALS:
                 case NOT_EQUALS:
-                    block = addBlock();
-                    asmOp = operation.asmOP(this);
-                    if (asValue) {
-                        withBlock(block, () -> {
-                            resolve(operation.left, true, true, false);
-                            resolve(operation.right, true, true, false);
-                            var eqBlock = addBlock().push(1);
-                            var finalBlock = addBlock();
-
-                            block.jump(eqBlock, operation.asmOP(this))
-                                    .push(0)
-                                    .jump(finalBlock, GOTO);
-                        });
-                        return Optional.empty();
-                    }
-                    else {
-                        resolve(operation.left);
-                        resolve(operation.right);
-                        return Optional.of(asmOp);
-                    }
-                case OR:
-                    // TODO: this generates significantly more verbose bytecode than javac
-                    var firstConditionBlock = addBlock();
-
-                    var firstOperator = new AtomicReference<Optional<Integer>>();
-                    withBlock(firstConditionBlock, () -> {
-                        firstOperator.set(resolve(operation.left, true, false, false));
-                    });
-                    firstConditionBlock = addBlock();
-
-                    var secondConditionBlock = addBlock();
-                    var secondOperator = new AtomicReference<Optional<Integer>>();
-                    withBlock(secondConditionBlock, () -> {
-                        secondOperator.set(resolve(operation.right, true, false, false));
-                    });
-                    secondConditionBlock = addBlock();
-
-                    var successBlock = addBlock();
-                    successBlock.push(1);
-                    var failureBlock = addBlock();
-                    failureBlock.push(0);
-
-                    var postBlock = addBlock();
-                    successBlock.jump(postBlock, GOTO);
-
-                    firstConditionBlock.jump(successBlock, firstOperator.get().orElse(IFNE));
-                    secondConditionBlock.jump(failureBlock, secondOperator.get().map(ASMUtil::negateJump).orElse(IFEQ));
-                    return Optional.empty();
                 case AND:
-                    firstConditionBlock = addBlock();
-
-                    firstOperator = new AtomicReference<Optional<Integer>>();
-                    withBlock(firstConditionBlock, () -> {
-                        firstOperator.set(resolve(operation.left, true, false, false));
-                    });
-                    firstConditionBlock = addBlock();
-
-                    secondConditionBlock = addBlock();
-                    secondOperator = new AtomicReference<Optional<Integer>>();
-                    withBlock(secondConditionBlock, () -> {
-                        secondOperator.set(resolve(operation.right, true, false, false));
-                    });
-                    secondConditionBlock = addBlock();
-
-                    successBlock = addBlock();
-                    successBlock.push(1);
-                    failureBlock = addBlock();
-                    failureBlock.push(0);
-
-                    postBlock = addBlock();
-                    successBlock.jump(postBlock, GOTO);
-
-                    firstConditionBlock.jump(failureBlock, firstOperator.get().map(ASMUtil::negateJump).orElse(IFNE));
-                    secondConditionBlock.jump(failureBlock, secondOperator.get().map(ASMUtil::negateJump).orElse(IFEQ));
-                    return Optional.empty();
+                case OR:
+                    resolveConditionAsValue(operation);
+                    return;
                 default:
+                    if (reduceStrength(operation)) {
+                        return;
+                    }
                     resolve(operation.left);
                     resolve(operation.right);
                     currentBlock().operate(operation.asmOP(this));
-                    return Optional.empty();
+                    return;
             }
         } else if (element instanceof Unary) {
             var unary = (Unary) element;
             switch (unary.operator) {
                 case NOT:
-                    var operator = resolve(unary.expression, true, asValue, true);
-                    if (operator.isEmpty()) {
-                        addBlock().push(1).operate(IXOR);
+                    if (isCondition(unary.expression)) {
+                        resolveConditionAsValue(unary);
+                    }
+                    else {
+                        resolve(unary.expression);
+                        currentBlock().push(1).operate(IXOR);
                     }
-                    return operator.map(ASMUtil::negateJump);
+                    break;
                 default:
-                    resolve(unary.expression, true, true, false);
+                    resolve(unary.expression);
                     currentBlock().operate(unary.operator.asmOP(typeInference.analyze(unary.expression, typeEnvironment)));
             }
         } else if (element instanceof Loop) {
             var loop = (Loop) element;
             var conditionsBlock = currentBlock.push(addBlock());
             currentLoop.push(conditionsBlock);
-            Optional<Integer> jumpOperation = Optional.empty();
+            List<Operation> exits = new ArrayList<>();
             if (loop.condition != null) {
-                jumpOperation = resolve(loop.condition, true, false, false);
+                exits = resolveJumps(loop.condition, false);
             }
-            var postConditionsBlock = addBlock();
 
             // This adds a block for the body of the loop
             resolveBody(loop);
             addBlock().jump(conditionsBlock, GOTO);
 
             var afterLoop = addBlock();
-            if (loop.condition != null) {
-                postConditionsBlock.jump(afterLoop, jumpOperation.map(ASMUtil::negateJump).orElse(IFEQ));
-            }
+            setTargets(exits, afterLoop);
             currentLoop.pop();
             currentBlock.push(afterLoop);
             for (var x : this.blocks) {
@@ -805,41 +1113,54 @@ public class Method {
                 throw new IllegalStateException("Trying to compile an incomplete switch statement");
             }
             resolve(s.getExpression());
-            if (s.getIntegerSwitch()) {
-                var integerKeys = s.intCases();
-                if (Switch.isDense(integerKeys)) {
-                    var switchBlock = addBlock();
-                    List<Block> switchBlocks = new ArrayList<>();
-                    for (var key : integerKeys) {
-                        var caseBlock = addBlock();
-                        withBlock(caseBlock, () -> {
-                            for (var subElement : s.getElements(key)) {
-                                resolve(subElement);
-                            }
-                        });
-                        switchBlocks.add(caseBlock);
-                    }
-                    var defaultBlock = addBlock();
-                    withBlock(defaultBlock, () -> {
-                        for (var codeElement : s.getDefaultCase()) {
-                            resolve(codeElement);
-                        }
-                    });
-                    int start = integerKeys.get(0);
-                    int stop = integerKeys.get(integerKeys.size() - 1);
-                    switchBlock.addOperation(Operation.mkTableSwitch(switchBlocks, defaultBlock, start, stop));
-                    var postSwitchBlock = addBlock();
-                    for (var b : switchBlocks) {
-                        b.jump(postSwitchBlock, GOTO);
+            var switchBlock = currentBlock();
+            Map<Object, Block> caseBlocks = new HashMap<>();
+            List<Block> bodyEndingBlocks = new ArrayList<>();
+            List<?> keys = s.getIntegerSwitch() ? s.intCases() : s.stringCases();
+            for (var key : keys) {
+                var firstArmBlock = this.blocks.size();
+                var caseBlock = addBlock();
+                withBlock(caseBlock, () -> {
+                    for (var subElement : s.getElements(key)) {
+                        resolve(subElement, false);
                     }
+                });
+                caseBlocks.put(key, caseBlock);
+                var armSize = 0;
+                for (var block : this.blocks.subList(firstArmBlock, this.blocks.size())) {
+                    armSize += MethodSize.estimate(block, getMatchingVars());
                 }
-                else {
-                    throw new UnsupportedOperationException("TODO: Non-dense switches are not yet handled");
+                armSizes.put(s.getElements(key), armSize);
+                bodyEndingBlocks.add(this.blocks.get(this.blocks.size() - 1));
+            }
+            var defaultBlock = addBlock();
+            withBlock(defaultBlock, () -> {
+                for (var codeElement : s.getDefaultCase()) {
+                    resolve(codeElement, false);
+                }
+            });
+            bodyEndingBlocks.add(this.blocks.get(this.blocks.size() - 1));
+            if (s.getIntegerSwitch()) {
+                SortedMap<Integer, Block> targets = new TreeMap<>();
+                for (var key : s.intCases()) {
+                    targets.put(key, caseBlocks.get(key));
                 }
+                SwitchLowering.dispatch(this, switchBlock, targets, defaultBlock, s.getStrategy());
             }
             else {
-                throw new UnsupportedOperationException("TODO: String switches are not yet handled");
+                SortedMap<String, Block> targets = new TreeMap<>();
+                for (var key : s.stringCases()) {
+                    targets.put(key, caseBlocks.get(key));
+                }
+                SwitchLowering.dispatchStrings(this, switchBlock, targets, defaultBlock, s.getStrategy());
+            }
+            var postSwitchBlock = addBlock();
+            for (var b : bodyEndingBlocks) {
+                if (!b.endsWithReturn()) {
+                    b.jump(postSwitchBlock, GOTO);
+                }
             }
+            currentBlock.push(postSwitchBlock);
         }
         else if (element instanceof Conditional) {
             var cond = (Conditional) element;
@@ -847,12 +1168,12 @@ public class Method {
             // implement fallthrough
             List<Block> bodyEndingBlocks = new ArrayList<>();
             List<Block> conditionStartingBlocks = new ArrayList<>();
-            List<Pair<Block, Optional<Integer>>> conditionEndingBlocks = new ArrayList<>();
+            // The jumps taken when each condition is false
+            List<List<Operation>> conditionExits = new ArrayList<>();
 
             currentBlock.push(addBlock());
             conditionStartingBlocks.add(currentBlock());
-            var operation = resolve(cond.condition);
-            conditionEndingBlocks.add(Pair.of(addBlock(), operation));
+            conditionExits.add(resolveJumps(cond.condition, false));
 
             resolveBody(cond);
             bodyEndingBlocks.add(this.blocks.get(this.blocks.size() - 1));
@@ -862,8 +1183,7 @@ public class Method {
                 if (alternate.condition != null) {
                     currentBlock.push(addBlock());
                     conditionStartingBlocks.add(currentBlock());
-                    operation = resolve(alternate.condition);
-                    conditionEndingBlocks.add(Pair.of(addBlock(), operation));
+                    conditionExits.add(resolveJumps(alternate.condition, false));
                     resolveBody(alternate);
                     bodyEndingBlocks.add(this.blocks.get(this.blocks.size() - 1));
                 }
@@ -880,14 +1200,12 @@ public class Method {
                 elseBlock = afterLoopBlock;
             }
 
-            for (int i = 0; i < conditionEndingBlocks.size(); i++) {
-                var conditionBlock = conditionEndingBlocks.get(i);
-                operation = conditionBlock.getRight().map(ASMUtil::negateJump);
-                if (i + 1 == conditionEndingBlocks.size()) {
-                    conditionBlock.getLeft().jump(elseBlock, operation.orElse(IFEQ));
+            for (int i = 0; i < conditionExits.size(); i++) {
+                if (i + 1 == conditionExits.size()) {
+                    setTargets(conditionExits.get(i), elseBlock);
                 }
                 else {
-                    conditionBlock.getLeft().jump(conditionStartingBlocks.get(i + 1), operation.orElse(IFEQ));
+                    setTargets(conditionExits.get(i), conditionStartingBlocks.get(i + 1));
                 }
             }
             for (var bodyEndingBlock : bodyEndingBlocks) {
@@ -947,23 +1265,23 @@ public class Method {
                 switch ((Builtin) arrayType.elementType) {
                     case I:
                         currentBlock().operate(IALOAD);
-                        return Optional.empty();
+                        return;
                     case S:
                         currentBlock().operate(SALOAD);
-                        return Optional.empty();
+                        return;
                     case F:
                         currentBlock().operate(FALOAD);
-                        return Optional.empty();
+                        return;
                     case L:
                         currentBlock().operate(LALOAD);
-                        return Optional.empty();
+                        return;
                     case D:
                         currentBlock().operate(DALOAD);
-                        return Optional.empty();
+                        return;
                     case BOOL:
                     case OCTET:
                         currentBlock().operate(BALOAD);
-                        return Optional.empty();
+                        return;
                 }
             }
             else {
@@ -980,20 +1298,20 @@ public class Method {
                 switch ((Builtin) arrayType.elementType) {
                     case I:
                         currentBlock().operate(IASTORE);
-                        return Optional.empty();
+                        return;
                     case F:
                         currentBlock().operate(FASTORE);
-                        return Optional.empty();
+                        return;
                     case L:
                         currentBlock().operate(LASTORE);
-                        return Optional.empty();
+                        return;
                     case D:
                         currentBlock().operate(DASTORE);
-                        return Optional.empty();
+                        return;
                     case BOOL:
                     case OCTET:
                         currentBlock().operate(BASTORE);
-                        return Optional.empty();
+                        return;
                     case S:
                         currentBlock().operate(SASTORE);
                 }
@@ -1008,7 +1326,122 @@ public class Method {
         } else if (element instanceof NoOpStatement) {
             // do nothing
         }
-        return Optional.empty();
+    }
+
+    /**
+     * Lower a condition to a chain of jumps, as javac does, without materializing intermediate boolean values.
+     *
+     * @param condition the condition
+     * @param jumpWhen the value of the condition for which the returned jumps are taken. Otherwise, execution falls
+     *                 through to the current block when this method returns
+     * @return the jumps, whose targets must be set by the caller
+     */
+    private List<Operation> resolveJumps(Expression condition, boolean jumpWhen) {
+        if (condition instanceof Literal && ((Literal) condition).value instanceof Boolean) {
+            if ((Boolean) ((Literal) condition).value == jumpWhen) {
+                return jump(GOTO);
+            }
+            return new ArrayList<>();
+        }
+        else if (condition instanceof Unary && ((Unary) condition).operator == UnaryOperator.NOT) {
+            return resolveJumps(((Unary) condition).expression, !jumpWhen);
+        }
+        else if (condition instanceof Binary) {
+            var binary = (Binary) condition;
+            switch (binary.operator) {
+                case AND:
+                case OR:
+                    // The value of the left operand that decides the result without evaluating the right operand
+                    var shortCircuitValue = binary.operator == BinaryOperator.OR;
+                    if (jumpWhen == shortCircuitValue) {
+                        var jumps = resolveJumps(binary.left, jumpWhen);
+                        jumps.addAll(resolveJumps(binary.right, jumpWhen));
+                        return jumps;
+                    }
+                    var shortCircuits = resolveJumps(binary.left, shortCircuitValue);
+                    var jumps = resolveJumps(binary.right, jumpWhen);
+                    setTargets(shortCircuits, startBlock());
+                    return jumps;
+                case EQUALS:
+                case NOT_EQUALS:
+                case LESS_THAN:
+                case LESS_THAN_OR_EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQUALS:
+                    resolve(binary.left);
+                    resolve(binary.right);
+                    binary.comparisonOperation(this).ifPresent(currentBlock()::operate);
+                    var asmOp = binary.asmOP(this);
+                    return jump(jumpWhen ? asmOp : ASMUtil.negateJump(asmOp));
+                default:
+                    break;
+            }
+        }
+        resolve(condition);
+        return jump(jumpWhen ? IFNE : IFEQ);
+    }
+
+    /**
+     * Lower a condition to code that pushes 1 if it is true, and 0 otherwise.
+     */
+    private void resolveConditionAsValue(Expression condition) {
+        var falseJumps = resolveJumps(condition, false);
+        currentBlock().push(1);
+        if (falseJumps.isEmpty()) {
+            return;
+        }
+        var skipFalse = jump(GOTO);
+        var falseBlock = currentBlock().push(0);
+        setTargets(skipFalse, startBlock());
+        setTargets(falseJumps, falseBlock);
+    }
+
+    private static boolean isCondition(Expression expression) {
+        if (expression instanceof Unary) {
+            return ((Unary) expression).operator == UnaryOperator.NOT;
+        }
+        else if (expression instanceof Binary) {
+            switch (((Binary) expression).operator) {
+                case AND:
+                case OR:
+                case EQUALS:
+                case NOT_EQUALS:
+                case LESS_THAN:
+                case LESS_THAN_OR_EQUALS:
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQUALS:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Add a jump, whose target will be set later, to the current block, and start a new block after it.
+     *
+     * @return a list containing the jump
+     */
+    private List<Operation> jump(int opcode) {
+        var jump = Operation.mkJump(null, opcode);
+        currentBlock().addOperation(jump);
+        startBlock();
+        var jumps = new ArrayList<Operation>();
+        jumps.add(jump);
+        return jumps;
+    }
+
+    private Block startBlock() {
+        var block = addBlock();
+        currentBlock.push(block);
+        return block;
+    }
+
+    private static void setTargets(List<Operation> jumps, Block target) {
+        for (var jump : jumps) {
+            jump.target = target;
+        }
     }
 
     private void applyCast(Type origin, Type target) {
@@ -1032,7 +1465,7 @@ public class Method {
     private void resolveBody(ElementContainer container) {
         withBlock(addBlock(), () -> {
             for (var codeElement : container.getBody()) {
-                resolve(codeElement, false, false, false);
+                resolve(codeElement, false);
             }
         });
     }
@@ -1203,4 +1636,52 @@ public class Method {
         this.classPackage = classPackage;
         this.typeInference = new TypeInference(className, this);
     }
+
+    /**
+     * Register a static int array that the method's code reads.
+     *
+     * @param purpose a short description of the array, used in its name
+     * @param values the contents of the array
+     * @return the name of the field holding the array
+     */
+    String addArrayConstant(String purpose, int[] values) {
+        var name = methodName.replaceAll("[<>]", "") + "$" + Integer.toHexString(descriptor().hashCode()) + "$"
+                + purpose + arrayConstants.size();
+        arrayConstants.put(name, values);
+        return name;
+    }
+
+    /**
+     * Reserve room in the class's static initializer for the code that fills array constants.
+     *
+     * @param size the estimated size of the code
+     * @return true if the space was reserved, false if the static initializer could grow past the JVM's limit
+     */
+    boolean reserveStaticInitializerSpace(int size) {
+        while (true) {
+            var available = staticInitializerSpace.get();
+            if (size > available) {
+                return false;
+            }
+            if (staticInitializerSpace.compareAndSet(available, available - size)) {
+                reservedStaticInitializerSpace += size;
+                return true;
+            }
+        }
+    }
+
+    Map<String, int[]> getArrayConstants() {
+        return arrayConstants;
+    }
+
+    /**
+     * @return the helper methods created while splitting this method, which the compiler adds to the class
+     */
+    List<Method> getOutlinedMethods() {
+        return outlinedMethods;
+    }
+
+    void setListener(CompilationListener listener) {
+        this.listener = listener;
+    }
 }
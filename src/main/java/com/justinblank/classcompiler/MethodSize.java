@@ -0,0 +1,122 @@
+package com.justinblank.classcompiler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Estimates the size of the bytecode a method's blocks will compile to.
+ *
+ * The estimate is an upper bound: it assumes the largest encoding of every instruction whose encoding depends on
+ * information only known once the class is written, such as constant pool indices and alignment padding.
+ */
+class MethodSize {
+
+    // The JVM limits the code of a method to 65535 bytes
+    static final int MAX_METHOD_SIZE = 65535;
+    // Jumps with larger offsets need ASM to rewrite them with goto_w
+    private static final int MAX_SHORT_JUMP = Short.MAX_VALUE;
+
+    private MethodSize() {}
+
+    static int estimate(Method method) {
+        return estimate(method.getBlocks(), method.getMatchingVars());
+    }
+
+    static int estimate(List<Block> blocks, Optional<Vars> vars) {
+        var size = 0;
+        var jumps = 0;
+        for (var block : blocks) {
+            size += estimate(block, vars);
+            for (var op : block.operations) {
+                if (op.isJump()) {
+                    jumps++;
+                }
+            }
+        }
+        if (size > MAX_SHORT_JUMP) {
+            // A conditional jump becomes an inverted jump over a goto_w, and a goto becomes a goto_w
+            size += 5 * jumps;
+        }
+        return size;
+    }
+
+    /**
+     * @return the size of the static initializer code that creates an int array constant and stores it in its field
+     */
+    static int estimateArrayConstant(int[] values) {
+        var block = new Block(0, new ArrayList<>());
+        Block.pushInitializedArrayToStack(values, block);
+        // The putstatic that stores the array
+        return estimate(block, Optional.empty()) + 3;
+    }
+
+    static int estimate(Block block, Optional<Vars> vars) {
+        var size = 0;
+        for (var op : block.operations) {
+            size += estimate(op, vars);
+        }
+        return size;
+    }
+
+    private static int estimate(Operation op, Optional<Vars> vars) {
+        switch (op.inst) {
+            case VALUE:
+                if (op.constant == null && op.count >= -1 && op.count <= 5) {
+                    return 1;
+                }
+                else if (op.constant == null && op.count >= Byte.MIN_VALUE && op.count <= Byte.MAX_VALUE) {
+                    return 2;
+                }
+                // sipush, ldc_w or ldc2_w
+                return 3;
+            case READ_VAR:
+                return localInstructionSize(ClassCompiler.loadIndex(op, vars));
+            case SET_VAR:
+                return localInstructionSize(op.count);
+            case INCREMENT:
+                var index = vars.map(v -> v.indexByName(op.spec.name)).orElse(Integer.MAX_VALUE);
+                if (index <= 255 && op.count >= Byte.MIN_VALUE && op.count <= Byte.MAX_VALUE) {
+                    return 3;
+                }
+                return 6;
+            case PASSTHROUGH:
+            case RETURN:
+                return 1;
+            case JUMP:
+                return 3;
+            case TABLESWITCH:
+                // opcode, up to three bytes of padding, default, low, high, then one offset per target
+                return 1 + 3 + 12 + 4 * op.blockTargets.size();
+            case LOOKUPSWITCH:
+                // opcode, padding, default, count, then a key and offset per target
+                return 1 + 3 + 8 + 8 * op.blockTargets.size();
+            case INVOKEINTERFACE:
+                return 5;
+            case NEWARRAY:
+                return op.spec == null ? 2 : 3;
+            case SET_FIELD:
+            case READ_FIELD:
+            case READ_STATIC:
+            case PUT_STATIC:
+            case CALL:
+            case INVOKESTATIC:
+            case INVOKESPECIAL:
+            case NEW:
+                return 3;
+            default:
+                // Be pessimistic about anything unrecognized
+                return 6;
+        }
+    }
+
+    private static int localInstructionSize(int index) {
+        if (index >= 0 && index <= 3) {
+            return 1;
+        }
+        else if (index >= 0 && index <= 255) {
+            return 2;
+        }
+        return 4;
+    }
+}
@@ -11,7 +11,7 @@ public class Operation {
     public final Inst inst;
     public final int count;
     // TODO: ugh, just ugh...refactor
-    protected final Number number;
+    protected final Object constant;
     public Block target;
     final List<Block> blockTargets;
     final RefSpec spec;
@@ -31,11 +31,11 @@ public class Operation {
         this.inst = inst;
         if (count instanceof Integer) {
             this.count = (Integer) count;
-            this.number = null;
+            this.constant = null;
         }
         else {
             this.count = -1;
-            number = count;
+            constant = count;
         }
         this.target = blockTarget;
         this.spec = spec;
@@ -45,14 +45,24 @@ public class Operation {
 
 
     // We can derive the max from the min, but this is super gross
-    protected Operation(Operation.Inst inst, List<Block> targets, Block failTarget, int min) {
+    protected Operation(Operation.Inst inst, List<Block> targets, Block failTarget, int min, List<Integer> keys) {
         this.inst = inst;
         this.count = min;
         this.target = failTarget;
         this.spec = null;
-        this.ints = null;
+        this.ints = keys;
         this.blockTargets = targets;
-        this.number = null;
+        this.constant = null;
+    }
+
+    private Operation(String constant) {
+        this.inst = Inst.VALUE;
+        this.count = -1;
+        this.constant = constant;
+        this.target = null;
+        this.spec = null;
+        this.ints = null;
+        this.blockTargets = null;
     }
 
     public static Operation mkJump(Block target, int insn) {
@@ -97,6 +107,10 @@ public class Operation {
         return new Operation(Inst.VALUE, val, null, null, null);
     }
 
+    public static Operation pushValue(String val) {
+        return new Operation(val);
+    }
+
     public static Operation pushValue(boolean val) {
         return new Operation(Inst.VALUE, val ? 1 : 0, null, null, null);
     }
@@ -184,11 +198,14 @@ public class Operation {
     }
 
     public static Operation mkTableSwitch(List<Block> blocks, Block failTarget, int min, int max) {
-        return new Operation(Inst.TABLESWITCH, blocks, failTarget, min);
+        return new Operation(Inst.TABLESWITCH, blocks, failTarget, min, null);
     }
 
-    static Operation mkLookupSwitch(List<Block> blocks, Block failTarget) {
-        return new Operation(Inst.LOOKUPSWITCH, blocks, failTarget, 0);
+    static Operation mkLookupSwitch(List<Integer> keys, List<Block> blocks, Block failTarget) {
+        if (keys.size() != blocks.size()) {
+            throw new IllegalArgumentException("A lookupswitch needs one target per key");
+        }
+        return new Operation(Inst.LOOKUPSWITCH, blocks, failTarget, 0, keys);
     }
 
     public void addAttribute(String key, Object attr) {
@@ -0,0 +1,203 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.objectweb.asm.ClassReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+/**
+ * A cache of class files stored on disk, so that generated classes survive restarts.
+ *
+ * Class files are stored in a subdirectory named for the Mako version that generated them, so upgrading Mako doesn't
+ * load stale bytecode. Entries are keyed either by {@link ClassCache#hash(ClassBuilder)}, or by a key the caller
+ * chooses. Caller chosen keys make it possible to load a class without constructing its ClassBuilder at all.
+ *
+ * Writes go to a temporary file that is then moved into place, so concurrent readers never see a partial class file.
+ */
+public class PersistentClassCache {
+
+    private static final Pattern VALID_KEY = Pattern.compile("[A-Za-z0-9_\\-][A-Za-z0-9_.\\-]*");
+
+    public static final String MAKO_VERSION = readVersion();
+    private static final String SUFFIX = ".class";
+    private static final int CLASS_FILE_MAGIC = 0xCAFEBABE;
+
+    private final Path directory;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Create a cache storing classes under the given directory, which will be created if it doesn't exist.
+     *
+     * @param directory the root directory of the cache
+     */
+    public PersistentClassCache(Path directory) {
+        Objects.requireNonNull(directory, "directory cannot be null");
+        this.directory = directory.resolve(MAKO_VERSION);
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create cache directory " + this.directory, e);
+        }
+    }
+
+    /**
+     * Read the class file stored under the given key.
+     *
+     * @param key the key
+     * @return the class file, or empty if no valid class file is stored under the key
+     */
+    public Optional<byte[]> read(String key) {
+        var path = pathFor(key);
+        try {
+            var bytes = Files.readAllBytes(path);
+            if (!isClassFile(bytes)) {
+                // Most likely left behind by a crash or by someone else writing to the directory
+                Files.deleteIfExists(path);
+                recordMiss();
+                return Optional.empty();
+            }
+            recordHit();
+            return Optional.of(bytes);
+        } catch (NoSuchFileException e) {
+            recordMiss();
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read cached class " + path, e);
+        }
+    }
+
+    /**
+     * Store a class file under the given key, replacing any existing entry.
+     *
+     * @param key the key
+     * @param classBytes the class file
+     */
+    public void write(String key, byte[] classBytes) {
+        var path = pathFor(key);
+        try {
+            var temp = Files.createTempFile(directory, key, ".tmp");
+            try {
+                Files.write(temp, classBytes);
+                try {
+                    Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write cached class " + path, e);
+        }
+    }
+
+    /**
+     * Load the class stored under the given key, without needing the ClassBuilder that generated it.
+     *
+     * @param key the key
+     * @param strategy the strategy used to define the class
+     * @return the class, or empty if no class is stored under the key
+     */
+    public Optional<Class<?>> loadClass(String key, ClassLoaderStrategy strategy) {
+        return read(key).map(bytes -> define(bytes, strategy));
+    }
+
+    /**
+     * Get the bytes for the class the builder describes, compiling and storing it if it is not already cached. The key
+     * is {@link ClassCache#hash(ClassBuilder)}.
+     *
+     * @param builder the class builder, which must not have been compiled yet
+     * @return the class file
+     */
+    public byte[] getBytes(ClassBuilder builder) {
+        return getBytes(ClassCache.hash(builder), builder);
+    }
+
+    /**
+     * Get the class file stored under the given key, compiling the builder and storing the result if it is not
+     * already cached.
+     *
+     * @param key the key
+     * @param builder the class builder, which must not have been compiled yet
+     * @return the class file
+     */
+    public byte[] getBytes(String key, ClassBuilder builder) {
+        var cached = read(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        var bytes = new ClassCompiler(builder).generateClassAsBytes();
+        write(key, bytes);
+        return bytes;
+    }
+
+    /**
+     * Get the class the builder describes, compiling and storing it if it is not already cached.
+     *
+     * @param builder the class builder, which must not have been compiled yet
+     * @param strategy the strategy used to define the class
+     * @return the class
+     */
+    public Class<?> getClass(ClassBuilder builder, ClassLoaderStrategy strategy) {
+        return define(getBytes(builder), strategy);
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    private synchronized void recordHit() {
+        hits++;
+    }
+
+    private synchronized void recordMiss() {
+        misses++;
+    }
+
+    private static Class<?> define(byte[] bytes, ClassLoaderStrategy strategy) {
+        var name = CompilerUtil.internalNameToCanonicalName(new ClassReader(bytes).getClassName());
+        return strategy.define(name, bytes);
+    }
+
+    private Path pathFor(String key) {
+        Objects.requireNonNull(key, "key cannot be null");
+        if (!VALID_KEY.matcher(key).matches()) {
+            throw new IllegalArgumentException("Cache keys may only contain letters, digits, '_', '-' and '.', got '" + key + "'");
+        }
+        return directory.resolve(key + SUFFIX);
+    }
+
+    private static boolean isClassFile(byte[] bytes) {
+        return bytes.length >= 4 && ByteBuffer.wrap(bytes).getInt(0) == CLASS_FILE_MAGIC;
+    }
+
+    private static String readVersion() {
+        try (InputStream stream = PersistentClassCache.class.getResourceAsStream("mako.properties")) {
+            if (stream != null) {
+                var properties = new Properties();
+                properties.load(stream);
+                var version = properties.getProperty("version");
+                if (version != null && VALID_KEY.matcher(version).matches()) {
+                    return version;
+                }
+            }
+        } catch (IOException e) {
+            // fall through
+        }
+        return "unknown";
+    }
+}
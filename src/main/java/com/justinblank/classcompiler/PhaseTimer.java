@@ -0,0 +1,58 @@
+package com.justinblank.classcompiler;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures the time and allocation of a single compilation phase on the current thread.
+ */
+class PhaseTimer {
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN = threadBean();
+
+    private final long startNanos;
+    private final long startBytes;
+
+    private PhaseTimer() {
+        this.startNanos = System.nanoTime();
+        this.startBytes = allocatedBytes();
+    }
+
+    /**
+     * Start timing a phase.
+     *
+     * @param listener the listener the phase will be reported to
+     * @return a timer, or null if the listener is null, so that compiling without a listener costs nothing
+     */
+    static PhaseTimer start(CompilationListener listener) {
+        return listener == null ? null : new PhaseTimer();
+    }
+
+    void finish(CompilationListener listener, String className, String methodName, CompilationPhase phase) {
+        var nanos = System.nanoTime() - startNanos;
+        var bytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+        listener.phaseCompleted(className, methodName, phase, nanos, bytes);
+    }
+
+    private static long allocatedBytes() {
+        if (THREAD_BEAN == null) {
+            return -1;
+        }
+        return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean threadBean() {
+        try {
+            var bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                var sunBean = (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                    return sunBean;
+                }
+            }
+        }
+        catch (LinkageError | UnsupportedOperationException e) {
+            // fall through, the JVM doesn't provide com.sun.management
+        }
+        return null;
+    }
+}
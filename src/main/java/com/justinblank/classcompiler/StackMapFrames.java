@@ -0,0 +1,928 @@
+package com.justinblank.classcompiler;
+
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Type;
+
+import java.util.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * The stack map frames of a method, computed from its blocks rather than from the bytecode ASM emits.
+ *
+ * Mako knows the type of every value it pushes, so the frames can be computed without
+ * {@link org.objectweb.asm.ClassWriter#COMPUTE_FRAMES}, which loads classes to find the common superclass of two
+ * types. Where two paths merge with different reference types in a local, the local becomes unusable (TOP) instead.
+ * If such a local is read afterwards, or a method does something the analysis doesn't model, computing its frames
+ * throws {@link AnalysisException}, and the caller should let ASM compute frames instead.
+ *
+ * Blocks that cannot be reached have no frame, and must not be emitted.
+ *
+ * The same pass computes the max stack size and number of locals. Code that underflows the stack, or reaches a block
+ * with different stack heights, can never pass verification, so it throws {@link ClassCompilationException}.
+ */
+class StackMapFrames {
+
+    // The second word of a long or double, in the locals or on the stack
+    private static final Object SECOND_WORD = new Object();
+    private static final Object[] ARITHMETIC_TYPES = {INTEGER, LONG, FLOAT, DOUBLE};
+
+    private final String thisType;
+    private final Optional<Vars> vars;
+    private final boolean implicitReturn;
+    private final List<Block> blocks;
+    private final Map<Block, Integer> indexes = new IdentityHashMap<>();
+    private final State[] entryStates;
+    private final boolean[] inWorklist;
+    private final Deque<Integer> worklist = new ArrayDeque<>();
+    private final Set<Block> jumpTargets = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Block, Frame> frames = new IdentityHashMap<>();
+    private final Map<Operation, Label> newLabels = new IdentityHashMap<>();
+    private int maxStack;
+    private int maxLocals;
+
+    private StackMapFrames(String thisType, List<Block> blocks, Optional<Vars> vars, boolean implicitReturn) {
+        this.thisType = thisType;
+        this.blocks = blocks;
+        this.vars = vars;
+        this.implicitReturn = implicitReturn;
+        this.entryStates = new State[blocks.size()];
+        this.inWorklist = new boolean[blocks.size()];
+        for (int i = 0; i < blocks.size(); i++) {
+            indexes.put(blocks.get(i), i);
+        }
+    }
+
+    /**
+     * Compute the frames for a resolved method.
+     *
+     * @param thisType the internal name of the class the method belongs to
+     * @param method the method
+     * @return the frames
+     * @throws AnalysisException if the frames can't be computed without ASM
+     */
+    static StackMapFrames compute(String thisType, Method method) {
+        var frames = new StackMapFrames(thisType, method.getBlocks(), method.getMatchingVars(), false);
+        frames.analyze(initialState(thisType, method.methodName, method.modifiers, method.descriptor()));
+        return frames;
+    }
+
+    /**
+     * Compute the frames for the static initializer made of the given blocks, which is followed by a return.
+     *
+     * @param thisType the internal name of the class
+     * @param blocks the static blocks
+     * @return the frames
+     * @throws AnalysisException if the frames can't be computed without ASM
+     */
+    static StackMapFrames computeStaticInitializer(String thisType, List<Block> blocks) {
+        var frames = new StackMapFrames(thisType, blocks, Optional.empty(), true);
+        frames.analyze(initialState(thisType, "<clinit>", ACC_STATIC, "()V"));
+        return frames;
+    }
+
+    boolean isReachable(Block block) {
+        var index = indexes.get(block);
+        return index != null && entryStates[index] != null;
+    }
+
+    /**
+     * @param block a block of the method
+     * @return the frame at the start of the block, or null if the block is not a jump target, and so needs no frame
+     */
+    Frame frameAt(Block block) {
+        return frames.get(block);
+    }
+
+    int maxStack() {
+        return maxStack;
+    }
+
+    int maxLocals() {
+        return maxLocals;
+    }
+
+    /**
+     * @param op a NEW operation
+     * @return the label that must be visited immediately before the operation, or null if no frame refers to it
+     */
+    Label labelFor(Operation op) {
+        return newLabels.get(op);
+    }
+
+    private static State initialState(String thisType, String methodName, int modifiers, String descriptor) {
+        var state = new State(new ArrayList<>(), new ArrayList<>());
+        if ((modifiers & ACC_STATIC) == 0) {
+            state.locals.add("<init>".equals(methodName) ? UNINITIALIZED_THIS : thisType);
+        }
+        for (var argument : Type.getArgumentTypes(descriptor)) {
+            var type = typeOf(argument.getDescriptor());
+            state.locals.add(type);
+            if (isWide(type)) {
+                state.locals.add(SECOND_WORD);
+            }
+        }
+        return state;
+    }
+
+    private void analyze(State initialState) {
+        if (blocks.isEmpty()) {
+            return;
+        }
+        maxLocals = initialState.locals.size();
+        propagate(0, initialState);
+        while (!worklist.isEmpty()) {
+            int index = worklist.poll();
+            inWorklist[index] = false;
+            var block = blocks.get(index);
+            var state = entryStates[index].copy();
+            var fallsThrough = true;
+            for (var op : block.operations) {
+                if (!fallsThrough) {
+                    throw new AnalysisException("Unreachable operation after the end of block " + block.number);
+                }
+                try {
+                    fallsThrough = execute(op, state);
+                }
+                catch (StackUnderflowException e) {
+                    throw new ClassCompilationException("Stack underflow in block " + block.number + " at " + op);
+                }
+                // An operation's stack usage peaks either before or after it executes, never in between
+                maxStack = Math.max(maxStack, state.stack.size());
+                maxLocals = Math.max(maxLocals, state.locals.size());
+            }
+            if (fallsThrough) {
+                if (index + 1 < blocks.size()) {
+                    propagate(index + 1, state);
+                }
+                else if (!implicitReturn) {
+                    throw new AnalysisException("Execution can fall off the end of the method");
+                }
+            }
+        }
+        for (var target : jumpTargets) {
+            frames.put(target, toFrame(entryStates[indexes.get(target)]));
+        }
+    }
+
+    private void propagate(int index, State state) {
+        var existing = entryStates[index];
+        State updated;
+        if (existing == null) {
+            updated = state.copy();
+            normalizeLocals(updated.locals);
+        }
+        else {
+            if (existing.stack.size() != state.stack.size()) {
+                throw new ClassCompilationException("Inconsistent stack heights at the start of block "
+                        + blocks.get(index).number + ": " + existing.stack.size() + " and " + state.stack.size());
+            }
+            updated = merge(existing, state);
+            if (updated.equals(existing)) {
+                return;
+            }
+        }
+        entryStates[index] = updated;
+        if (!inWorklist[index]) {
+            inWorklist[index] = true;
+            worklist.add(index);
+        }
+    }
+
+    private void branch(Block target, State state) {
+        var index = indexes.get(target);
+        if (index == null) {
+            throw new AnalysisException("Jump to a block outside the method: " + target);
+        }
+        jumpTargets.add(target);
+        propagate(index, state);
+    }
+
+    /**
+     * Update the state by executing an operation.
+     *
+     * @return whether execution can continue to the next operation
+     */
+    private boolean execute(Operation op, State state) {
+        switch (op.inst) {
+            case VALUE:
+                push(state, constantType(op));
+                return true;
+            case INCREMENT:
+                expectLocal(state, ClassCompiler.incrementIndex(op, vars), INTEGER);
+                return true;
+            case READ_VAR:
+                load(state, ClassCompiler.loadOpcode(op), ClassCompiler.loadIndex(op, vars));
+                return true;
+            case SET_VAR:
+                store(state, ClassCompiler.storeOpcode(op), op.count);
+                return true;
+            case READ_FIELD:
+                popReference(state);
+                push(state, typeOf(op.spec.descriptor));
+                return true;
+            case READ_STATIC:
+                push(state, typeOf(op.spec.descriptor));
+                return true;
+            case SET_FIELD:
+                pop(state, typeOf(op.spec.descriptor));
+                popReference(state);
+                return true;
+            case PUT_STATIC:
+                pop(state, typeOf(op.spec.descriptor));
+                return true;
+            case PASSTHROUGH:
+                return executeInsn(op.count, state);
+            case JUMP:
+                return jump(op, state);
+            case TABLESWITCH:
+                pop(state, INTEGER);
+                branch(op.target, state);
+                for (var target : op.blockTargets) {
+                    branch(target, state);
+                }
+                return false;
+            case LOOKUPSWITCH:
+                pop(state, INTEGER);
+                branch(op.target, state);
+                for (var target : op.blockTargets) {
+                    branch(target, state);
+                }
+                return false;
+            case CALL:
+            case INVOKESPECIAL:
+            case INVOKESTATIC:
+            case INVOKEINTERFACE:
+                invoke(op, state);
+                return true;
+            case NEW:
+                // The operation itself stands for the uninitialized object it creates
+                push(state, op);
+                return true;
+            case NEWARRAY:
+                pop(state, INTEGER);
+                push(state, arrayType(op));
+                return true;
+            case RETURN:
+                return false;
+            default:
+                throw new AnalysisException("Unsupported operation " + op.inst);
+        }
+    }
+
+    private boolean executeInsn(int opcode, State state) {
+        switch (opcode) {
+            case NOP:
+                return true;
+            case ACONST_NULL:
+                push(state, NULL);
+                return true;
+            case ICONST_M1:
+            case ICONST_0:
+            case ICONST_1:
+            case ICONST_2:
+            case ICONST_3:
+            case ICONST_4:
+            case ICONST_5:
+                push(state, INTEGER);
+                return true;
+            case LCONST_0:
+            case LCONST_1:
+                push(state, LONG);
+                return true;
+            case FCONST_0:
+            case FCONST_1:
+            case FCONST_2:
+                push(state, FLOAT);
+                return true;
+            case DCONST_0:
+            case DCONST_1:
+                push(state, DOUBLE);
+                return true;
+            case IALOAD:
+            case BALOAD:
+            case CALOAD:
+            case SALOAD:
+                arrayLoad(state, INTEGER);
+                return true;
+            case LALOAD:
+                arrayLoad(state, LONG);
+                return true;
+            case FALOAD:
+                arrayLoad(state, FLOAT);
+                return true;
+            case DALOAD:
+                arrayLoad(state, DOUBLE);
+                return true;
+            case AALOAD: {
+                pop(state, INTEGER);
+                var array = popReference(state);
+                if (!(array instanceof String) || !((String) array).startsWith("[")) {
+                    throw new AnalysisException("Cannot determine the element type of " + array);
+                }
+                push(state, typeOf(((String) array).substring(1)));
+                return true;
+            }
+            case IASTORE:
+            case BASTORE:
+            case CASTORE:
+            case SASTORE:
+                arrayStore(state, INTEGER);
+                return true;
+            case LASTORE:
+                arrayStore(state, LONG);
+                return true;
+            case FASTORE:
+                arrayStore(state, FLOAT);
+                return true;
+            case DASTORE:
+                arrayStore(state, DOUBLE);
+                return true;
+            case AASTORE: {
+                popReference(state);
+                pop(state, INTEGER);
+                popReference(state);
+                return true;
+            }
+            case POP:
+            case POP2:
+            case DUP:
+            case DUP_X1:
+            case DUP_X2:
+            case DUP2:
+            case DUP2_X1:
+            case DUP2_X2:
+            case SWAP:
+                manipulateStack(opcode, state.stack);
+                return true;
+            case INEG:
+            case LNEG:
+            case FNEG:
+            case DNEG: {
+                var type = ARITHMETIC_TYPES[opcode - INEG];
+                pop(state, type);
+                push(state, type);
+                return true;
+            }
+            case ISHL:
+            case ISHR:
+            case IUSHR:
+                pop(state, INTEGER);
+                pop(state, INTEGER);
+                push(state, INTEGER);
+                return true;
+            case LSHL:
+            case LSHR:
+            case LUSHR:
+                pop(state, INTEGER);
+                pop(state, LONG);
+                push(state, LONG);
+                return true;
+            case IAND:
+            case IOR:
+            case IXOR:
+                binary(state, INTEGER, INTEGER);
+                return true;
+            case LAND:
+            case LOR:
+            case LXOR:
+                binary(state, LONG, LONG);
+                return true;
+            case I2L:
+                convert(state, INTEGER, LONG);
+                return true;
+            case I2F:
+                convert(state, INTEGER, FLOAT);
+                return true;
+            case I2D:
+                convert(state, INTEGER, DOUBLE);
+                return true;
+            case L2I:
+                convert(state, LONG, INTEGER);
+                return true;
+            case L2F:
+                convert(state, LONG, FLOAT);
+                return true;
+            case L2D:
+                convert(state, LONG, DOUBLE);
+                return true;
+            case F2I:
+                convert(state, FLOAT, INTEGER);
+                return true;
+            case F2L:
+                convert(state, FLOAT, LONG);
+                return true;
+            case F2D:
+                convert(state, FLOAT, DOUBLE);
+                return true;
+            case D2I:
+                convert(state, DOUBLE, INTEGER);
+                return true;
+            case D2L:
+                convert(state, DOUBLE, LONG);
+                return true;
+            case D2F:
+                convert(state, DOUBLE, FLOAT);
+                return true;
+            case I2B:
+            case I2C:
+            case I2S:
+                convert(state, INTEGER, INTEGER);
+                return true;
+            case LCMP:
+                binary(state, LONG, INTEGER);
+                return true;
+            case FCMPL:
+            case FCMPG:
+                binary(state, FLOAT, INTEGER);
+                return true;
+            case DCMPL:
+            case DCMPG:
+                binary(state, DOUBLE, INTEGER);
+                return true;
+            case IRETURN:
+            case LRETURN:
+            case FRETURN:
+            case DRETURN:
+            case ARETURN:
+            case RETURN:
+            case ATHROW:
+                return false;
+            case ARRAYLENGTH:
+                popReference(state);
+                push(state, INTEGER);
+                return true;
+            case MONITORENTER:
+            case MONITOREXIT:
+                popReference(state);
+                return true;
+            default:
+                if (opcode >= IADD && opcode <= DREM) {
+                    var type = ARITHMETIC_TYPES[(opcode - IADD) % 4];
+                    binary(state, type, type);
+                    return true;
+                }
+                throw new AnalysisException("Unsupported opcode " + opcode);
+        }
+    }
+
+    private boolean jump(Operation op, State state) {
+        switch (op.count) {
+            case GOTO:
+                branch(op.target, state);
+                return false;
+            case IFEQ:
+            case IFNE:
+            case IFLT:
+            case IFGE:
+            case IFGT:
+            case IFLE:
+                pop(state, INTEGER);
+                break;
+            case IF_ICMPEQ:
+            case IF_ICMPNE:
+            case IF_ICMPLT:
+            case IF_ICMPGE:
+            case IF_ICMPGT:
+            case IF_ICMPLE:
+                pop(state, INTEGER);
+                pop(state, INTEGER);
+                break;
+            case IF_ACMPEQ:
+            case IF_ACMPNE:
+                popReference(state);
+                popReference(state);
+                break;
+            case IFNULL:
+            case IFNONNULL:
+                popReference(state);
+                break;
+            default:
+                throw new AnalysisException("Unsupported jump " + op.count);
+        }
+        branch(op.target, state);
+        return true;
+    }
+
+    private void invoke(Operation op, State state) {
+        var descriptor = op.spec.descriptor;
+        var arguments = Type.getArgumentTypes(descriptor);
+        for (int i = arguments.length - 1; i >= 0; i--) {
+            pop(state, typeOf(arguments[i].getDescriptor()));
+        }
+        if (op.inst != Operation.Inst.INVOKESTATIC) {
+            var receiver = popReference(state);
+            if (op.inst == Operation.Inst.INVOKESPECIAL && "<init>".equals(op.spec.name)) {
+                if (receiver instanceof Operation) {
+                    initialize(state, receiver, ((Operation) receiver).spec.descriptor);
+                }
+                else if (UNINITIALIZED_THIS.equals(receiver)) {
+                    initialize(state, receiver, thisType);
+                }
+            }
+            else if (isUninitialized(receiver)) {
+                throw new AnalysisException("Method called on an uninitialized object: " + op.spec);
+            }
+        }
+        var returnType = Type.getReturnType(descriptor);
+        if (returnType.getSort() != Type.VOID) {
+            push(state, typeOf(returnType.getDescriptor()));
+        }
+    }
+
+    private static void initialize(State state, Object uninitialized, String type) {
+        state.locals.replaceAll(value -> uninitialized.equals(value) ? type : value);
+        state.stack.replaceAll(value -> uninitialized.equals(value) ? type : value);
+    }
+
+    private static void load(State state, int opcode, int slot) {
+        var type = opcode == ALOAD ? null : opcodeType(opcode - ILOAD);
+        var value = expectLocal(state, slot, type);
+        push(state, value);
+    }
+
+    private static void store(State state, int opcode, int slot) {
+        var value = opcode == ASTORE ? popReference(state) : pop(state, opcodeType(opcode - ISTORE));
+        setLocal(state.locals, slot, value);
+    }
+
+    // The load and store instructions for each type are ordered the same way: int, long, float, double, reference
+    private static Object opcodeType(int offset) {
+        return ARITHMETIC_TYPES[offset];
+    }
+
+    /**
+     * Read a local, checking its type.
+     *
+     * @param type the expected type, or null if any reference is allowed
+     */
+    private static Object expectLocal(State state, int slot, Object type) {
+        if (slot < 0 || slot >= state.locals.size()) {
+            throw new AnalysisException("Read of unassigned local " + slot);
+        }
+        var value = state.locals.get(slot);
+        if (type == null ? !isReference(value) : !type.equals(value)) {
+            throw new AnalysisException("Local " + slot + " has type " + value + ", expected " + (type == null ? "a reference" : type));
+        }
+        return value;
+    }
+
+    private static void setLocal(List<Object> locals, int slot, Object value) {
+        var size = isWide(value) ? 2 : 1;
+        while (locals.size() < slot + size) {
+            locals.add(TOP);
+        }
+        // Overwriting either half of a long or double invalidates the whole value
+        if (slot > 0 && isWide(locals.get(slot - 1))) {
+            locals.set(slot - 1, TOP);
+        }
+        var last = slot + size - 1;
+        if (isWide(locals.get(last))) {
+            locals.set(last + 1, TOP);
+        }
+        locals.set(slot, value);
+        if (size == 2) {
+            locals.set(slot + 1, SECOND_WORD);
+        }
+    }
+
+    private static void arrayLoad(State state, Object elementType) {
+        pop(state, INTEGER);
+        popReference(state);
+        push(state, elementType);
+    }
+
+    private static void arrayStore(State state, Object elementType) {
+        pop(state, elementType);
+        pop(state, INTEGER);
+        popReference(state);
+    }
+
+    private static void binary(State state, Object operandType, Object resultType) {
+        pop(state, operandType);
+        pop(state, operandType);
+        push(state, resultType);
+    }
+
+    private static void convert(State state, Object from, Object to) {
+        pop(state, from);
+        push(state, to);
+    }
+
+    private static void manipulateStack(int opcode, List<Object> stack) {
+        var size = stack.size();
+        switch (opcode) {
+            case POP:
+                checkWords(stack, 1);
+                stack.remove(size - 1);
+                return;
+            case POP2:
+                checkWords(stack, 2);
+                stack.subList(size - 2, size).clear();
+                return;
+            case DUP:
+                checkWords(stack, 1);
+                stack.add(stack.get(size - 1));
+                return;
+            case DUP_X1:
+                checkWords(stack, 1, 2);
+                stack.add(size - 2, stack.get(size - 1));
+                return;
+            case DUP_X2:
+                checkWords(stack, 1, 3);
+                stack.add(size - 3, stack.get(size - 1));
+                return;
+            case DUP2:
+                checkWords(stack, 2);
+                stack.addAll(new ArrayList<>(stack.subList(size - 2, size)));
+                return;
+            case DUP2_X1:
+                checkWords(stack, 2, 3);
+                stack.addAll(size - 3, new ArrayList<>(stack.subList(size - 2, size)));
+                return;
+            case DUP2_X2:
+                checkWords(stack, 2, 4);
+                stack.addAll(size - 4, new ArrayList<>(stack.subList(size - 2, size)));
+                return;
+            case SWAP:
+                checkWords(stack, 1, 2);
+                Collections.swap(stack, size - 1, size - 2);
+                return;
+            default:
+                throw new AnalysisException("Unsupported opcode " + opcode);
+        }
+    }
+
+    /**
+     * Check that the stack has enough words, and that no long or double would be split at the given depths.
+     */
+    private static void checkWords(List<Object> stack, int... depths) {
+        for (var depth : depths) {
+            if (stack.size() < depth) {
+                throw new StackUnderflowException();
+            }
+            if (stack.get(stack.size() - depth) == SECOND_WORD) {
+                throw new AnalysisException("Stack manipulation splits a long or double");
+            }
+        }
+    }
+
+    private static void push(State state, Object type) {
+        state.stack.add(type);
+        if (isWide(type)) {
+            state.stack.add(SECOND_WORD);
+        }
+    }
+
+    /**
+     * Pop a value of the given type, where any reference type matches any other.
+     */
+    private static Object pop(State state, Object type) {
+        if (isReference(type)) {
+            return popReference(state);
+        }
+        var value = pop(state);
+        if (!type.equals(value)) {
+            throw new AnalysisException("Expected " + type + " on the stack, found " + value);
+        }
+        return value;
+    }
+
+    private static Object popReference(State state) {
+        var value = pop(state);
+        if (!isReference(value)) {
+            throw new AnalysisException("Expected a reference on the stack, found " + value);
+        }
+        return value;
+    }
+
+    private static Object pop(State state) {
+        var stack = state.stack;
+        if (stack.isEmpty()) {
+            throw new StackUnderflowException();
+        }
+        var value = stack.remove(stack.size() - 1);
+        if (value == SECOND_WORD) {
+            if (stack.isEmpty() || !isWide(stack.get(stack.size() - 1))) {
+                throw new StackUnderflowException();
+            }
+            value = stack.remove(stack.size() - 1);
+        }
+        return value;
+    }
+
+    private static Object constantType(Operation op) {
+        if (op.constant == null) {
+            return INTEGER;
+        }
+        else if (op.constant instanceof Float) {
+            return FLOAT;
+        }
+        else if (op.constant instanceof Long) {
+            return LONG;
+        }
+        else if (op.constant instanceof Double) {
+            return DOUBLE;
+        }
+        else if (op.constant instanceof String) {
+            return "java/lang/String";
+        }
+        throw new AnalysisException("Unsupported constant " + op.constant);
+    }
+
+    private static String arrayType(Operation op) {
+        if (op.spec == null) {
+            switch (op.count) {
+                case T_BOOLEAN:
+                    return "[Z";
+                case T_CHAR:
+                    return "[C";
+                case T_FLOAT:
+                    return "[F";
+                case T_DOUBLE:
+                    return "[D";
+                case T_BYTE:
+                    return "[B";
+                case T_SHORT:
+                    return "[S";
+                case T_INT:
+                    return "[I";
+                case T_LONG:
+                    return "[J";
+                default:
+                    throw new AnalysisException("Unsupported array type " + op.count);
+            }
+        }
+        var elementType = op.spec.descriptor;
+        return elementType.startsWith("[") ? "[" + elementType : "[L" + elementType + ";";
+    }
+
+    private static Object typeOf(String descriptor) {
+        if (descriptor == null || descriptor.isEmpty()) {
+            throw new AnalysisException("Missing descriptor");
+        }
+        switch (descriptor.charAt(0)) {
+            case 'Z':
+            case 'B':
+            case 'C':
+            case 'S':
+            case 'I':
+                return INTEGER;
+            case 'F':
+                return FLOAT;
+            case 'J':
+                return LONG;
+            case 'D':
+                return DOUBLE;
+            case 'L':
+                return descriptor.substring(1, descriptor.length() - 1);
+            case '[':
+                return descriptor;
+            default:
+                throw new AnalysisException("Unsupported descriptor " + descriptor);
+        }
+    }
+
+    private static boolean isWide(Object type) {
+        return LONG.equals(type) || DOUBLE.equals(type);
+    }
+
+    private static boolean isReference(Object type) {
+        return type instanceof String || NULL.equals(type) || isUninitialized(type);
+    }
+
+    private static boolean isUninitialized(Object type) {
+        return type instanceof Operation || UNINITIALIZED_THIS.equals(type);
+    }
+
+    private static State merge(State existing, State incoming) {
+        var stack = new ArrayList<>(existing.stack.size());
+        for (int i = 0; i < existing.stack.size(); i++) {
+            var merged = mergeValues(existing.stack.get(i), incoming.stack.get(i));
+            if (merged == null) {
+                throw new AnalysisException("Incompatible stack values where control flow merges: "
+                        + existing.stack.get(i) + ", " + incoming.stack.get(i));
+            }
+            stack.add(merged);
+        }
+        var size = Math.max(existing.locals.size(), incoming.locals.size());
+        var locals = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            var left = i < existing.locals.size() ? existing.locals.get(i) : TOP;
+            var right = i < incoming.locals.size() ? incoming.locals.get(i) : TOP;
+            var merged = mergeValues(left, right);
+            locals.add(merged == null ? TOP : merged);
+        }
+        normalizeLocals(locals);
+        return new State(locals, stack);
+    }
+
+    /**
+     * @return the merged type, or null if the types have no merged type short of a common superclass
+     */
+    private static Object mergeValues(Object left, Object right) {
+        if (Objects.equals(left, right)) {
+            return left;
+        }
+        if (NULL.equals(left) && right instanceof String) {
+            return right;
+        }
+        if (NULL.equals(right) && left instanceof String) {
+            return left;
+        }
+        return null;
+    }
+
+    private static void normalizeLocals(List<Object> locals) {
+        for (int i = 0; i < locals.size(); i++) {
+            var value = locals.get(i);
+            if (value == SECOND_WORD && (i == 0 || !isWide(locals.get(i - 1)))) {
+                locals.set(i, TOP);
+            }
+            else if (isWide(value) && (i + 1 == locals.size() || locals.get(i + 1) != SECOND_WORD)) {
+                locals.set(i, TOP);
+            }
+        }
+        while (!locals.isEmpty() && TOP.equals(locals.get(locals.size() - 1))) {
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private Frame toFrame(State state) {
+        return new Frame(toFrameTypes(state.locals), toFrameTypes(state.stack));
+    }
+
+    // ASM represents a long or double by a single element in a frame
+    private Object[] toFrameTypes(List<Object> values) {
+        var types = new ArrayList<>(values.size());
+        for (var value : values) {
+            if (value == SECOND_WORD) {
+                continue;
+            }
+            if (value instanceof Operation) {
+                types.add(newLabels.computeIfAbsent((Operation) value, op -> new Label()));
+            }
+            else {
+                types.add(value);
+            }
+        }
+        return types.toArray();
+    }
+
+    static class Frame {
+        final Object[] locals;
+        final Object[] stack;
+
+        private Frame(Object[] locals, Object[] stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+    }
+
+    private static class State {
+        final List<Object> locals;
+        final List<Object> stack;
+
+        private State(List<Object> locals, List<Object> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        State copy() {
+            return new State(new ArrayList<>(locals), new ArrayList<>(stack));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof State)) {
+                return false;
+            }
+            var state = (State) o;
+            return locals.equals(state.locals) && stack.equals(state.stack);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(locals, stack);
+        }
+    }
+
+    private static class StackUnderflowException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Thrown when the frames of a method can't be computed without loading classes, or the method uses an operation the
+     * analysis doesn't model.
+     */
+    static class AnalysisException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        AnalysisException(String message) {
+            super(message);
+        }
+    }
+}
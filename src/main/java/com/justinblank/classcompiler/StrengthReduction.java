@@ -0,0 +1,168 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.BinaryOperator;
+import com.justinblank.classcompiler.lang.Builtin;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Replaces multiplication, division and remainder by a constant with cheaper shifts, masks and additions, whenever
+ * the result is identical to that of the original instruction.
+ *
+ * The sequences operate on a value that is already on the stack, duplicating it where it is needed more than once,
+ * so the expression that produced it is still only evaluated once.
+ */
+class StrengthReduction {
+
+    private StrengthReduction() {}
+
+    /**
+     * Emit the operation `value operator constant`, with value already on the stack.
+     *
+     * @param block the block to emit into
+     * @param operator the operator
+     * @param type the type of value
+     * @param constant the value of the literal operand
+     * @return true if the operation was emitted, false if the caller must push the constant and emit the ordinary
+     * instruction
+     */
+    static boolean reduce(Block block, BinaryOperator operator, Builtin type, Object constant) {
+        if (type == Builtin.I && constant instanceof Integer) {
+            return reduceInt(block, operator, (Integer) constant);
+        }
+        else if (type == Builtin.L && constant instanceof Long) {
+            return reduceLong(block, operator, (Long) constant);
+        }
+        else if (type == Builtin.F && constant instanceof Float && operator == BinaryOperator.DIVIDE) {
+            float divisor = (Float) constant;
+            if (hasExactReciprocal(divisor)) {
+                block.push(1 / divisor).operate(FMUL);
+                return true;
+            }
+        }
+        else if (type == Builtin.D && constant instanceof Double && operator == BinaryOperator.DIVIDE) {
+            double divisor = (Double) constant;
+            if (hasExactReciprocal(divisor)) {
+                block.push(1 / divisor).operate(DMUL);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean reduceInt(Block block, BinaryOperator operator, int constant) {
+        switch (operator) {
+            case MULTIPLY:
+                if (constant == 1) {
+                    return true;
+                }
+                else if (constant == 0) {
+                    return false;
+                }
+                // Multiplication wraps, so these also hold for negative constants
+                if (Integer.bitCount(constant) == 1) {
+                    block.push(Integer.numberOfTrailingZeros(constant)).operate(ISHL);
+                    return true;
+                }
+                else if (Integer.bitCount(constant - 1) == 1) {
+                    // x * (2^k + 1) = (x << k) + x
+                    block.operate(DUP).push(Integer.numberOfTrailingZeros(constant - 1)).operate(ISHL).operate(IADD);
+                    return true;
+                }
+                else if (Integer.bitCount(constant + 1) == 1) {
+                    // x * (2^k - 1) = (x << k) - x
+                    block.operate(DUP).push(Integer.numberOfTrailingZeros(constant + 1)).operate(ISHL)
+                            .operate(ISUB).operate(INEG);
+                    return true;
+                }
+                return false;
+            case DIVIDE:
+                if (constant > 1 && Integer.bitCount(constant) == 1) {
+                    // Signed division rounds towards zero, so negative dividends are biased by 2^k - 1 before shifting
+                    var shift = Integer.numberOfTrailingZeros(constant);
+                    pushIntBias(block.operate(DUP), shift);
+                    block.operate(IADD).push(shift).operate(ISHR);
+                    return true;
+                }
+                return false;
+            case MOD:
+                if (constant > 1 && Integer.bitCount(constant) == 1) {
+                    // x % 2^k = x - ((x + bias) & -2^k), which keeps the sign of x
+                    var shift = Integer.numberOfTrailingZeros(constant);
+                    pushIntBias(block.operate(DUP).operate(DUP), shift);
+                    block.operate(IADD).push(-constant).operate(IAND).operate(ISUB);
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean reduceLong(Block block, BinaryOperator operator, long constant) {
+        switch (operator) {
+            case MULTIPLY:
+                if (constant == 1) {
+                    return true;
+                }
+                else if (constant == 0) {
+                    return false;
+                }
+                if (Long.bitCount(constant) == 1) {
+                    block.push(Long.numberOfTrailingZeros(constant)).operate(LSHL);
+                    return true;
+                }
+                else if (Long.bitCount(constant - 1) == 1) {
+                    block.operate(DUP2).push(Long.numberOfTrailingZeros(constant - 1)).operate(LSHL).operate(LADD);
+                    return true;
+                }
+                else if (Long.bitCount(constant + 1) == 1) {
+                    block.operate(DUP2).push(Long.numberOfTrailingZeros(constant + 1)).operate(LSHL)
+                            .operate(LSUB).operate(LNEG);
+                    return true;
+                }
+                return false;
+            case DIVIDE:
+                if (constant > 1 && Long.bitCount(constant) == 1) {
+                    var shift = Long.numberOfTrailingZeros(constant);
+                    pushLongBias(block.operate(DUP2), shift);
+                    block.operate(LADD).push(shift).operate(LSHR);
+                    return true;
+                }
+                return false;
+            case MOD:
+                if (constant > 1 && Long.bitCount(constant) == 1) {
+                    var shift = Long.numberOfTrailingZeros(constant);
+                    pushLongBias(block.operate(DUP2).operate(DUP2), shift);
+                    block.operate(LADD).push(-constant).operate(LAND).operate(LSUB);
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    // Replaces the value on top of the stack with 2^shift - 1 if it is negative, or 0 otherwise
+    private static void pushIntBias(Block block, int shift) {
+        block.push(31).operate(ISHR).push(32 - shift).operate(IUSHR);
+    }
+
+    private static void pushLongBias(Block block, int shift) {
+        block.push(63).operate(LSHR).push(64 - shift).operate(LUSHR);
+    }
+
+    // Dividing by a power of two and multiplying by its reciprocal round the same exact quotient, so they only differ
+    // when the reciprocal itself isn't representable
+    private static boolean hasExactReciprocal(float f) {
+        var bits = Float.floatToRawIntBits(f);
+        var exponent = Math.getExponent(f);
+        return (bits & 0x7fffff) == 0 && exponent >= Float.MIN_EXPONENT && exponent < Float.MAX_EXPONENT;
+    }
+
+    private static boolean hasExactReciprocal(double d) {
+        var bits = Double.doubleToRawLongBits(d);
+        var exponent = Math.getExponent(d);
+        return (bits & 0xfffffffffffffL) == 0 && exponent >= Double.MIN_EXPONENT && exponent < Double.MAX_EXPONENT;
+    }
+}
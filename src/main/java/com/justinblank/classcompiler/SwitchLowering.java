@@ -0,0 +1,414 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.Switch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Chooses the instructions that dispatch a switch.
+ *
+ * A switch whose keys are dense enough uses a single TABLESWITCH, and one whose keys are scattered uses a single
+ * LOOKUPSWITCH, using the same cost model as javac. When the keys form several dense clusters separated by large
+ * gaps, each cluster gets its own TABLESWITCH, the remaining keys share LOOKUPSWITCHes, and a binary search on the
+ * value picks between them.
+ *
+ * Very large sparse switches instead look the value up in a perfect hash table stored in static arrays, which takes
+ * constant time and keeps the dispatch code in the method small. The static initializer fills those arrays one
+ * element at a time, so switches whose tables wouldn't fit in it use the jump tables instead. A balanced tree of
+ * comparisons can be requested explicitly.
+ *
+ * String switches dispatch on the hash code of the value, then compare it to the strings in the matching bucket.
+ */
+class SwitchLowering {
+
+    // A nested table costs an extra comparison to reach, so small clusters are left in a lookupswitch
+    static final int MIN_CLUSTER_KEYS = 4;
+    // Below this, a lookupswitch's binary search is about as fast as hashing, and needs no static arrays
+    static final int PERFECT_HASH_MIN_KEYS = 1024;
+
+    private SwitchLowering() {}
+
+    /**
+     * Emit the dispatch for a switch whose value is already on the stack.
+     *
+     * @param method the method, which new blocks are added to
+     * @param block the block to emit into
+     * @param targets the block for each key
+     * @param defaultBlock the block for values without a key
+     * @param strategy the strategy requested for the switch
+     */
+    static void dispatch(Method method, Block block, SortedMap<Integer, Block> targets, Block defaultBlock,
+                         Switch.Strategy strategy) {
+        var keys = new ArrayList<>(targets.keySet());
+        var isDense = preferTable(keys.get(0), keys.get(keys.size() - 1), keys.size());
+        switch (strategy) {
+            case BINARY_SEARCH:
+                binarySearch(method, block, keys, 0, keys.size(), targets, defaultBlock);
+                return;
+            case PERFECT_HASH:
+                if (perfectHash(method, block, keys, targets, defaultBlock)) {
+                    return;
+                }
+                break;
+            case AUTO:
+                if (!isDense && keys.size() >= PERFECT_HASH_MIN_KEYS && perfectHash(method, block, keys, targets, defaultBlock)) {
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        if (isDense) {
+            emit(block, new Segment(keys, true), targets, defaultBlock);
+            return;
+        }
+        var segments = segments(keys);
+        dispatch(method, block, segments, 0, segments.size(), targets, defaultBlock);
+    }
+
+    /**
+     * Emit the dispatch for a string switch whose value is already on the stack.
+     *
+     * As in javac, the hash code of the value selects a bucket, and equals picks the string within the bucket. Cases
+     * can't fall through, so a match jumps straight to its case, instead of going through a second switch on the
+     * index of the case. The value stays on the stack while it's compared, rather than being stored in a local.
+     *
+     * @param method the method, which new blocks are added to
+     * @param block the block to emit into
+     * @param targets the block for each key
+     * @param defaultBlock the block for values without a key
+     * @param strategy the strategy requested for the switch, which is used to dispatch on the hash code
+     */
+    static void dispatchStrings(Method method, Block block, SortedMap<String, Block> targets, Block defaultBlock,
+                                Switch.Strategy strategy) {
+        SortedMap<Integer, List<String>> buckets = new TreeMap<>();
+        for (var key : targets.keySet()) {
+            buckets.computeIfAbsent(key.hashCode(), k -> new ArrayList<>()).add(key);
+        }
+        var noMatch = method.addBlock().operate(POP).jump(defaultBlock, GOTO);
+        SortedMap<Integer, Block> bucketBlocks = new TreeMap<>();
+        for (var bucket : buckets.entrySet()) {
+            var compare = method.addBlock();
+            bucketBlocks.put(bucket.getKey(), compare);
+            for (var key : bucket.getValue()) {
+                var match = method.addBlock().operate(POP).jump(targets.get(key), GOTO);
+                compare.operate(DUP).push(key)
+                        .call("equals", "java/lang/String", "(Ljava/lang/Object;)Z")
+                        .jump(match, IFNE);
+                var next = method.addBlock();
+                compare.jump(next, GOTO);
+                compare = next;
+            }
+            compare.jump(noMatch, GOTO);
+        }
+        block.operate(DUP).call("hashCode", "java/lang/String", "()I");
+        dispatch(method, block, bucketBlocks, noMatch, strategy);
+    }
+
+    /**
+     * Decide whether a tableswitch is cheaper than a lookupswitch for the given keys, weighing the size of the
+     * instruction against the number of comparisons needed to find a key, as javac does.
+     *
+     * @param min the smallest key
+     * @param max the largest key
+     * @param keyCount the number of keys
+     * @return true if a tableswitch should be used
+     */
+    static boolean preferTable(int min, int max, int keyCount) {
+        long tableSpaceCost = 4 + ((long) max - min + 1);
+        long tableTimeCost = 3;
+        long lookupSpaceCost = 3 + 2 * (long) keyCount;
+        long lookupTimeCost = keyCount;
+        return keyCount > 0 && tableSpaceCost + 3 * tableTimeCost <= lookupSpaceCost + 3 * lookupTimeCost;
+    }
+
+    /**
+     * Split sorted keys into dense clusters, which get a tableswitch each, and runs of the keys between them, which
+     * share a lookupswitch.
+     */
+    static List<Segment> segments(List<Integer> keys) {
+        var segments = new ArrayList<Segment>();
+        var sparse = new ArrayList<Integer>();
+        var minSlack = minSlack(keys);
+        var i = 0;
+        while (i < keys.size()) {
+            var end = clusterEnd(keys, minSlack, i);
+            if (end - i >= MIN_CLUSTER_KEYS) {
+                if (!sparse.isEmpty()) {
+                    segments.add(new Segment(sparse, false));
+                    sparse = new ArrayList<>();
+                }
+                segments.add(new Segment(keys.subList(i, end), true));
+                i = end;
+            }
+            else {
+                sparse.add(keys.get(i++));
+            }
+        }
+        if (!sparse.isEmpty()) {
+            segments.add(new Segment(sparse, false));
+        }
+        return segments;
+    }
+
+    // Solving preferTable for the keys from start to i shows a table is preferred exactly when
+    // slack(i) <= slack(start) - 6, so this has to change along with preferTable's costs. The minimum slack of each
+    // suffix of the keys never decreases, so the last key that can end a cluster is found by binary search, rather than
+    // by scanning forward from every start, which is quadratic for evenly spaced sparse keys.
+    private static long slack(List<Integer> keys, int i) {
+        return (long) keys.get(i) - 5L * i;
+    }
+
+    private static long[] minSlack(List<Integer> keys) {
+        var minSlack = new long[keys.size()];
+        for (var i = keys.size() - 1; i >= 0; i--) {
+            minSlack[i] = i == keys.size() - 1 ? slack(keys, i) : Math.min(slack(keys, i), minSlack[i + 1]);
+        }
+        return minSlack;
+    }
+
+    // Find the end of the longest run of keys starting at start that is dense enough for a tableswitch
+    private static int clusterEnd(List<Integer> keys, long[] minSlack, int start) {
+        var limit = slack(keys, start) - 6;
+        var low = start + 1;
+        var high = keys.size() - 1;
+        var last = start;
+        while (low <= high) {
+            var middle = (low + high) >>> 1;
+            if (minSlack[middle] <= limit) {
+                last = middle;
+                low = middle + 1;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return last + 1;
+    }
+
+    private static void dispatch(Method method, Block block, List<Segment> segments, int from, int to,
+                                 SortedMap<Integer, Block> targets, Block defaultBlock) {
+        if (to - from == 1) {
+            emit(block, segments.get(from), targets, defaultBlock);
+            return;
+        }
+        var middle = (from + to) / 2;
+        var lower = method.addBlock();
+        var upper = method.addBlock();
+        block.operate(DUP).push(segments.get(middle).min()).jump(lower, IF_ICMPLT).jump(upper, GOTO);
+        dispatch(method, lower, segments, from, middle, targets, defaultBlock);
+        dispatch(method, upper, segments, middle, to, targets, defaultBlock);
+    }
+
+    private static void binarySearch(Method method, Block block, List<Integer> keys, int from, int to,
+                                     SortedMap<Integer, Block> targets, Block defaultBlock) {
+        if (to - from == 1) {
+            int key = keys.get(from);
+            block.push(key).jump(targets.get(key), IF_ICMPEQ).jump(defaultBlock, GOTO);
+            return;
+        }
+        var middle = (from + to) / 2;
+        var lower = method.addBlock();
+        var upper = method.addBlock();
+        block.operate(DUP).push(keys.get(middle)).jump(lower, IF_ICMPLT).jump(upper, GOTO);
+        binarySearch(method, lower, keys, from, middle, targets, defaultBlock);
+        binarySearch(method, upper, keys, middle, to, targets, defaultBlock);
+    }
+
+    private static boolean perfectHash(Method method, Block block, List<Integer> keys,
+                                       SortedMap<Integer, Block> targets, Block defaultBlock) {
+        var hash = PerfectHash.build(keys);
+        if (hash == null) {
+            return false;
+        }
+        // The static initializer fills the arrays one element at a time, and can't exceed the JVM's limit on code size
+        var initializerSize = MethodSize.estimateArrayConstant(hash.displacements)
+                + MethodSize.estimateArrayConstant(hash.keys);
+        if (!method.reserveStaticInitializerSpace(initializerSize)) {
+            return false;
+        }
+        var displacements = method.addArrayConstant("displacements", hash.displacements);
+        var slotKeys = method.addArrayConstant("keys", hash.keys);
+        var shift = 32 - hash.bits;
+        var miss = method.addBlock().operate(POP).jump(defaultBlock, GOTO);
+        var found = method.addBlock();
+
+        // bucket = (x * BUCKET_MULTIPLIER) >>> shift
+        block.operate(DUP).push(PerfectHash.BUCKET_MULTIPLIER).operate(IMUL).push(shift).operate(IUSHR);
+        // slot = ((x ^ displacements[bucket]) * SLOT_MULTIPLIER) >>> shift
+        block.readStatic(displacements, "[I").operate(SWAP).operate(IALOAD);
+        block.operate(SWAP).operate(DUP_X1).operate(IXOR);
+        block.push(PerfectHash.SLOT_MULTIPLIER).operate(IMUL).push(shift).operate(IUSHR);
+        // Every other value hashes to a slot holding a different key
+        block.operate(DUP_X1).readStatic(slotKeys, "[I").operate(SWAP).operate(IALOAD);
+        block.jump(miss, IF_ICMPNE).jump(found, GOTO);
+
+        var blocks = new ArrayList<Block>();
+        for (var slot = 0; slot < hash.keys.length; slot++) {
+            blocks.add(hash.isOccupied(slot) ? targets.get(hash.keys[slot]) : defaultBlock);
+        }
+        found.addOperation(Operation.mkTableSwitch(blocks, defaultBlock, 0, hash.keys.length - 1));
+        return true;
+    }
+
+    private static void emit(Block block, Segment segment, SortedMap<Integer, Block> targets, Block defaultBlock) {
+        var blocks = new ArrayList<Block>();
+        if (segment.isTable) {
+            int min = segment.min();
+            int max = segment.max();
+            for (long key = min; key <= max; key++) {
+                blocks.add(targets.getOrDefault((int) key, defaultBlock));
+            }
+            block.addOperation(Operation.mkTableSwitch(blocks, defaultBlock, min, max));
+        }
+        else {
+            for (var key : segment.keys) {
+                blocks.add(targets.get(key));
+            }
+            block.addOperation(Operation.mkLookupSwitch(segment.keys, blocks, defaultBlock));
+        }
+    }
+
+    static class Segment {
+        final List<Integer> keys;
+        final boolean isTable;
+
+        Segment(List<Integer> keys, boolean isTable) {
+            this.keys = keys;
+            this.isTable = isTable;
+        }
+
+        int min() {
+            return keys.get(0);
+        }
+
+        int max() {
+            return keys.get(keys.size() - 1);
+        }
+    }
+
+    /**
+     * A two level hash table without collisions: each key's bucket holds a displacement, chosen so that hashing the key
+     * with it gives a slot no other key uses.
+     */
+    static class PerfectHash {
+
+        static final int BUCKET_MULTIPLIER = 0x9E3779B9;
+        static final int SLOT_MULTIPLIER = 0x85EBCA6B;
+        private static final int MAX_DISPLACEMENT_ATTEMPTS = 1 << 16;
+
+        final int bits;
+        final int[] displacements;
+        // The key in each slot, or a value that hashes to another slot, if the slot is empty
+        final int[] keys;
+        private final boolean[] occupied;
+
+        private PerfectHash(int bits) {
+            this.bits = bits;
+            this.displacements = new int[1 << bits];
+            this.keys = new int[1 << bits];
+            this.occupied = new boolean[1 << bits];
+        }
+
+        /**
+         * Find a perfect hash for the keys.
+         *
+         * @param keys the keys, without duplicates
+         * @return the hash, or null if none was found, or if its tables would be too large
+         */
+        static PerfectHash build(List<Integer> keys) {
+            var bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(keys.size() - 1));
+            // A table with no free slots can be hard to fill, so fall back to one twice as large
+            for (var attempt = 0; attempt < 2 && 1 << bits <= Block.MAX_ARRAY_LITERAL_LENGTH; attempt++, bits++) {
+                var hash = build(keys, bits);
+                if (hash != null) {
+                    return hash;
+                }
+            }
+            return null;
+        }
+
+        private static PerfectHash build(List<Integer> keys, int bits) {
+            var hash = new PerfectHash(bits);
+            List<List<Integer>> buckets = new ArrayList<>();
+            for (var i = 0; i < hash.displacements.length; i++) {
+                buckets.add(new ArrayList<>());
+            }
+            for (var key : keys) {
+                buckets.get(hash.bucket(key)).add(key);
+            }
+            // Placing the largest buckets first, while most slots are free, makes a displacement easy to find
+            var order = new ArrayList<Integer>();
+            for (var i = 0; i < buckets.size(); i++) {
+                order.add(i);
+            }
+            order.sort((a, b) -> Integer.compare(buckets.get(b).size(), buckets.get(a).size()));
+            for (var bucket : order) {
+                if (!buckets.get(bucket).isEmpty() && !hash.place(bucket, buckets.get(bucket))) {
+                    return null;
+                }
+            }
+            for (var slot = 0; slot < hash.keys.length; slot++) {
+                if (!hash.occupied[slot]) {
+                    var filler = 0;
+                    while (hash.slot(filler) == slot) {
+                        filler++;
+                    }
+                    hash.keys[slot] = filler;
+                }
+            }
+            return hash;
+        }
+
+        private boolean place(int bucket, List<Integer> bucketKeys) {
+            var slots = new int[bucketKeys.size()];
+            for (var displacement = 0; displacement < MAX_DISPLACEMENT_ATTEMPTS; displacement++) {
+                if (fits(bucketKeys, displacement, slots)) {
+                    displacements[bucket] = displacement;
+                    for (var i = 0; i < slots.length; i++) {
+                        occupied[slots[i]] = true;
+                        keys[slots[i]] = bucketKeys.get(i);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean fits(List<Integer> bucketKeys, int displacement, int[] slots) {
+            for (var i = 0; i < slots.length; i++) {
+                slots[i] = slot(bucketKeys.get(i), displacement);
+                if (occupied[slots[i]]) {
+                    return false;
+                }
+                for (var j = 0; j < i; j++) {
+                    if (slots[j] == slots[i]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        int bucket(int key) {
+            return (key * BUCKET_MULTIPLIER) >>> (32 - bits);
+        }
+
+        int slot(int key) {
+            return slot(key, displacements[bucket(key)]);
+        }
+
+        private int slot(int key, int displacement) {
+            return ((key ^ displacement) * SLOT_MULTIPLIER) >>> (32 - bits);
+        }
+
+        boolean isOccupied(int slot) {
+            return occupied[slot];
+        }
+    }
+}
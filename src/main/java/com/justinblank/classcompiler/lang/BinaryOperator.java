@@ -274,14 +274,21 @@ public enum BinaryOperator {
                 return IDIV;
 
             case EQUALS:
-                if (left.type() instanceof ReferenceType) {
+                if (left.type() instanceof ReferenceType || left.type() instanceof ArrayType) {
                     return IF_ACMPEQ;
                 }
+                else if (left.type() instanceof Builtin && !isIntegerLike(left)) {
+                    // Compared by comparisonOperation first
+                    return IFEQ;
+                }
                 return IF_ICMPEQ;
             case NOT_EQUALS:
-                if (left.type() instanceof ReferenceType) {
+                if (left.type() instanceof ReferenceType || left.type() instanceof ArrayType) {
                     return IF_ACMPNE;
                 }
+                else if (left.type() instanceof Builtin && !isIntegerLike(left)) {
+                    return IFNE;
+                }
                 return IF_ICMPNE;
             // these are really ugly, and just a result of hacking until I got the results that did the java compiler
             // does
@@ -350,24 +357,44 @@ public enum BinaryOperator {
 
     // TODO: existing test cases don't adequately cover the cases where this is a char, but I am weary
     private static boolean isIntegerLike(Type left) {
-        return left.type() == Builtin.I || left.type() == Builtin.C;
+        var type = left.type();
+        return type == Builtin.I || type == Builtin.C || type == Builtin.S || type == Builtin.OCTET || type == Builtin.BOOL;
     }
 
+    /**
+     * Get the instruction that compares longs, floats or doubles before the jump from {@link #asmOP(Type, Type)}.
+     *
+     * @return the comparison instruction, or empty if the jump compares the operands directly
+     */
     public Optional<Integer> comparisonOperation(Type left, Type right) {
         switch (this) {
             case LESS_THAN:
             case LESS_THAN_OR_EQUALS:
+                if (isIntegerLike(left)) {
+                    return Optional.empty();
+                }
                 if (left.type() instanceof Builtin) {
                     var builtin = (Builtin) left.type();
                     return Optional.of(builtin.comparisonLesser());
                 }
+                throw new IllegalStateException("Cannot order values of type " + left.type());
             case GREATER_THAN:
             case GREATER_THAN_OR_EQUALS:
+                if (isIntegerLike(left)) {
+                    return Optional.empty();
+                }
                 if (left.type() instanceof Builtin) {
                     var builtin = (Builtin) left.type();
                     return Optional.of(builtin.comparisonGreater());
                 }
-                throw new IllegalStateException("");
+                throw new IllegalStateException("Cannot order values of type " + left.type());
+            case EQUALS:
+            case NOT_EQUALS:
+                if (left.type() instanceof Builtin && !isIntegerLike(left)) {
+                    // NaN compares as unequal to everything with either instruction
+                    return Optional.of(((Builtin) left.type()).comparisonGreater());
+                }
+                return Optional.empty();
             default:
                 return Optional.empty();
         }
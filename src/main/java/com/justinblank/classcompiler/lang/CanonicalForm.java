@@ -0,0 +1,234 @@
+package com.justinblank.classcompiler.lang;
+
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Produces a string that identifies the structure of a {@link CodeElement}: two elements with the same canonical form
+ * compile to the same code.
+ */
+public class CanonicalForm {
+
+    private CanonicalForm() {}
+
+    public static String of(CodeElement element) {
+        var sb = new StringBuilder();
+        append(sb, element);
+        return sb.toString();
+    }
+
+    public static void append(StringBuilder sb, List<? extends CodeElement> elements) {
+        if (elements == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('[');
+        for (var element : elements) {
+            append(sb, element);
+        }
+        sb.append(']');
+    }
+
+    public static void append(StringBuilder sb, CodeElement element) {
+        if (element == null) {
+            sb.append("null");
+        }
+        else if (element instanceof Literal) {
+            var value = ((Literal) element).value;
+            sb.append("(lit ").append(value.getClass().getSimpleName()).append(' ');
+            appendString(sb, String.valueOf(value));
+            sb.append(')');
+        }
+        else if (element instanceof VariableRead) {
+            sb.append("(read ");
+            appendString(sb, ((VariableRead) element).variable);
+            sb.append(')');
+        }
+        else if (element instanceof ThisRef) {
+            sb.append("(this)");
+        }
+        else if (element instanceof Binary) {
+            var binary = (Binary) element;
+            sb.append("(").append(binary.operator.name()).append(' ');
+            append(sb, binary.left);
+            append(sb, binary.right);
+            sb.append(')');
+        }
+        else if (element instanceof Unary) {
+            var unary = (Unary) element;
+            sb.append("(").append(unary.operator.name()).append(' ');
+            append(sb, unary.expression);
+            sb.append(')');
+        }
+        else if (element instanceof Cast) {
+            var cast = (Cast) element;
+            sb.append("(cast ");
+            appendType(sb, cast.outputType);
+            append(sb, cast.expression);
+            sb.append(')');
+        }
+        else if (element instanceof Call) {
+            var call = (Call) element;
+            sb.append("(call ");
+            appendString(sb, call.methodName);
+            appendString(sb, call.className);
+            appendType(sb, call.returnType);
+            sb.append(call.isStatic ? 's' : '-').append(call.isSpecial ? 'p' : '-').append(call.isInterface ? 'i' : '-');
+            append(sb, List.of(call.arguments));
+            sb.append(')');
+        }
+        else if (element instanceof Constructor) {
+            var constructor = (Constructor) element;
+            sb.append("(new ");
+            appendType(sb, constructor.returnType);
+            append(sb, List.of(constructor.arguments));
+            sb.append(')');
+        }
+        else if (element instanceof NewArray) {
+            var newArray = (NewArray) element;
+            sb.append("(newarray ");
+            appendType(sb, newArray.type);
+            append(sb, newArray.size);
+            sb.append(')');
+        }
+        else if (element instanceof ArrayRead) {
+            var arrayRead = (ArrayRead) element;
+            sb.append("(aread ");
+            append(sb, arrayRead.arrayRef);
+            append(sb, arrayRead.index);
+            sb.append(')');
+        }
+        else if (element instanceof ArrayLength) {
+            sb.append("(alength ");
+            append(sb, ((ArrayLength) element).expression);
+            sb.append(')');
+        }
+        else if (element instanceof FieldReference) {
+            var fieldReference = (FieldReference) element;
+            sb.append("(field ");
+            appendString(sb, fieldReference.fieldName);
+            appendType(sb, fieldReference.type);
+            append(sb, fieldReference.expression);
+            sb.append(')');
+        }
+        else if (element instanceof StaticFieldReference) {
+            var fieldReference = (StaticFieldReference) element;
+            sb.append("(static ");
+            appendString(sb, fieldReference.fieldName);
+            appendType(sb, fieldReference.receiver);
+            appendType(sb, fieldReference.type);
+            sb.append(')');
+        }
+        else if (element instanceof Assignment) {
+            var assignment = (Assignment) element;
+            sb.append("(set ");
+            appendString(sb, assignment.variable);
+            append(sb, assignment.expression);
+            sb.append(')');
+        }
+        else if (element instanceof ArraySet) {
+            var arraySet = (ArraySet) element;
+            sb.append("(aset ");
+            append(sb, arraySet.arrayRef);
+            append(sb, arraySet.index);
+            append(sb, arraySet.value);
+            sb.append(')');
+        }
+        else if (element instanceof FieldSet) {
+            var fieldSet = (FieldSet) element;
+            sb.append("(setfield ");
+            append(sb, fieldSet.fieldReference);
+            append(sb, fieldSet.expression);
+            sb.append(')');
+        }
+        else if (element instanceof StaticFieldSet) {
+            var fieldSet = (StaticFieldSet) element;
+            sb.append("(setstatic ");
+            append(sb, fieldSet.fieldReference);
+            append(sb, fieldSet.expression);
+            sb.append(')');
+        }
+        else if (element instanceof ReturnExpression) {
+            sb.append("(return ");
+            append(sb, ((ReturnExpression) element).expression);
+            sb.append(')');
+        }
+        else if (element instanceof TypedReturn) {
+            var typedReturn = (TypedReturn) element;
+            sb.append("(typedreturn ");
+            appendType(sb, typedReturn.type);
+            append(sb, typedReturn.expression);
+            sb.append(')');
+        }
+        else if (element instanceof ReturnVoid) {
+            sb.append("(returnvoid)");
+        }
+        else if (element instanceof Skip) {
+            sb.append("(skip)");
+        }
+        else if (element instanceof Escape) {
+            sb.append("(escape)");
+        }
+        else if (element instanceof NoOpStatement) {
+            sb.append("(noop)");
+        }
+        else if (element instanceof Loop) {
+            var loop = (Loop) element;
+            sb.append("(loop ");
+            append(sb, loop.condition);
+            append(sb, loop.body);
+            sb.append(')');
+        }
+        else if (element instanceof Conditional) {
+            var conditional = (Conditional) element;
+            sb.append("(cond ");
+            append(sb, conditional.condition);
+            append(sb, conditional.body);
+            append(sb, conditional.alternates);
+            sb.append(')');
+        }
+        else if (element instanceof Switch) {
+            var switchStatement = (Switch) element;
+            sb.append("(switch ");
+            appendString(sb, switchStatement.strategy.name());
+            append(sb, switchStatement.expression);
+            var cases = new TreeMap<String, List<CodeElement>>();
+            for (var entry : switchStatement.cases.entrySet()) {
+                var key = entry.getKey();
+                cases.put(key.getClass().getSimpleName() + " " + key, entry.getValue());
+            }
+            for (var entry : cases.entrySet()) {
+                appendString(sb, entry.getKey());
+                append(sb, entry.getValue());
+            }
+            sb.append("default");
+            append(sb, switchStatement.defaultCase);
+            sb.append(')');
+        }
+        else {
+            throw new IllegalArgumentException("Unrecognized element: " + element.getClass());
+        }
+    }
+
+    private static void appendType(StringBuilder sb, Type type) {
+        if (type instanceof TypeVariable) {
+            type = ((TypeVariable) type).type();
+        }
+        if (type == null) {
+            sb.append("?;");
+            return;
+        }
+        sb.append(type.getClass().getSimpleName()).append(':');
+        appendString(sb, type.typeString());
+    }
+
+    // Length prefixing keeps user supplied strings from being confused with the surrounding structure
+    private static void appendString(StringBuilder sb, String s) {
+        if (s == null) {
+            sb.append("-1;");
+        }
+        else {
+            sb.append(s.length()).append(':').append(s).append(';');
+        }
+    }
+}
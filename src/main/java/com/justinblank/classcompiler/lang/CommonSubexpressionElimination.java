@@ -0,0 +1,767 @@
+package com.justinblank.classcompiler.lang;
+
+import com.justinblank.classcompiler.Method;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+import static com.justinblank.classcompiler.lang.CodeElement.read;
+import static com.justinblank.classcompiler.lang.CodeElement.set;
+
+/**
+ * Computes expressions that are evaluated more than once with the same value only once, storing the value in a
+ * variable that later evaluations read instead.
+ *
+ * Values are numbered by their canonical form. A value is available from the point where it's computed until
+ * something may change it: an assignment to a variable it reads, a write to a field it reads, a write to an array of
+ * the type it reads from, or any call or constructor, which may write to any field or array. Values computed before a
+ * conditional, switch or loop remain available inside it, but values computed inside one aren't available after it,
+ * and loops first discard every value that anything in the loop may change.
+ *
+ * Only expressions without side effects are considered: arithmetic, casts, array reads and lengths, and reads of
+ * fields of the class that aren't volatile. The first evaluation of a value is moved into an assignment just before
+ * the statement containing it, so a value that can throw is only computed once if nothing before it in the statement
+ * could throw or have side effects, and a field or array read only if nothing before it could have side effects. When
+ * the first evaluation is already the whole value of an assignment, later evaluations read the assigned variable.
+ *
+ * This must run after type inference.
+ */
+public class CommonSubexpressionElimination {
+
+    // Array writes are identified by the type of the array's elements. Arrays of references may alias each other
+    private static final String REFERENCE_ARRAY = "L";
+    private static final String UNKNOWN_ARRAY = "?";
+
+    private final Method method;
+    private final Predicate<Expression> isStableField;
+    private final Function<Type, String> newVariable;
+    // Elements that appear more than once in the method, which can't be told apart by identity
+    private final Set<CodeElement> shared = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final List<Value> values = new ArrayList<>();
+    // The value first computed by each expression, and the value that each expression evaluates again
+    private final Map<Expression, Value> computed = new IdentityHashMap<>();
+    private final Map<Expression, Value> reused = new IdentityHashMap<>();
+
+    /**
+     * @param method the method being optimized
+     * @param isStableField whether an expression reads a field that only changes when the method writes it
+     * @param newVariable creates a variable of the given type, returning its name, or null if it can't
+     */
+    public CommonSubexpressionElimination(Method method, Predicate<Expression> isStableField,
+                                          Function<Type, String> newVariable) {
+        this.method = method;
+        this.isStableField = isStableField;
+        this.newVariable = newVariable;
+    }
+
+    public List<CodeElement> eliminate(List<CodeElement> elements) {
+        if (elements == null) {
+            return null;
+        }
+        findShared(elements, Collections.newSetFromMap(new IdentityHashMap<>()));
+        analyzeAll(elements, new LinkedHashMap<>(), new Effects());
+        var changed = false;
+        for (var value : values) {
+            if (value.reuses > 0 && value.variable == null) {
+                value.variable = newVariable.apply(value.type);
+                value.temporary = true;
+            }
+            changed |= value.reuses > 0 && value.variable != null;
+        }
+        return changed ? rewriteAll(elements) : elements;
+    }
+
+    /**
+     * A value computed by an expression, and everything it reads.
+     */
+    private static class Value {
+        final Expression expression;
+        final Type type;
+        final Effects reads;
+        String variable;
+        // Whether the value needs a new variable, rather than reusing the variable it's assigned to
+        boolean temporary;
+        int reuses;
+
+        Value(Expression expression, Type type, Effects reads) {
+            this.expression = expression;
+            this.type = type;
+            this.reads = reads;
+        }
+    }
+
+    /**
+     * The variables, fields and arrays that some code reads or writes.
+     */
+    private static class Effects {
+        final Set<String> variables = new HashSet<>();
+        final Set<String> fields = new HashSet<>();
+        final Set<String> staticFields = new HashSet<>();
+        final Set<String> arrays = new HashSet<>();
+        boolean calls;
+
+        void addAll(Effects other) {
+            variables.addAll(other.variables);
+            fields.addAll(other.fields);
+            staticFields.addAll(other.staticFields);
+            arrays.addAll(other.arrays);
+            calls |= other.calls;
+        }
+
+        /**
+         * @return true if writing what this describes may change what the given reads see
+         */
+        boolean changes(Effects reads) {
+            if (!Collections.disjoint(variables, reads.variables)) {
+                return true;
+            }
+            var readsHeap = !reads.fields.isEmpty() || !reads.staticFields.isEmpty() || !reads.arrays.isEmpty();
+            if (calls && readsHeap) {
+                return true;
+            }
+            if (!Collections.disjoint(fields, reads.fields) || !Collections.disjoint(staticFields, reads.staticFields)) {
+                return true;
+            }
+            if ((arrays.contains(UNKNOWN_ARRAY) && !reads.arrays.isEmpty())
+                    || (reads.arrays.contains(UNKNOWN_ARRAY) && !arrays.isEmpty())) {
+                return true;
+            }
+            return !Collections.disjoint(arrays, reads.arrays);
+        }
+    }
+
+    /**
+     * The state of analyzing a single statement.
+     */
+    private static class Context {
+        final Map<String, Value> available;
+        final Effects effects;
+        // Whether values first computed in the statement can be moved before it
+        final boolean movable;
+        // Whether nothing evaluated so far could throw or have side effects
+        boolean first = true;
+        // Whether nothing evaluated so far could have side effects
+        boolean pure = true;
+
+        Context(Map<String, Value> available, Effects effects, boolean movable) {
+            this.available = available;
+            this.effects = effects;
+            this.movable = movable;
+        }
+    }
+
+    private void findShared(List<CodeElement> elements, Set<CodeElement> seen) {
+        if (elements == null) {
+            return;
+        }
+        for (var element : elements) {
+            findShared(element, seen);
+        }
+    }
+
+    private void findShared(CodeElement element, Set<CodeElement> seen) {
+        if (element == null) {
+            return;
+        }
+        if (!seen.add(element)) {
+            shared.add(element);
+            return;
+        }
+        if (element instanceof Expression) {
+            for (var operand : operands((Expression) element)) {
+                findShared(operand, seen);
+            }
+        }
+        else if (element instanceof Assignment) {
+            findShared(((Assignment) element).expression, seen);
+        }
+        else if (element instanceof ReturnExpression) {
+            findShared(((ReturnExpression) element).expression, seen);
+        }
+        else if (element instanceof TypedReturn) {
+            findShared(((TypedReturn) element).expression, seen);
+        }
+        else if (element instanceof FieldSet) {
+            var fieldSet = (FieldSet) element;
+            findShared(fieldSet.fieldReference.expression, seen);
+            findShared(fieldSet.expression, seen);
+        }
+        else if (element instanceof StaticFieldSet) {
+            findShared(((StaticFieldSet) element).expression, seen);
+        }
+        else if (element instanceof ArraySet) {
+            var arraySet = (ArraySet) element;
+            findShared(arraySet.arrayRef, seen);
+            findShared(arraySet.index, seen);
+            findShared(arraySet.value, seen);
+        }
+        else if (element instanceof Loop) {
+            var loop = (Loop) element;
+            findShared(loop.condition, seen);
+            findShared(loop.body, seen);
+        }
+        else if (element instanceof Conditional) {
+            var conditional = (Conditional) element;
+            findShared(conditional.condition, seen);
+            findShared(conditional.body, seen);
+            for (var alternate : conditional.alternates) {
+                findShared(alternate, seen);
+            }
+        }
+        else if (element instanceof Switch) {
+            var switchStatement = (Switch) element;
+            findShared(switchStatement.expression, seen);
+            for (var body : switchStatement.cases.values()) {
+                findShared(body, seen);
+            }
+            findShared(switchStatement.defaultCase, seen);
+        }
+    }
+
+    private void analyzeAll(List<CodeElement> elements, Map<String, Value> available, Effects effects) {
+        if (elements == null) {
+            return;
+        }
+        for (var element : elements) {
+            analyzeStatement(element, available, effects);
+        }
+    }
+
+    private void analyzeStatement(CodeElement element, Map<String, Value> available, Effects effects) {
+        var context = new Context(available, effects, !shared.contains(element));
+        if (element instanceof Expression) {
+            analyze((Expression) element, context);
+        }
+        else if (element instanceof Assignment) {
+            var assignment = (Assignment) element;
+            analyze(assignment.expression, context);
+            var writes = new Effects();
+            writes.variables.add(assignment.variable);
+            kill(available, effects, writes);
+            var value = computed.get(assignment.expression);
+            if (value != null && !value.reads.variables.contains(assignment.variable)) {
+                // The variable holds the value until it's reassigned
+                value.variable = assignment.variable;
+                value.reads.variables.add(assignment.variable);
+            }
+        }
+        else if (element instanceof ReturnExpression) {
+            analyze(((ReturnExpression) element).expression, context);
+        }
+        else if (element instanceof TypedReturn) {
+            analyze(((TypedReturn) element).expression, context);
+        }
+        else if (element instanceof FieldSet) {
+            var fieldSet = (FieldSet) element;
+            analyze(fieldSet.fieldReference.expression, context);
+            analyze(fieldSet.expression, context);
+            var writes = new Effects();
+            writes.fields.add(fieldSet.fieldReference.fieldName);
+            kill(available, effects, writes);
+        }
+        else if (element instanceof StaticFieldSet) {
+            var fieldSet = (StaticFieldSet) element;
+            analyze(fieldSet.expression, context);
+            var writes = new Effects();
+            writes.staticFields.add(fieldSet.fieldReference.fieldName);
+            kill(available, effects, writes);
+        }
+        else if (element instanceof ArraySet) {
+            var arraySet = (ArraySet) element;
+            analyze(arraySet.arrayRef, context);
+            analyze(arraySet.index, context);
+            analyze(arraySet.value, context);
+            var writes = new Effects();
+            writes.arrays.add(arrayKind(arraySet.arrayRef));
+            kill(available, effects, writes);
+        }
+        else if (element instanceof Loop) {
+            var loop = (Loop) element;
+            // The condition and body run again after anything in the loop, so nothing the loop may change is
+            // available in it
+            var writes = new Effects();
+            collectWrites(List.of(loop), writes);
+            kill(available, effects, writes);
+            var inLoop = new LinkedHashMap<>(available);
+            analyze(loop.condition, new Context(inLoop, new Effects(), false));
+            analyzeAll(loop.body, inLoop, new Effects());
+        }
+        else if (element instanceof Conditional) {
+            var conditional = (Conditional) element;
+            analyze(conditional.condition, context);
+            var writes = new Effects();
+            analyzeBranches(conditional, available, writes);
+            kill(available, effects, writes);
+        }
+        else if (element instanceof Switch) {
+            var switchStatement = (Switch) element;
+            analyze(switchStatement.expression, context);
+            var writes = new Effects();
+            for (var body : switchStatement.cases.values()) {
+                analyzeAll(body, new LinkedHashMap<>(available), writes);
+            }
+            analyzeAll(switchStatement.defaultCase, new LinkedHashMap<>(available), writes);
+            kill(available, effects, writes);
+        }
+    }
+
+    private void analyzeBranches(Conditional conditional, Map<String, Value> available, Effects writes) {
+        analyzeAll(conditional.body, new LinkedHashMap<>(available), writes);
+        // Each alternate's condition is evaluated after the conditions before it, but only when they're false, so
+        // nothing first computed there can be moved before the conditional
+        var remaining = new LinkedHashMap<>(available);
+        for (var alternate : conditional.alternates) {
+            analyze(alternate.condition, new Context(remaining, writes, false));
+            analyzeBranches(alternate, remaining, writes);
+        }
+    }
+
+    private void analyze(Expression expression, Context context) {
+        if (expression == null) {
+            return;
+        }
+        if (isCandidate(expression)) {
+            var key = CanonicalForm.of(expression);
+            var value = context.available.get(key);
+            if (value != null) {
+                reused.put(expression, value);
+                value.reuses++;
+                return;
+            }
+            var first = context.first;
+            var pure = context.pure;
+            analyzeOperands(expression, context);
+            if (context.movable && (throwsAnywhere(expression) ? first : pure || !readsHeap(expression))) {
+                var type = typeOf(expression);
+                if (type != null) {
+                    value = new Value(expression, type, reads(expression));
+                    values.add(value);
+                    computed.put(expression, value);
+                    context.available.put(key, value);
+                }
+            }
+        }
+        else {
+            analyzeOperands(expression, context);
+        }
+        // Operands are evaluated before the operation, which may throw or have side effects
+        if (LoopInvariantCodeMotion.canThrow(expression)) {
+            context.first = false;
+        }
+        if (expression instanceof Call || expression instanceof Constructor) {
+            context.pure = false;
+            var writes = new Effects();
+            writes.calls = true;
+            kill(context.available, context.effects, writes);
+        }
+    }
+
+    private void analyzeOperands(Expression expression, Context context) {
+        if (expression instanceof Binary) {
+            var binary = (Binary) expression;
+            if (binary.operator == BinaryOperator.AND || binary.operator == BinaryOperator.OR) {
+                analyze(binary.left, context);
+                // The right side may not be evaluated
+                var first = context.first;
+                context.first = false;
+                analyze(binary.right, context);
+                context.first = first && !throwsAnywhere(binary.right);
+                return;
+            }
+        }
+        for (var operand : operands(expression)) {
+            analyze(operand, context);
+        }
+    }
+
+    private static void kill(Map<String, Value> available, Effects effects, Effects writes) {
+        available.values().removeIf(value -> writes.changes(value.reads));
+        effects.addAll(writes);
+    }
+
+    private void collectWrites(List<CodeElement> elements, Effects writes) {
+        if (elements == null) {
+            return;
+        }
+        for (var element : elements) {
+            if (element instanceof Expression) {
+                collectCalls((Expression) element, writes);
+            }
+            else if (element instanceof Assignment) {
+                var assignment = (Assignment) element;
+                writes.variables.add(assignment.variable);
+                collectCalls(assignment.expression, writes);
+            }
+            else if (element instanceof ReturnExpression) {
+                collectCalls(((ReturnExpression) element).expression, writes);
+            }
+            else if (element instanceof TypedReturn) {
+                collectCalls(((TypedReturn) element).expression, writes);
+            }
+            else if (element instanceof FieldSet) {
+                var fieldSet = (FieldSet) element;
+                writes.fields.add(fieldSet.fieldReference.fieldName);
+                collectCalls(fieldSet.fieldReference.expression, writes);
+                collectCalls(fieldSet.expression, writes);
+            }
+            else if (element instanceof StaticFieldSet) {
+                var fieldSet = (StaticFieldSet) element;
+                writes.staticFields.add(fieldSet.fieldReference.fieldName);
+                collectCalls(fieldSet.expression, writes);
+            }
+            else if (element instanceof ArraySet) {
+                var arraySet = (ArraySet) element;
+                writes.arrays.add(arrayKind(arraySet.arrayRef));
+                collectCalls(arraySet.arrayRef, writes);
+                collectCalls(arraySet.index, writes);
+                collectCalls(arraySet.value, writes);
+            }
+            else if (element instanceof Loop) {
+                var loop = (Loop) element;
+                collectCalls(loop.condition, writes);
+                collectWrites(loop.body, writes);
+            }
+            else if (element instanceof Conditional) {
+                var conditional = (Conditional) element;
+                collectCalls(conditional.condition, writes);
+                collectWrites(conditional.body, writes);
+                collectWrites(new ArrayList<>(conditional.alternates), writes);
+            }
+            else if (element instanceof Switch) {
+                var switchStatement = (Switch) element;
+                collectCalls(switchStatement.expression, writes);
+                for (var body : switchStatement.cases.values()) {
+                    collectWrites(body, writes);
+                }
+                collectWrites(switchStatement.defaultCase, writes);
+            }
+        }
+    }
+
+    private static void collectCalls(Expression expression, Effects writes) {
+        if (expression == null) {
+            return;
+        }
+        if (expression instanceof Call || expression instanceof Constructor) {
+            writes.calls = true;
+        }
+        for (var operand : operands(expression)) {
+            collectCalls(operand, writes);
+        }
+    }
+
+    private List<CodeElement> rewriteAll(List<CodeElement> elements) {
+        if (elements == null) {
+            return null;
+        }
+        var rewritten = new ArrayList<CodeElement>(elements.size());
+        for (var element : elements) {
+            var before = new ArrayList<CodeElement>();
+            var statement = rewriteStatement(element, before);
+            rewritten.addAll(before);
+            rewritten.add(statement);
+        }
+        return rewritten;
+    }
+
+    /**
+     * @param before collects the assignments of values first computed in the statement, which must precede it
+     */
+    private CodeElement rewriteStatement(CodeElement element, List<CodeElement> before) {
+        if (element instanceof Expression) {
+            return rewrite((Expression) element, before);
+        }
+        else if (element instanceof Assignment) {
+            var assignment = (Assignment) element;
+            return new Assignment(assignment.variable, rewrite(assignment.expression, before));
+        }
+        else if (element instanceof ReturnExpression) {
+            return new ReturnExpression(rewrite(((ReturnExpression) element).expression, before));
+        }
+        else if (element instanceof TypedReturn) {
+            var typedReturn = (TypedReturn) element;
+            return new TypedReturn(rewrite(typedReturn.expression, before), typedReturn.type);
+        }
+        else if (element instanceof FieldSet) {
+            var fieldSet = (FieldSet) element;
+            var reference = fieldSet.fieldReference;
+            var rewrittenReference = new FieldReference(reference.fieldName, reference.type,
+                    rewrite(reference.expression, before));
+            return new FieldSet(rewrittenReference, rewrite(fieldSet.expression, before));
+        }
+        else if (element instanceof StaticFieldSet) {
+            var fieldSet = (StaticFieldSet) element;
+            return new StaticFieldSet(fieldSet.fieldReference, rewrite(fieldSet.expression, before));
+        }
+        else if (element instanceof ArraySet) {
+            var arraySet = (ArraySet) element;
+            return ArraySet.arraySet(rewrite(arraySet.arrayRef, before), rewrite(arraySet.index, before),
+                    rewrite(arraySet.value, before));
+        }
+        else if (element instanceof Loop) {
+            var loop = (Loop) element;
+            // Nothing is first computed in a loop's condition, so this adds nothing before the loop
+            var condition = loop.condition == null ? null : rewrite(loop.condition, before);
+            return new Loop(condition, rewriteAll(loop.body));
+        }
+        else if (element instanceof Conditional) {
+            return rewriteConditional((Conditional) element, before);
+        }
+        else if (element instanceof Switch) {
+            var switchStatement = (Switch) element;
+            switchStatement.expression = rewrite(switchStatement.expression, before);
+            switchStatement.cases.replaceAll((key, body) -> rewriteAll(body));
+            switchStatement.defaultCase = rewriteAll(switchStatement.defaultCase);
+            return switchStatement;
+        }
+        return element;
+    }
+
+    private Conditional rewriteConditional(Conditional conditional, List<CodeElement> before) {
+        var condition = conditional.condition == null ? null : rewrite(conditional.condition, before);
+        var rewritten = new Conditional(condition);
+        rewritten.body = rewriteAll(conditional.body);
+        for (var alternate : conditional.alternates) {
+            rewritten.alternates.add(rewriteConditional(alternate, before));
+        }
+        return rewritten;
+    }
+
+    private Expression rewrite(Expression expression, List<CodeElement> before) {
+        var value = reused.get(expression);
+        if (value != null) {
+            return value.variable == null ? expression : read(value.variable);
+        }
+        var rewritten = rebuild(expression, operand -> rewrite(operand, before));
+        value = computed.get(expression);
+        if (value != null && value.temporary && value.variable != null) {
+            before.add(set(value.variable, rewritten));
+            return read(value.variable);
+        }
+        return rewritten;
+    }
+
+    /**
+     * @return the expression with its operands replaced, or the expression itself if none change
+     */
+    private static Expression rebuild(Expression expression, UnaryOperator<Expression> rewrite) {
+        if (expression instanceof Binary) {
+            var binary = (Binary) expression;
+            var left = rewrite.apply(binary.left);
+            var right = rewrite.apply(binary.right);
+            if (left != binary.left || right != binary.right) {
+                return Binary.of(binary.operator, left, right);
+            }
+        }
+        else if (expression instanceof Unary) {
+            var unary = (Unary) expression;
+            var operand = rewrite.apply(unary.expression);
+            if (operand != unary.expression) {
+                return Unary.of(unary.operator, operand);
+            }
+        }
+        else if (expression instanceof Cast) {
+            var cast = (Cast) expression;
+            var operand = rewrite.apply(cast.expression);
+            if (operand != cast.expression) {
+                return new Cast(cast.outputType, operand);
+            }
+        }
+        else if (expression instanceof Call) {
+            var call = (Call) expression;
+            var arguments = rebuildAll(call.arguments, rewrite);
+            if (arguments != call.arguments) {
+                return new Call(call.className, call.methodName, call.returnType, call.isStatic, call.isSpecial,
+                        call.isInterface, arguments);
+            }
+        }
+        else if (expression instanceof Constructor) {
+            var constructor = (Constructor) expression;
+            var arguments = rebuildAll(constructor.arguments, rewrite);
+            if (arguments != constructor.arguments) {
+                return new Constructor(constructor.returnType, arguments);
+            }
+        }
+        else if (expression instanceof NewArray) {
+            var newArray = (NewArray) expression;
+            var size = rewrite.apply(newArray.size);
+            if (size != newArray.size) {
+                return NewArray.newArray(size, newArray.type);
+            }
+        }
+        else if (expression instanceof ArrayRead) {
+            var arrayRead = (ArrayRead) expression;
+            var arrayRef = rewrite.apply(arrayRead.arrayRef);
+            var index = rewrite.apply(arrayRead.index);
+            if (arrayRef != arrayRead.arrayRef || index != arrayRead.index) {
+                return ArrayRead.arrayRead(arrayRef, index);
+            }
+        }
+        else if (expression instanceof ArrayLength) {
+            var arrayLength = (ArrayLength) expression;
+            var operand = rewrite.apply(arrayLength.expression);
+            if (operand != arrayLength.expression) {
+                return new ArrayLength(operand);
+            }
+        }
+        else if (expression instanceof FieldReference) {
+            var reference = (FieldReference) expression;
+            var operand = rewrite.apply(reference.expression);
+            if (operand != reference.expression) {
+                return new FieldReference(reference.fieldName, reference.type, operand);
+            }
+        }
+        return expression;
+    }
+
+    private static Expression[] rebuildAll(Expression[] expressions, UnaryOperator<Expression> rewrite) {
+        var rebuilt = new Expression[expressions.length];
+        var changed = false;
+        for (var i = 0; i < expressions.length; i++) {
+            rebuilt[i] = rewrite.apply(expressions[i]);
+            changed |= rebuilt[i] != expressions[i];
+        }
+        return changed ? rebuilt : expressions;
+    }
+
+    /**
+     * @return the operands of the expression, in the order they're evaluated
+     */
+    private static List<Expression> operands(Expression expression) {
+        if (expression instanceof Binary) {
+            var binary = (Binary) expression;
+            return List.of(binary.left, binary.right);
+        }
+        else if (expression instanceof Unary) {
+            return List.of(((Unary) expression).expression);
+        }
+        else if (expression instanceof Cast) {
+            return List.of(((Cast) expression).expression);
+        }
+        else if (expression instanceof Call) {
+            return Arrays.asList(((Call) expression).arguments);
+        }
+        else if (expression instanceof Constructor) {
+            return Arrays.asList(((Constructor) expression).arguments);
+        }
+        else if (expression instanceof NewArray) {
+            return List.of(((NewArray) expression).size);
+        }
+        else if (expression instanceof ArrayRead) {
+            var arrayRead = (ArrayRead) expression;
+            return List.of(arrayRead.arrayRef, arrayRead.index);
+        }
+        else if (expression instanceof ArrayLength) {
+            return List.of(((ArrayLength) expression).expression);
+        }
+        else if (expression instanceof FieldReference) {
+            return List.of(((FieldReference) expression).expression);
+        }
+        return List.of();
+    }
+
+    private boolean isCandidate(Expression expression) {
+        return !(expression instanceof Literal || expression instanceof VariableRead || expression instanceof ThisRef)
+                && !shared.contains(expression) && isPure(expression);
+    }
+
+    /**
+     * @return true if the expression has no side effects, and evaluating it twice gives the same value unless
+     * something it reads is written in between
+     */
+    private boolean isPure(Expression expression) {
+        if (expression instanceof Literal || expression instanceof VariableRead || expression instanceof ThisRef) {
+            return true;
+        }
+        else if (expression instanceof Binary) {
+            var binary = (Binary) expression;
+            return binary.operator != BinaryOperator.AND && binary.operator != BinaryOperator.OR
+                    && isPure(binary.left) && isPure(binary.right);
+        }
+        else if (expression instanceof FieldReference) {
+            return isStableField.test(expression) && isPure(((FieldReference) expression).expression);
+        }
+        else if (expression instanceof StaticFieldReference) {
+            return isStableField.test(expression);
+        }
+        else if (expression instanceof Unary || expression instanceof Cast || expression instanceof ArrayRead
+                || expression instanceof ArrayLength) {
+            for (var operand : operands(expression)) {
+                if (!isPure(operand)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean throwsAnywhere(Expression expression) {
+        if (LoopInvariantCodeMotion.canThrow(expression)) {
+            return true;
+        }
+        for (var operand : operands(expression)) {
+            if (throwsAnywhere(operand)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean readsHeap(Expression expression) {
+        var reads = reads(expression);
+        return !reads.fields.isEmpty() || !reads.staticFields.isEmpty() || !reads.arrays.isEmpty();
+    }
+
+    private Effects reads(Expression expression) {
+        var reads = new Effects();
+        collectReads(expression, reads);
+        return reads;
+    }
+
+    private void collectReads(Expression expression, Effects reads) {
+        if (expression instanceof VariableRead) {
+            reads.variables.add(((VariableRead) expression).variable);
+        }
+        else if (expression instanceof FieldReference) {
+            reads.fields.add(((FieldReference) expression).fieldName);
+        }
+        else if (expression instanceof StaticFieldReference) {
+            reads.staticFields.add(((StaticFieldReference) expression).fieldName);
+        }
+        else if (expression instanceof ArrayRead) {
+            reads.arrays.add(arrayKind(((ArrayRead) expression).arrayRef));
+        }
+        for (var operand : operands(expression)) {
+            collectReads(operand, reads);
+        }
+    }
+
+    private String arrayKind(Expression arrayRef) {
+        var type = method.typeOf(arrayRef);
+        type = type == null ? null : type.type();
+        if (!(type instanceof ArrayType)) {
+            return UNKNOWN_ARRAY;
+        }
+        var elementType = ((ArrayType) type).elementType.type();
+        if (elementType instanceof Builtin) {
+            return elementType.typeString();
+        }
+        return REFERENCE_ARRAY;
+    }
+
+    /**
+     * @return the type of the expression, if a variable can hold it, otherwise null
+     */
+    private Type typeOf(Expression expression) {
+        var type = method.typeOf(expression);
+        type = type == null ? null : type.type();
+        if ((type instanceof Builtin && type != Builtin.BOOL) || type instanceof ReferenceType
+                || type instanceof ArrayType) {
+            return type;
+        }
+        return null;
+    }
+}
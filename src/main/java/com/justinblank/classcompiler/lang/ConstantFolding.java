@@ -0,0 +1,534 @@
+package com.justinblank.classcompiler.lang;
+
+import com.justinblank.classcompiler.Method;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.justinblank.classcompiler.lang.Literal.literal;
+
+/**
+ * Folds constant expressions and simplifies algebraic identities before a method is lowered to blocks.
+ *
+ * Folding follows Java semantics: integer arithmetic wraps, floating point arithmetic may produce NaN or infinities,
+ * and comparisons involving NaN are false. Integer division or remainder by zero is left alone, so that it throws at
+ * runtime, as it would have without folding.
+ *
+ * Identities that would discard an operand (x * 0, x && false) are only applied when the discarded operand has no
+ * side effects. Identities that don't hold for floating point values (x + 0 is not x when x is -0.0) are only applied
+ * to ints and longs.
+ *
+ * This must run after type inference, as it relies on the inferred types of variables.
+ */
+public class ConstantFolding {
+
+    private final Method method;
+
+    public ConstantFolding(Method method) {
+        this.method = method;
+    }
+
+    public List<CodeElement> fold(List<CodeElement> elements) {
+        if (elements == null) {
+            return null;
+        }
+        var folded = new ArrayList<CodeElement>(elements.size());
+        for (var element : elements) {
+            folded.add(fold(element));
+        }
+        return folded;
+    }
+
+    public CodeElement fold(CodeElement element) {
+        if (element instanceof Expression) {
+            return foldExpression((Expression) element);
+        }
+        else if (element instanceof Assignment) {
+            var assignment = (Assignment) element;
+            return new Assignment(assignment.variable, foldExpression(assignment.expression));
+        }
+        else if (element instanceof ReturnExpression) {
+            return new ReturnExpression(foldExpression(((ReturnExpression) element).expression));
+        }
+        else if (element instanceof TypedReturn) {
+            var typedReturn = (TypedReturn) element;
+            return new TypedReturn(foldExpression(typedReturn.expression), typedReturn.type);
+        }
+        else if (element instanceof FieldSet) {
+            var fieldSet = (FieldSet) element;
+            var reference = fieldSet.fieldReference;
+            var foldedReference = new FieldReference(reference.fieldName, reference.type, foldExpression(reference.expression));
+            return new FieldSet(foldedReference, foldExpression(fieldSet.expression));
+        }
+        else if (element instanceof StaticFieldSet) {
+            var fieldSet = (StaticFieldSet) element;
+            return new StaticFieldSet(fieldSet.fieldReference, foldExpression(fieldSet.expression));
+        }
+        else if (element instanceof ArraySet) {
+            var arraySet = (ArraySet) element;
+            return ArraySet.arraySet(foldExpression(arraySet.arrayRef), foldExpression(arraySet.index),
+                    foldExpression(arraySet.value));
+        }
+        else if (element instanceof Loop) {
+            var loop = (Loop) element;
+            return new Loop(foldExpression(loop.condition), fold(loop.body));
+        }
+        else if (element instanceof Conditional) {
+            return foldConditional((Conditional) element);
+        }
+        else if (element instanceof Switch) {
+            var switchStatement = (Switch) element;
+            var folded = new Switch(foldExpression(switchStatement.expression));
+            folded.isIntegerSwitch = switchStatement.isIntegerSwitch;
+            folded.strategy = switchStatement.strategy;
+            folded.cases = new HashMap<>();
+            for (var entry : switchStatement.cases.entrySet()) {
+                folded.cases.put(entry.getKey(), fold(entry.getValue()));
+            }
+            folded.defaultCase = fold(switchStatement.defaultCase);
+            return folded;
+        }
+        // Everything else (returnVoid, skip, escape, no-ops) contains no expressions
+        return element;
+    }
+
+    private Conditional foldConditional(Conditional conditional) {
+        var folded = new Conditional(foldExpression(conditional.condition));
+        folded.body = fold(conditional.body);
+        for (var alternate : conditional.alternates) {
+            folded.alternates.add(foldConditional(alternate));
+        }
+        return folded;
+    }
+
+    Expression foldExpression(Expression expression) {
+        if (expression instanceof Binary) {
+            return foldBinary((Binary) expression);
+        }
+        else if (expression instanceof Unary) {
+            return foldUnary((Unary) expression);
+        }
+        else if (expression instanceof Cast) {
+            return foldCast((Cast) expression);
+        }
+        else if (expression instanceof Call) {
+            var call = (Call) expression;
+            return new Call(call.className, call.methodName, call.returnType, call.isStatic, call.isSpecial,
+                    call.isInterface, foldArguments(call.arguments));
+        }
+        else if (expression instanceof Constructor) {
+            var constructor = (Constructor) expression;
+            return new Constructor(constructor.returnType, foldArguments(constructor.arguments));
+        }
+        else if (expression instanceof NewArray) {
+            var newArray = (NewArray) expression;
+            return NewArray.newArray(foldExpression(newArray.size), newArray.type);
+        }
+        else if (expression instanceof ArrayRead) {
+            var arrayRead = (ArrayRead) expression;
+            return ArrayRead.arrayRead(foldExpression(arrayRead.arrayRef), foldExpression(arrayRead.index));
+        }
+        else if (expression instanceof ArrayLength) {
+            return new ArrayLength(foldExpression(((ArrayLength) expression).expression));
+        }
+        else if (expression instanceof FieldReference) {
+            var reference = (FieldReference) expression;
+            return new FieldReference(reference.fieldName, reference.type, foldExpression(reference.expression));
+        }
+        // Literals, variable reads, static field reads and this, or a null loop condition
+        return expression;
+    }
+
+    private Expression[] foldArguments(Expression[] arguments) {
+        var folded = new Expression[arguments.length];
+        for (var i = 0; i < arguments.length; i++) {
+            folded[i] = foldExpression(arguments[i]);
+        }
+        return folded;
+    }
+
+    private Expression foldBinary(Binary binary) {
+        var left = foldExpression(binary.left);
+        var right = foldExpression(binary.right);
+        var operator = binary.operator;
+        if (left instanceof Literal && right instanceof Literal) {
+            var value = evaluate(operator, ((Literal) left).value, ((Literal) right).value);
+            if (value != null) {
+                return toLiteral(value);
+            }
+        }
+        var simplified = simplify(operator, left, right);
+        if (simplified != null) {
+            return simplified;
+        }
+        if (left == binary.left && right == binary.right) {
+            return binary;
+        }
+        return Binary.of(operator, left, right);
+    }
+
+    private Expression foldUnary(Unary unary) {
+        var expression = foldExpression(unary.expression);
+        if (expression instanceof Literal) {
+            var value = ((Literal) expression).value;
+            switch (unary.operator) {
+                case NOT:
+                    if (value instanceof Boolean) {
+                        return literal(!(Boolean) value);
+                    }
+                    break;
+                case BNEG:
+                    if (value instanceof Integer) {
+                        return literal(-(Integer) value);
+                    }
+                    else if (value instanceof Long) {
+                        return literal(-(Long) value);
+                    }
+                    break;
+            }
+        }
+        if (expression == unary.expression) {
+            return unary;
+        }
+        return Unary.of(unary.operator, expression);
+    }
+
+    private Expression foldCast(Cast cast) {
+        var expression = foldExpression(cast.expression);
+        if (expression instanceof Literal && cast.outputType instanceof Builtin) {
+            var value = ((Literal) expression).value;
+            if (value instanceof Integer || value instanceof Long || value instanceof Float || value instanceof Double
+                    || value instanceof Short) {
+                var number = (Number) value;
+                // Number's conversions are specified to behave like the corresponding primitive casts
+                switch ((Builtin) cast.outputType) {
+                    case I:
+                        return literal(number.intValue());
+                    case L:
+                        return literal(number.longValue());
+                    case F:
+                        return literal(number.floatValue());
+                    case D:
+                        return literal(number.doubleValue());
+                    case S:
+                        return literal(number.shortValue());
+                    default:
+                        break;
+                }
+            }
+        }
+        if (expression == cast.expression) {
+            return cast;
+        }
+        return new Cast(cast.outputType, expression);
+    }
+
+    /**
+     * Apply identities where at most one operand is a literal.
+     *
+     * @return the simplified expression, or null if no identity applies
+     */
+    private Expression simplify(BinaryOperator operator, Expression left, Expression right) {
+        switch (operator) {
+            case AND:
+                if (isBoolean(left, true)) {
+                    return right;
+                }
+                if (isBoolean(left, false)) {
+                    return left;
+                }
+                if (isBoolean(right, true)) {
+                    return left;
+                }
+                if (isBoolean(right, false) && isPure(left)) {
+                    return right;
+                }
+                return null;
+            case OR:
+                if (isBoolean(left, false)) {
+                    return right;
+                }
+                if (isBoolean(left, true)) {
+                    return left;
+                }
+                if (isBoolean(right, false)) {
+                    return left;
+                }
+                if (isBoolean(right, true) && isPure(left)) {
+                    return right;
+                }
+                return null;
+            case PLUS:
+                if (isIntegral(right) && isZero(left, right)) {
+                    return right;
+                }
+                if (isIntegral(left) && isZero(right, left)) {
+                    return left;
+                }
+                return null;
+            case SUBTRACT:
+                if (isIntegral(left) && isZero(right, left)) {
+                    return left;
+                }
+                return null;
+            case MULTIPLY:
+                if (isIntegral(right)) {
+                    if (isOne(left, right)) {
+                        return right;
+                    }
+                    if (isZero(left, right) && isPure(right)) {
+                        return left;
+                    }
+                }
+                if (isIntegral(left)) {
+                    if (isOne(right, left)) {
+                        return left;
+                    }
+                    if (isZero(right, left) && isPure(left)) {
+                        return right;
+                    }
+                }
+                return null;
+            case DIVIDE:
+                if (isIntegral(left) && isOne(right, left)) {
+                    return left;
+                }
+                return null;
+            case BOR:
+            case BXOR:
+                if (isIntegral(right) && isZero(left, right)) {
+                    return right;
+                }
+                if (isIntegral(left) && isZero(right, left)) {
+                    return left;
+                }
+                return null;
+            case SHL:
+            case SHR:
+            case USHR:
+                if (isIntegral(left) && right instanceof Literal && ((Literal) right).value instanceof Integer) {
+                    // Shift distances are masked, so shifting an int by 32 also leaves it unchanged
+                    int mask = typeOf(left) == Builtin.L ? 0x3f : 0x1f;
+                    if ((((Integer) ((Literal) right).value) & mask) == 0) {
+                        return left;
+                    }
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Evaluate an operator applied to two literal values.
+     *
+     * @return the result, or null if the operation can't be folded
+     */
+    static Object evaluate(BinaryOperator operator, Object left, Object right) {
+        if (left instanceof Boolean && right instanceof Boolean) {
+            var l = (boolean) left;
+            var r = (boolean) right;
+            switch (operator) {
+                case AND:
+                    return l && r;
+                case OR:
+                    return l || r;
+                default:
+                    return null;
+            }
+        }
+        if (left instanceof Integer && right instanceof Integer) {
+            int l = (Integer) left;
+            int r = (Integer) right;
+            switch (operator) {
+                case PLUS:
+                    return l + r;
+                case SUBTRACT:
+                    return l - r;
+                case MULTIPLY:
+                    return l * r;
+                case DIVIDE:
+                    return r == 0 ? null : l / r;
+                case MOD:
+                    return r == 0 ? null : l % r;
+                case BAND:
+                    return l & r;
+                case BOR:
+                    return l | r;
+                case BXOR:
+                    return l ^ r;
+                case SHL:
+                    return l << r;
+                case SHR:
+                    return l >> r;
+                case USHR:
+                    return l >>> r;
+                default:
+                    return compare(operator, Integer.compare(l, r), false);
+            }
+        }
+        if (left instanceof Long && right instanceof Integer) {
+            long l = (Long) left;
+            int r = (Integer) right;
+            switch (operator) {
+                case SHL:
+                    return l << r;
+                case SHR:
+                    return l >> r;
+                case USHR:
+                    return l >>> r;
+                default:
+                    return null;
+            }
+        }
+        if (left instanceof Long && right instanceof Long) {
+            long l = (Long) left;
+            long r = (Long) right;
+            switch (operator) {
+                case PLUS:
+                    return l + r;
+                case SUBTRACT:
+                    return l - r;
+                case MULTIPLY:
+                    return l * r;
+                case DIVIDE:
+                    return r == 0 ? null : l / r;
+                case MOD:
+                    return r == 0 ? null : l % r;
+                case BAND:
+                    return l & r;
+                case BOR:
+                    return l | r;
+                case BXOR:
+                    return l ^ r;
+                default:
+                    return compare(operator, Long.compare(l, r), false);
+            }
+        }
+        if (left instanceof Float && right instanceof Float) {
+            float l = (Float) left;
+            float r = (Float) right;
+            switch (operator) {
+                case PLUS:
+                    return l + r;
+                case SUBTRACT:
+                    return l - r;
+                case MULTIPLY:
+                    return l * r;
+                case DIVIDE:
+                    return l / r;
+                case MOD:
+                    return l % r;
+                default:
+                    // Primitive comparison, rather than Float.compare, so that 0.0 == -0.0 and NaN is unordered
+                    return compare(operator, l < r ? -1 : (l == r ? 0 : 1), Float.isNaN(l) || Float.isNaN(r));
+            }
+        }
+        if (left instanceof Double && right instanceof Double) {
+            double l = (Double) left;
+            double r = (Double) right;
+            switch (operator) {
+                case PLUS:
+                    return l + r;
+                case SUBTRACT:
+                    return l - r;
+                case MULTIPLY:
+                    return l * r;
+                case DIVIDE:
+                    return l / r;
+                case MOD:
+                    return l % r;
+                default:
+                    return compare(operator, l < r ? -1 : (l == r ? 0 : 1), Double.isNaN(l) || Double.isNaN(r));
+            }
+        }
+        return null;
+    }
+
+    private static Boolean compare(BinaryOperator operator, int comparison, boolean unordered) {
+        switch (operator) {
+            case EQUALS:
+                return !unordered && comparison == 0;
+            case NOT_EQUALS:
+                return unordered || comparison != 0;
+            case LESS_THAN:
+                return !unordered && comparison < 0;
+            case LESS_THAN_OR_EQUALS:
+                return !unordered && comparison <= 0;
+            case GREATER_THAN:
+                return !unordered && comparison > 0;
+            case GREATER_THAN_OR_EQUALS:
+                return !unordered && comparison >= 0;
+            default:
+                return null;
+        }
+    }
+
+    private static Literal toLiteral(Object value) {
+        if (value instanceof Boolean) {
+            return literal((Boolean) value);
+        }
+        return literal((Number) value);
+    }
+
+    private Type typeOf(Expression expression) {
+        var type = method.typeOf(expression);
+        return type == null ? null : type.type();
+    }
+
+    private boolean isIntegral(Expression expression) {
+        var type = typeOf(expression);
+        return type == Builtin.I || type == Builtin.L;
+    }
+
+    // The literal must have the same type as the other operand, as mixing ints and longs is not valid
+    private boolean isZero(Expression literal, Expression other) {
+        return isIntegralLiteral(literal, other, 0L);
+    }
+
+    private boolean isOne(Expression literal, Expression other) {
+        return isIntegralLiteral(literal, other, 1L);
+    }
+
+    private boolean isIntegralLiteral(Expression expression, Expression other, long expected) {
+        if (!(expression instanceof Literal)) {
+            return false;
+        }
+        var value = ((Literal) expression).value;
+        if (value instanceof Integer) {
+            return typeOf(other) == Builtin.I && (Integer) value == expected;
+        }
+        else if (value instanceof Long) {
+            return typeOf(other) == Builtin.L && (Long) value == expected;
+        }
+        return false;
+    }
+
+    private static boolean isBoolean(Expression expression, boolean expected) {
+        return expression instanceof Literal && Boolean.valueOf(expected).equals(((Literal) expression).value);
+    }
+
+    /**
+     * @return true if evaluating the expression can have no side effects and can't throw, so it may be discarded
+     */
+    static boolean isPure(Expression expression) {
+        if (expression instanceof Literal || expression instanceof VariableRead || expression instanceof ThisRef) {
+            return true;
+        }
+        else if (expression instanceof Unary) {
+            return isPure(((Unary) expression).expression);
+        }
+        else if (expression instanceof Cast) {
+            return isPure(((Cast) expression).expression);
+        }
+        else if (expression instanceof Binary) {
+            var binary = (Binary) expression;
+            if (binary.operator == BinaryOperator.DIVIDE || binary.operator == BinaryOperator.MOD) {
+                return false;
+            }
+            return isPure(binary.left) && isPure(binary.right);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,385 @@
+package com.justinblank.classcompiler.lang;
+
+import com.justinblank.classcompiler.Method;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static com.justinblank.classcompiler.lang.CodeElement.read;
+import static com.justinblank.classcompiler.lang.CodeElement.set;
+
+/**
+ * Moves expressions whose value doesn't change while a loop runs out of the loop, evaluating them once, before the
+ * loop, into a new variable.
+ *
+ * An expression is invariant if it only reads variables the loop never assigns, final fields and literals, through
+ * arithmetic, casts and array lengths. Calls and array reads are never moved.
+ *
+ * Expressions that can't throw are moved from anywhere in the loop. Expressions that can throw, such as the length
+ * of an array that may be null, are only moved from the loop's condition, where they are evaluated before anything
+ * else in the loop, and only if nothing that could throw or have side effects is evaluated before them. That way,
+ * the first evaluation of the loop's condition throws the same exception it would have thrown without this pass.
+ *
+ * Only int and reference values are moved, and this must run after type inference.
+ */
+public class LoopInvariantCodeMotion {
+
+    private final Method method;
+    private final Predicate<Expression> isFinalField;
+    private final Function<Type, String> newVariable;
+
+    /**
+     * @param method the method being optimized
+     * @param isFinalField whether an expression reads a field that can't change while the method runs
+     * @param newVariable creates a variable of the given type, returning its name, or null if it can't
+     */
+    public LoopInvariantCodeMotion(Method method, Predicate<Expression> isFinalField, Function<Type, String> newVariable) {
+        this.method = method;
+        this.isFinalField = isFinalField;
+        this.newVariable = newVariable;
+    }
+
+    public List<CodeElement> hoist(List<CodeElement> elements) {
+        if (elements == null) {
+            return null;
+        }
+        var result = new ArrayList<CodeElement>(elements.size());
+        for (var element : elements) {
+            if (element instanceof Loop) {
+                result.addAll(hoistLoop((Loop) element));
+            }
+            else if (element instanceof Conditional) {
+                hoistConditional((Conditional) element);
+                result.add(element);
+            }
+            else if (element instanceof Switch) {
+                var switchStatement = (Switch) element;
+                switchStatement.cases.replaceAll((key, body) -> hoist(body));
+                switchStatement.defaultCase = hoist(switchStatement.defaultCase);
+                result.add(element);
+            }
+            else {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+
+    private void hoistConditional(Conditional conditional) {
+        conditional.body = hoist(conditional.body);
+        for (var alternate : conditional.alternates) {
+            hoistConditional(alternate);
+        }
+    }
+
+    /**
+     * @return the assignments of the moved expressions, followed by the rewritten loop
+     */
+    private List<CodeElement> hoistLoop(Loop loop) {
+        var invariants = new Invariants(loop);
+        var condition = loop.condition == null ? null : invariants.rewrite(loop.condition, new Position(true));
+        var body = invariants.rewriteAll(loop.body);
+        // Loops nested in this one may have expressions that only vary with this loop
+        body = hoist(body);
+
+        List<CodeElement> result = new ArrayList<>();
+        for (var hoisted : invariants.hoisted.values()) {
+            result.add(set(hoisted.variable, hoisted.expression));
+        }
+        result.add(new Loop(condition, body));
+        return result;
+    }
+
+    /**
+     * Tracks whether an expression being rewritten is evaluated before anything in the loop could throw or have side
+     * effects.
+     */
+    private static class Position {
+        boolean first;
+
+        Position(boolean first) {
+            this.first = first;
+        }
+    }
+
+    private static class Hoisted {
+        final Expression expression;
+        final String variable;
+
+        Hoisted(Expression expression, String variable) {
+            this.expression = expression;
+            this.variable = variable;
+        }
+    }
+
+    private class Invariants {
+        private final Set<String> assigned = new HashSet<>();
+        private final Set<String> fieldsSet = new HashSet<>();
+        // Keyed by canonical form, so an expression that appears several times is only evaluated once
+        private final Map<String, Hoisted> hoisted = new LinkedHashMap<>();
+
+        Invariants(Loop loop) {
+            collectWrites(loop.body);
+        }
+
+        private void collectWrites(List<CodeElement> elements) {
+            if (elements == null) {
+                return;
+            }
+            for (var element : elements) {
+                if (element instanceof Assignment) {
+                    assigned.add(((Assignment) element).variable);
+                }
+                else if (element instanceof FieldSet) {
+                    fieldsSet.add(((FieldSet) element).fieldReference.fieldName);
+                }
+                else if (element instanceof StaticFieldSet) {
+                    fieldsSet.add(((StaticFieldSet) element).fieldReference.fieldName);
+                }
+                else if (element instanceof Loop) {
+                    collectWrites(((Loop) element).body);
+                }
+                else if (element instanceof Conditional) {
+                    var conditional = (Conditional) element;
+                    collectWrites(conditional.body);
+                    for (var alternate : conditional.alternates) {
+                        collectWrites(alternate.body);
+                    }
+                }
+                else if (element instanceof Switch) {
+                    var switchStatement = (Switch) element;
+                    for (var body : switchStatement.cases.values()) {
+                        collectWrites(body);
+                    }
+                    collectWrites(switchStatement.defaultCase);
+                }
+            }
+        }
+
+        List<CodeElement> rewriteAll(List<CodeElement> elements) {
+            if (elements == null) {
+                return null;
+            }
+            var rewritten = new ArrayList<CodeElement>(elements.size());
+            for (var element : elements) {
+                rewritten.add(rewriteElement(element));
+            }
+            return rewritten;
+        }
+
+        private CodeElement rewriteElement(CodeElement element) {
+            // Statements in the body may not run, so nothing that could throw is moved out of them
+            var position = new Position(false);
+            if (element instanceof Expression) {
+                return rewrite((Expression) element, position);
+            }
+            else if (element instanceof Assignment) {
+                var assignment = (Assignment) element;
+                return new Assignment(assignment.variable, rewrite(assignment.expression, position));
+            }
+            else if (element instanceof ReturnExpression) {
+                return new ReturnExpression(rewrite(((ReturnExpression) element).expression, position));
+            }
+            else if (element instanceof TypedReturn) {
+                var typedReturn = (TypedReturn) element;
+                return new TypedReturn(rewrite(typedReturn.expression, position), typedReturn.type);
+            }
+            else if (element instanceof FieldSet) {
+                var fieldSet = (FieldSet) element;
+                var reference = fieldSet.fieldReference;
+                var rewrittenReference = new FieldReference(reference.fieldName, reference.type,
+                        rewrite(reference.expression, position));
+                return new FieldSet(rewrittenReference, rewrite(fieldSet.expression, position));
+            }
+            else if (element instanceof StaticFieldSet) {
+                var fieldSet = (StaticFieldSet) element;
+                return new StaticFieldSet(fieldSet.fieldReference, rewrite(fieldSet.expression, position));
+            }
+            else if (element instanceof ArraySet) {
+                var arraySet = (ArraySet) element;
+                return ArraySet.arraySet(rewrite(arraySet.arrayRef, position), rewrite(arraySet.index, position),
+                        rewrite(arraySet.value, position));
+            }
+            else if (element instanceof Loop) {
+                var loop = (Loop) element;
+                var condition = loop.condition == null ? null : rewrite(loop.condition, position);
+                return new Loop(condition, rewriteAll(loop.body));
+            }
+            else if (element instanceof Conditional) {
+                return rewriteConditional((Conditional) element);
+            }
+            else if (element instanceof Switch) {
+                var switchStatement = (Switch) element;
+                switchStatement.expression = rewrite(switchStatement.expression, position);
+                switchStatement.cases.replaceAll((key, body) -> rewriteAll(body));
+                switchStatement.defaultCase = rewriteAll(switchStatement.defaultCase);
+                return switchStatement;
+            }
+            return element;
+        }
+
+        private Conditional rewriteConditional(Conditional conditional) {
+            var condition = conditional.condition == null ? null : rewrite(conditional.condition, new Position(false));
+            var rewritten = new Conditional(condition);
+            rewritten.body = rewriteAll(conditional.body);
+            for (var alternate : conditional.alternates) {
+                rewritten.alternates.add(rewriteConditional(alternate));
+            }
+            return rewritten;
+        }
+
+        Expression rewrite(Expression expression, Position position) {
+            if (isInvariant(expression) && isWorthHoisting(expression) && (position.first || !canThrow(expression))) {
+                var variable = variableFor(expression);
+                if (variable != null) {
+                    return read(variable);
+                }
+            }
+            Expression rewritten = expression;
+            if (expression instanceof Binary) {
+                var binary = (Binary) expression;
+                var left = rewrite(binary.left, position);
+                Expression right;
+                if (binary.operator == BinaryOperator.AND || binary.operator == BinaryOperator.OR) {
+                    // The right side may not be evaluated
+                    var wasFirst = position.first;
+                    position.first = false;
+                    right = rewrite(binary.right, position);
+                    position.first = wasFirst;
+                }
+                else {
+                    right = rewrite(binary.right, position);
+                }
+                if (left != binary.left || right != binary.right) {
+                    rewritten = Binary.of(binary.operator, left, right);
+                }
+            }
+            else if (expression instanceof Unary) {
+                var unary = (Unary) expression;
+                var operand = rewrite(unary.expression, position);
+                if (operand != unary.expression) {
+                    rewritten = Unary.of(unary.operator, operand);
+                }
+            }
+            else if (expression instanceof Cast) {
+                var cast = (Cast) expression;
+                var operand = rewrite(cast.expression, position);
+                if (operand != cast.expression) {
+                    rewritten = new Cast(cast.outputType, operand);
+                }
+            }
+            else if (expression instanceof Call) {
+                var call = (Call) expression;
+                rewritten = new Call(call.className, call.methodName, call.returnType, call.isStatic, call.isSpecial,
+                        call.isInterface, rewriteArguments(call.arguments, position));
+            }
+            else if (expression instanceof Constructor) {
+                var constructor = (Constructor) expression;
+                rewritten = new Constructor(constructor.returnType, rewriteArguments(constructor.arguments, position));
+            }
+            else if (expression instanceof NewArray) {
+                var newArray = (NewArray) expression;
+                rewritten = NewArray.newArray(rewrite(newArray.size, position), newArray.type);
+            }
+            else if (expression instanceof ArrayRead) {
+                var arrayRead = (ArrayRead) expression;
+                rewritten = ArrayRead.arrayRead(rewrite(arrayRead.arrayRef, position),
+                        rewrite(arrayRead.index, position));
+            }
+            else if (expression instanceof ArrayLength) {
+                rewritten = new ArrayLength(rewrite(((ArrayLength) expression).expression, position));
+            }
+            else if (expression instanceof FieldReference) {
+                var reference = (FieldReference) expression;
+                rewritten = new FieldReference(reference.fieldName, reference.type,
+                        rewrite(reference.expression, position));
+            }
+            // Operands are evaluated before the operation, which may throw or have side effects
+            if (canThrow(expression)) {
+                position.first = false;
+            }
+            return rewritten;
+        }
+
+        private Expression[] rewriteArguments(Expression[] arguments, Position position) {
+            var rewritten = new Expression[arguments.length];
+            for (var i = 0; i < arguments.length; i++) {
+                rewritten[i] = rewrite(arguments[i], position);
+            }
+            return rewritten;
+        }
+
+        private String variableFor(Expression expression) {
+            var key = CanonicalForm.of(expression);
+            var existing = hoisted.get(key);
+            if (existing != null) {
+                return existing.variable;
+            }
+            var type = method.typeOf(expression);
+            type = type == null ? null : type.type();
+            if (type != Builtin.I && !(type instanceof ReferenceType) && !(type instanceof ArrayType)) {
+                return null;
+            }
+            var variable = newVariable.apply(type);
+            if (variable != null) {
+                hoisted.put(key, new Hoisted(expression, variable));
+            }
+            return variable;
+        }
+
+        private boolean isInvariant(Expression expression) {
+            if (expression instanceof Literal || expression instanceof ThisRef) {
+                return true;
+            }
+            else if (expression instanceof VariableRead) {
+                return !assigned.contains(((VariableRead) expression).variable);
+            }
+            else if (expression instanceof Binary) {
+                var binary = (Binary) expression;
+                return isInvariant(binary.left) && isInvariant(binary.right);
+            }
+            else if (expression instanceof Unary) {
+                return isInvariant(((Unary) expression).expression);
+            }
+            else if (expression instanceof Cast) {
+                return isInvariant(((Cast) expression).expression);
+            }
+            else if (expression instanceof ArrayLength) {
+                return isInvariant(((ArrayLength) expression).expression);
+            }
+            else if (expression instanceof FieldReference) {
+                var reference = (FieldReference) expression;
+                return isFinalField.test(reference) && !fieldsSet.contains(reference.fieldName)
+                        && isInvariant(reference.expression);
+            }
+            else if (expression instanceof StaticFieldReference) {
+                var reference = (StaticFieldReference) expression;
+                return isFinalField.test(reference) && !fieldsSet.contains(reference.fieldName);
+            }
+            return false;
+        }
+    }
+
+    private static boolean isWorthHoisting(Expression expression) {
+        return !(expression instanceof Literal || expression instanceof VariableRead || expression instanceof ThisRef);
+    }
+
+    /**
+     * @return true if evaluating the expression itself, rather than its operands, can throw or have side effects
+     */
+    static boolean canThrow(Expression expression) {
+        if (expression instanceof Binary) {
+            var operator = ((Binary) expression).operator;
+            return operator == BinaryOperator.DIVIDE || operator == BinaryOperator.MOD;
+        }
+        else if (expression instanceof Cast) {
+            return !(((Cast) expression).outputType instanceof Builtin);
+        }
+        else if (expression instanceof FieldReference) {
+            return !(((FieldReference) expression).expression instanceof ThisRef);
+        }
+        return expression instanceof ArrayLength || expression instanceof ArrayRead || expression instanceof Call
+                || expression instanceof Constructor || expression instanceof NewArray;
+    }
+}
@@ -0,0 +1,620 @@
+package com.justinblank.classcompiler.lang;
+
+import com.justinblank.classcompiler.CompilerUtil;
+import com.justinblank.classcompiler.GenericVars;
+import com.justinblank.classcompiler.Method;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_SYNTHETIC;
+
+/**
+ * Moves the arms of switches into private helper methods, so that a method fits within the 64KB of code the JVM
+ * allows a method to have.
+ *
+ * An arm can be moved if every path through it returns, in which case the method returns the helper's result, or if
+ * it never returns and assigns at most one variable that is used outside the arm, in which case the helper returns
+ * the new value of that variable. The variables the arm reads before assigning them are passed to the helper as
+ * arguments.
+ *
+ * Arms that break out of or continue an enclosing loop are left alone.
+ * Only instance methods can be split, as the helpers are instance methods.
+ */
+public class MethodSplitter {
+
+    // The approximate size of the code that loads this, invokes the helper and returns or stores the result
+    private static final int CALL_SIZE = 8;
+    private static final int ARGUMENT_SIZE = 2;
+
+    private final Method method;
+    private final String helperPrefix;
+    private int helperCount;
+
+    public MethodSplitter(Method method) {
+        this.method = method;
+        this.helperPrefix = method.methodName.replaceAll("[<>]", "") + "$"
+                + Integer.toHexString(method.descriptor().hashCode()) + "$arm";
+    }
+
+    /**
+     * Move switch arms into helpers, largest first, until the estimated reduction in the size of the method is at
+     * least the excess.
+     *
+     * @param elements the elements of the method, whose switches are modified in place
+     * @param armSizes the estimated size of the code of each switch arm, keyed by the identity of its body
+     * @param excess the number of bytes the method needs to shrink by
+     * @return the helper methods, or an empty list if no arm could be moved
+     */
+    public List<Method> split(List<CodeElement> elements, Map<List<CodeElement>, Integer> armSizes, int excess) {
+        List<Arm> arms = new ArrayList<>();
+        collectArms(elements, null, armSizes, arms);
+        // The sort is stable, and arms are collected before the arms nested in them, so an arm is considered before
+        // any arm nested inside it
+        arms.sort(Comparator.comparingInt((Arm arm) -> arm.size).reversed());
+
+        List<Method> helpers = new ArrayList<>();
+        Set<Arm> outlined = Collections.newSetFromMap(new IdentityHashMap<>());
+        var saved = 0;
+        for (var arm : arms) {
+            if (saved >= excess) {
+                break;
+            }
+            if (hasOutlinedAncestor(arm, outlined)) {
+                continue;
+            }
+            var argumentCount = outline(arm, elements, helpers);
+            if (argumentCount >= 0) {
+                outlined.add(arm);
+                saved += arm.size - CALL_SIZE - ARGUMENT_SIZE * argumentCount;
+            }
+        }
+        return helpers;
+    }
+
+    private void collectArms(List<CodeElement> elements, Arm parent, Map<List<CodeElement>, Integer> armSizes,
+                             List<Arm> arms) {
+        for (var element : elements) {
+            if (element instanceof Conditional) {
+                var conditional = (Conditional) element;
+                collectArms(conditional.body, parent, armSizes, arms);
+                for (var alternate : conditional.alternates) {
+                    collectArms(alternate.body, parent, armSizes, arms);
+                }
+            }
+            else if (element instanceof Loop) {
+                collectArms(((Loop) element).body, parent, armSizes, arms);
+            }
+            else if (element instanceof Switch) {
+                var switchStatement = (Switch) element;
+                for (var entry : switchStatement.cases.entrySet()) {
+                    var body = entry.getValue();
+                    var size = armSizes.get(body);
+                    var arm = parent;
+                    if (size != null) {
+                        arm = new Arm(switchStatement, entry.getKey(), body, parent, size);
+                        arms.add(arm);
+                    }
+                    collectArms(body, arm, armSizes, arms);
+                }
+                collectArms(switchStatement.defaultCase, parent, armSizes, arms);
+            }
+        }
+    }
+
+    private static boolean hasOutlinedAncestor(Arm arm, Set<Arm> outlined) {
+        for (var ancestor = arm.parent; ancestor != null; ancestor = ancestor.parent) {
+            if (outlined.contains(ancestor)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Move an arm into a helper method, replacing its body with a call to the helper.
+     *
+     * @param helpers the list the helper is added to
+     * @return the number of arguments the helper takes, or -1 if the arm can't be moved
+     */
+    private int outline(Arm arm, List<CodeElement> elements, List<Method> helpers) {
+        var body = arm.body;
+        if (exitsLoop(body)) {
+            return -1;
+        }
+        var returns = alwaysReturns(body);
+        if (!returns && containsReturn(body)) {
+            return -1;
+        }
+        Set<String> parameters = new LinkedHashSet<>();
+        var assignedAtEnd = assign(body, new HashSet<>(), parameters);
+
+        List<CodeElement> helperBody = new ArrayList<>(body);
+        Type returnType;
+        String liveOutVariable = null;
+        if (returns) {
+            returnType = typeOfDescriptor(method.returnType);
+        }
+        else {
+            List<String> liveOut = new ArrayList<>();
+            for (var variable : assignedVariables(body)) {
+                // If the arm reads a variable before assigning it, the value it assigns may be read by a later
+                // iteration of an enclosing loop
+                if (parameters.contains(variable) || new Liveness(body, variable).isReadAfterArm(elements)) {
+                    liveOut.add(variable);
+                }
+            }
+            if (liveOut.size() > 1) {
+                return -1;
+            }
+            else if (liveOut.isEmpty()) {
+                returnType = Void.VOID;
+                helperBody.add(returnVoid());
+            }
+            else {
+                liveOutVariable = liveOut.get(0);
+                // The helper returns the variable, so it must have a value on every path through the arm
+                if (assignedAtEnd != null && !assignedAtEnd.contains(liveOutVariable)) {
+                    parameters.add(liveOutVariable);
+                }
+                returnType = typeOfVariable(liveOutVariable);
+                helperBody.add(returnValue(read(liveOutVariable)));
+            }
+        }
+
+        List<String> variables = new ArrayList<>(parameters);
+        for (var variable : variables(body)) {
+            if (!parameters.contains(variable)) {
+                variables.add(variable);
+            }
+        }
+        List<String> argumentDescriptors = new ArrayList<>();
+        for (var variable : variables) {
+            var type = typeOfVariable(variable);
+            if (type == null) {
+                return -1;
+            }
+            if (parameters.contains(variable)) {
+                argumentDescriptors.add(CompilerUtil.descriptor(type));
+            }
+        }
+        if (returnType == null) {
+            return -1;
+        }
+
+        var helperName = helperPrefix + helperCount++;
+        var helper = new Method(helperName, argumentDescriptors, CompilerUtil.descriptor(returnType),
+                new GenericVars(variables.toArray(new String[0])), ACC_PRIVATE | ACC_SYNTHETIC);
+        for (var element : helperBody) {
+            helper.addElement(element);
+        }
+
+        var arguments = new Expression[parameters.size() + 1];
+        arguments[0] = thisRef();
+        var i = 1;
+        for (var parameter : parameters) {
+            arguments[i++] = read(parameter);
+        }
+        var call = call(helperName, returnType, arguments);
+        List<CodeElement> replacement = new ArrayList<>();
+        if (returns && returnType == Void.VOID) {
+            replacement.add(call);
+            replacement.add(returnVoid());
+        }
+        else if (returns) {
+            replacement.add(returnValue(call));
+        }
+        else if (returnType == Void.VOID) {
+            replacement.add(call);
+        }
+        else {
+            replacement.add(set(liveOutVariable, call));
+        }
+        arm.owner.cases.put(arm.key, replacement);
+        helpers.add(helper);
+        return parameters.size();
+    }
+
+    private Type typeOfVariable(String variable) {
+        var type = method.typeOf(read(variable));
+        return type == null ? null : type.type();
+    }
+
+    private static Type typeOfDescriptor(String descriptor) {
+        if (descriptor.equals("V")) {
+            return Void.VOID;
+        }
+        else if (descriptor.startsWith("L")) {
+            return ReferenceType.of(CompilerUtil.internalName(CompilerUtil.extractDiscriptorInnards(descriptor)));
+        }
+        return Type.fromDescriptor(descriptor);
+    }
+
+    /**
+     * Track which variables are definitely assigned after the elements, in the manner of the JLS, recording variables
+     * that are read before they are definitely assigned.
+     *
+     * @param elements the elements
+     * @param assigned the variables definitely assigned before the elements, which may be modified
+     * @param unassignedReads the variables read before they are definitely assigned
+     * @return the variables definitely assigned after the elements, or null if the elements never complete normally
+     */
+    private static Set<String> assign(List<CodeElement> elements, Set<String> assigned, Set<String> unassignedReads) {
+        for (var element : elements) {
+            if (assigned == null) {
+                // Unreachable code
+                return null;
+            }
+            for (var expression : expressionsOf(element)) {
+                var definitelyAssigned = assigned;
+                collectReads(expression, variable -> {
+                    if (!definitelyAssigned.contains(variable)) {
+                        unassignedReads.add(variable);
+                    }
+                });
+            }
+            if (element instanceof Assignment) {
+                assigned.add(((Assignment) element).variable);
+            }
+            else if (element instanceof Conditional) {
+                assigned = assignConditional((Conditional) element, assigned, unassignedReads);
+            }
+            else if (element instanceof Loop) {
+                // The body may not execute, so assignments in it don't count after the loop
+                assign(((Loop) element).body, new HashSet<>(assigned), unassignedReads);
+            }
+            else if (element instanceof Switch) {
+                var switchStatement = (Switch) element;
+                var outcome = assign(switchStatement.defaultCase, new HashSet<>(assigned), unassignedReads);
+                for (var caseBody : switchStatement.cases.values()) {
+                    outcome = intersect(outcome, assign(caseBody, new HashSet<>(assigned), unassignedReads));
+                }
+                assigned = outcome;
+            }
+            else if (element instanceof ReturnExpression || element instanceof TypedReturn
+                    || element instanceof ReturnVoid || element instanceof Escape || element instanceof Skip) {
+                assigned = null;
+            }
+        }
+        return assigned;
+    }
+
+    private static Set<String> assignConditional(Conditional conditional, Set<String> assigned,
+                                                 Set<String> unassignedReads) {
+        var outcome = assign(conditional.body, new HashSet<>(assigned), unassignedReads);
+        var hasElse = false;
+        for (var alternate : conditional.alternates) {
+            if (alternate.condition == null) {
+                hasElse = true;
+            }
+            else {
+                collectReads(alternate.condition, variable -> {
+                    if (!assigned.contains(variable)) {
+                        unassignedReads.add(variable);
+                    }
+                });
+            }
+            outcome = intersect(outcome, assign(alternate.body, new HashSet<>(assigned), unassignedReads));
+        }
+        return hasElse ? outcome : assigned;
+    }
+
+    // Null represents the elements never completing normally, after which every variable is definitely assigned
+    private static Set<String> intersect(Set<String> first, Set<String> second) {
+        if (first == null) {
+            return second;
+        }
+        else if (second != null) {
+            first.retainAll(second);
+        }
+        return first;
+    }
+
+    /**
+     * @return true if the elements contain a break or continue that isn't nested in a loop inside them
+     */
+    private static boolean exitsLoop(List<CodeElement> elements) {
+        for (var element : elements) {
+            if (element instanceof Escape || element instanceof Skip) {
+                return true;
+            }
+            else if (element instanceof Conditional) {
+                var conditional = (Conditional) element;
+                if (exitsLoop(conditional.body)) {
+                    return true;
+                }
+                for (var alternate : conditional.alternates) {
+                    if (exitsLoop(alternate.body)) {
+                        return true;
+                    }
+                }
+            }
+            else if (element instanceof Switch) {
+                var switchStatement = (Switch) element;
+                if (exitsLoop(switchStatement.defaultCase)) {
+                    return true;
+                }
+                for (var caseBody : switchStatement.cases.values()) {
+                    if (exitsLoop(caseBody)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean alwaysReturns(List<CodeElement> elements) {
+        if (elements.isEmpty()) {
+            return false;
+        }
+        var last = elements.get(elements.size() - 1);
+        if (last instanceof ReturnExpression || last instanceof TypedReturn || last instanceof ReturnVoid) {
+            return true;
+        }
+        else if (last instanceof Conditional) {
+            var conditional = (Conditional) last;
+            var hasElse = false;
+            for (var alternate : conditional.alternates) {
+                hasElse |= alternate.condition == null;
+                if (!alwaysReturns(alternate.body)) {
+                    return false;
+                }
+            }
+            return hasElse && alwaysReturns(conditional.body);
+        }
+        else if (last instanceof Switch) {
+            var switchStatement = (Switch) last;
+            for (var caseBody : switchStatement.cases.values()) {
+                if (!alwaysReturns(caseBody)) {
+                    return false;
+                }
+            }
+            return alwaysReturns(switchStatement.defaultCase);
+        }
+        return false;
+    }
+
+    private static boolean containsReturn(List<CodeElement> elements) {
+        var found = new boolean[1];
+        forEachElement(elements, element -> found[0] |= element instanceof ReturnExpression
+                || element instanceof TypedReturn || element instanceof ReturnVoid);
+        return found[0];
+    }
+
+    private static Set<String> assignedVariables(List<CodeElement> elements) {
+        Set<String> assigned = new LinkedHashSet<>();
+        forEachElement(elements, element -> {
+            if (element instanceof Assignment) {
+                assigned.add(((Assignment) element).variable);
+            }
+        });
+        return assigned;
+    }
+
+    private static Set<String> variables(List<CodeElement> elements) {
+        Set<String> variables = new LinkedHashSet<>();
+        forEachElement(elements, element -> {
+            for (var expression : expressionsOf(element)) {
+                collectReads(expression, variables::add);
+            }
+            if (element instanceof Assignment) {
+                variables.add(((Assignment) element).variable);
+            }
+        });
+        return variables;
+    }
+
+    private static void forEachElement(List<CodeElement> elements, Consumer<CodeElement> consumer) {
+        for (var element : elements) {
+            consumer.accept(element);
+            if (element instanceof Conditional) {
+                var conditional = (Conditional) element;
+                forEachElement(conditional.body, consumer);
+                for (var alternate : conditional.alternates) {
+                    consumer.accept(alternate);
+                    forEachElement(alternate.body, consumer);
+                }
+            }
+            else if (element instanceof Loop) {
+                forEachElement(((Loop) element).body, consumer);
+            }
+            else if (element instanceof Switch) {
+                var switchStatement = (Switch) element;
+                for (var caseBody : switchStatement.cases.values()) {
+                    forEachElement(caseBody, consumer);
+                }
+                forEachElement(switchStatement.defaultCase, consumer);
+            }
+        }
+    }
+
+    /**
+     * @return the expressions evaluated directly by an element, excluding those in nested bodies
+     */
+    private static List<Expression> expressionsOf(CodeElement element) {
+        if (element instanceof Expression) {
+            return List.of((Expression) element);
+        }
+        else if (element instanceof Assignment) {
+            return List.of(((Assignment) element).expression);
+        }
+        else if (element instanceof ReturnExpression) {
+            return List.of(((ReturnExpression) element).expression);
+        }
+        else if (element instanceof TypedReturn) {
+            return List.of(((TypedReturn) element).expression);
+        }
+        else if (element instanceof FieldSet) {
+            var fieldSet = (FieldSet) element;
+            return List.of(fieldSet.fieldReference.expression, fieldSet.expression);
+        }
+        else if (element instanceof StaticFieldSet) {
+            return List.of(((StaticFieldSet) element).expression);
+        }
+        else if (element instanceof ArraySet) {
+            var arraySet = (ArraySet) element;
+            return List.of(arraySet.arrayRef, arraySet.index, arraySet.value);
+        }
+        else if (element instanceof Conditional) {
+            var condition = ((Conditional) element).condition;
+            return condition == null ? List.of() : List.of(condition);
+        }
+        else if (element instanceof Loop) {
+            var condition = ((Loop) element).condition;
+            return condition == null ? List.of() : List.of(condition);
+        }
+        else if (element instanceof Switch) {
+            return List.of(((Switch) element).expression);
+        }
+        return List.of();
+    }
+
+    private static void collectReads(Expression expression, Consumer<String> reads) {
+        if (expression instanceof VariableRead) {
+            reads.accept(((VariableRead) expression).variable);
+        }
+        else if (expression instanceof Binary) {
+            var binary = (Binary) expression;
+            collectReads(binary.left, reads);
+            collectReads(binary.right, reads);
+        }
+        else if (expression instanceof Unary) {
+            collectReads(((Unary) expression).expression, reads);
+        }
+        else if (expression instanceof Cast) {
+            collectReads(((Cast) expression).expression, reads);
+        }
+        else if (expression instanceof Call) {
+            for (var argument : ((Call) expression).arguments) {
+                collectReads(argument, reads);
+            }
+        }
+        else if (expression instanceof Constructor) {
+            for (var argument : ((Constructor) expression).arguments) {
+                collectReads(argument, reads);
+            }
+        }
+        else if (expression instanceof NewArray) {
+            collectReads(((NewArray) expression).size, reads);
+        }
+        else if (expression instanceof ArrayRead) {
+            var arrayRead = (ArrayRead) expression;
+            collectReads(arrayRead.arrayRef, reads);
+            collectReads(arrayRead.index, reads);
+        }
+        else if (expression instanceof ArrayLength) {
+            collectReads(((ArrayLength) expression).expression, reads);
+        }
+        else if (expression instanceof FieldReference) {
+            collectReads(((FieldReference) expression).expression, reads);
+        }
+    }
+
+    /**
+     * Determines whether the value a switch arm assigns to a variable may be read after the arm completes.
+     */
+    private static class Liveness {
+        private final List<CodeElement> arm;
+        private final String variable;
+        private boolean read;
+
+        Liveness(List<CodeElement> arm, String variable) {
+            this.arm = arm;
+            this.variable = variable;
+        }
+
+        boolean isReadAfterArm(List<CodeElement> elements) {
+            flow(elements, false);
+            return read;
+        }
+
+        /**
+         * @param reaching true if the value the arm assigned may reach the start of the elements
+         * @return true if the value may reach the end of the elements
+         */
+        private boolean flow(List<CodeElement> elements, boolean reaching) {
+            for (var element : elements) {
+                if (reaching) {
+                    for (var expression : expressionsOf(element)) {
+                        collectReads(expression, v -> read |= v.equals(variable));
+                    }
+                }
+                if (element instanceof Assignment) {
+                    reaching &= !((Assignment) element).variable.equals(variable);
+                }
+                else if (element instanceof Conditional) {
+                    var conditional = (Conditional) element;
+                    var outcome = flow(conditional.body, reaching);
+                    var hasElse = false;
+                    for (var alternate : conditional.alternates) {
+                        if (alternate.condition == null) {
+                            hasElse = true;
+                        }
+                        else if (reaching) {
+                            collectReads(alternate.condition, v -> read |= v.equals(variable));
+                        }
+                        outcome |= flow(alternate.body, reaching);
+                    }
+                    reaching = outcome || (!hasElse && reaching);
+                }
+                else if (element instanceof Loop) {
+                    var loop = (Loop) element;
+                    if (contains(loop.body)) {
+                        // The value can reach the next iteration, and leave the loop through a break
+                        flow(loop.body, true);
+                        if (loop.condition != null) {
+                            collectReads(loop.condition, v -> read |= v.equals(variable));
+                        }
+                        reaching = true;
+                    }
+                    else {
+                        flow(loop.body, reaching);
+                    }
+                }
+                else if (element instanceof Switch) {
+                    var switchStatement = (Switch) element;
+                    var outcome = flow(switchStatement.defaultCase, reaching);
+                    for (var caseBody : switchStatement.cases.values()) {
+                        outcome |= caseBody == arm || flow(caseBody, reaching);
+                    }
+                    reaching = outcome;
+                }
+                else if (element instanceof ReturnExpression || element instanceof TypedReturn
+                        || element instanceof ReturnVoid || element instanceof Escape || element instanceof Skip) {
+                    // Breaks and continues are accounted for by the enclosing loop
+                    return false;
+                }
+            }
+            return reaching;
+        }
+
+        private boolean contains(List<CodeElement> elements) {
+            var found = new boolean[1];
+            forEachElement(elements, element -> {
+                if (element instanceof Switch) {
+                    found[0] |= ((Switch) element).cases.values().stream().anyMatch(caseBody -> caseBody == arm);
+                }
+            });
+            return found[0];
+        }
+    }
+
+    private static class Arm {
+        final Switch owner;
+        final Object key;
+        final List<CodeElement> body;
+        final Arm parent;
+        final int size;
+
+        Arm(Switch owner, Object key, List<CodeElement> body, Arm parent, int size) {
+            this.owner = owner;
+            this.key = key;
+            this.body = body;
+            this.parent = parent;
+            this.size = size;
+        }
+    }
+}
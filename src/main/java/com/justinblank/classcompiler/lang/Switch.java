@@ -10,6 +10,7 @@ public class Switch extends Statement {
     List<CodeElement> defaultCase = null;
 
     Boolean isIntegerSwitch = null;
+    Strategy strategy = Strategy.AUTO;
 
     public Switch(Expression expression) {
         this.expression = Objects.requireNonNull(expression, "Cannot have a null expression for a switch constructor");
@@ -32,18 +33,13 @@ public class Switch extends Statement {
         return caseKeys;
     }
 
-    public static boolean isDense(List<Integer> integers) {
-        int min = integers.get(0);
-        int max = integers.get(integers.size() - 1);
-        if (max - min != (integers.size() - 1)) {
-            return false;
-        }
-        for (var i = 0; i < integers.size() - 1; i++) {
-            if (integers.get(i+1) != integers.get(i) + 1) {
-                return false;
-            }
+    public List<String> stringCases() {
+        List<String> caseKeys = new ArrayList<>();
+        for (var k : cases.keySet()) {
+            caseKeys.add((String) k);
         }
-        return true;
+        Collections.sort(caseKeys);
+        return caseKeys;
     }
 
     public List<CodeElement> getElements(Object o) {
@@ -73,17 +69,17 @@ public class Switch extends Statement {
     }
 
     public Switch setCase(String value, List<CodeElement> body) {
-        throw new UnsupportedOperationException("TODO");
-//        if (isIntegerSwitch == null) {
-//            isIntegerSwitch = false;
-//        }
-//        else if (isIntegerSwitch) {
-//            throw new IllegalArgumentException("Tried to add a string to an integer switch statement");
-//        }
-//        if (cases.containsKey(value)) {
-//            throw new IllegalStateException("Tried to redefine switch case='" + value + "'");
-//        }
-//        cases.put(value, body);
+        if (isIntegerSwitch == null) {
+            isIntegerSwitch = false;
+        }
+        else if (isIntegerSwitch) {
+            throw new IllegalArgumentException("Tried to add a string to an integer switch statement");
+        }
+        if (cases.containsKey(value)) {
+            throw new IllegalStateException("Tried to redefine switch case='" + value + "'");
+        }
+        cases.put(value, body);
+        return this;
     }
 
     public List<CodeElement> getDefaultCase() {
@@ -101,6 +97,21 @@ public class Switch extends Statement {
         return this;
     }
 
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * Choose how the switch is dispatched, instead of letting the compiler decide.
+     *
+     * @param strategy the strategy
+     * @return this switch
+     */
+    public Switch withStrategy(Strategy strategy) {
+        this.strategy = Objects.requireNonNull(strategy, "Cannot have a null switch strategy");
+        return this;
+    }
+
     public CodeElement getExpression() {
         return expression;
     }
@@ -108,4 +119,27 @@ public class Switch extends Statement {
     public String toString() {
         return "switch (" + expression.toString() + ")";
     }
+
+    /**
+     * How the value of a switch is mapped to its case.
+     */
+    public enum Strategy {
+        /**
+         * Let the compiler choose, based on the number and spread of the keys.
+         */
+        AUTO,
+        /**
+         * Tableswitch and lookupswitch instructions.
+         */
+        JUMP_TABLE,
+        /**
+         * A balanced tree of comparisons.
+         */
+        BINARY_SEARCH,
+        /**
+         * A perfect hash of the keys, stored in static arrays, followed by a tableswitch on the hashed value. Falls
+         * back to jump tables if no perfect hash is found, or if the arrays wouldn't fit in the static initializer.
+         */
+        PERFECT_HASH
+    }
 }
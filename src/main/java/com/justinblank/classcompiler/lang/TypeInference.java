@@ -4,10 +4,7 @@ import com.justinblank.classcompiler.ClassCompilationException;
 import com.justinblank.classcompiler.CompilerUtil;
 import com.justinblank.classcompiler.Method;
 
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Objects;
+import java.util.*;
 
 public class TypeInference {
 
@@ -15,6 +12,11 @@ public class TypeInference {
 
     private final Method method;
 
+    // The inferred type of each expression, by identity, so that the compiler can ask for the type of every node of a
+    // nested expression without walking its subtree again. Only resolved types are kept, as an unresolved type may
+    // still be resolved by inferring the types of later elements
+    private final Map<CodeElement, Type> types = new IdentityHashMap<>();
+
     public TypeInference(String thisType, Method method) {
         this.thisType = ReferenceType.of(thisType);
         this.method = method;
@@ -28,6 +30,29 @@ public class TypeInference {
 
     public Type analyze(CodeElement element, Map<String, TypeVariable> environment) {
         Objects.requireNonNull(element, "Cannot perform type inference on a null element");
+        // Leaves are cheap, and a variable's type variable may be replaced when it's assigned
+        if (!(element instanceof Expression) || element instanceof VariableRead || element instanceof Literal
+                || element instanceof ThisRef) {
+            return infer(element, environment);
+        }
+        var type = types.get(element);
+        if (type == null) {
+            type = infer(element, environment);
+            if (type != null && type.resolved()) {
+                types.put(element, type);
+            }
+        }
+        return type;
+    }
+
+    /**
+     * Forget the types inferred for expressions, once they're no longer needed.
+     */
+    public void clear() {
+        types.clear();
+    }
+
+    private Type infer(CodeElement element, Map<String, TypeVariable> environment) {
         if (element instanceof Call) {
             var call = (Call) element;
             return call.returnType;
@@ -156,41 +181,37 @@ public class TypeInference {
         }
     }
 
-    static Type prune(Type t) {
-        if (t instanceof TypeVariable) {
-            var typeVar = (TypeVariable) t;
-            typeVar.type = prune(typeVar.type);
-            return typeVar.type;
-        }
-        return t;
-    }
-
     static void unify(Type t1, Type t2) {
-        prune(t1);
-        prune(t2);
-
+        if (t1 instanceof TypeVariable && t2 instanceof TypeVariable) {
+            var t1Type = t1.type();
+            var t2Type = t2.type();
+            if (t1Type != null && t2Type != null) {
+                // Both are bound, so there's nothing to merge, but the types must agree
+                unify(t1Type, t2Type);
+            }
+            else {
+                TypeVariable.union((TypeVariable) t1, (TypeVariable) t2);
+            }
+            return;
+        }
         if (t1 instanceof TypeVariable) {
             var t1TypeVar = (TypeVariable) t1;
-            if (t1TypeVar.type == null) {
-                t1TypeVar.type = t2.type();
+            if (t1TypeVar.type() == null) {
+                t1TypeVar.bind(t2.type());
             }
             else {
-                // YOLO infinite loop?
-                unify(t1TypeVar.type, t2);
+                unify(t1TypeVar.type(), t2);
             }
+            return;
         }
-        else if (t2 instanceof TypeVariable && !t2.resolved()) {
-            var t2TypeVar = (TypeVariable) t2;
-            if (t2TypeVar.type == null) {
-                t2TypeVar.type = t1.type();
-            }
+        if (t2 instanceof TypeVariable && t2.type() == null) {
+            ((TypeVariable) t2).bind(t1.type());
+            return;
         }
-        else {
-            var t1Type = t1.type();
-            var t2Type = t2.type();
-            if (typesAreIncompatible(t1Type, t2Type)) {
-                throw new TypeCheckException("Cannot unify " + t1Type.typeString() + " with " + t2Type.typeString());
-            }
+        var t1Type = t1.type();
+        var t2Type = t2.type();
+        if (typesAreIncompatible(t1Type, t2Type)) {
+            throw new TypeCheckException("Cannot unify " + t1Type.typeString() + " with " + t2Type.typeString());
         }
     }
 
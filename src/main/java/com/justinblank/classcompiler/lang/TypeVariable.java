@@ -1,25 +1,29 @@
 package com.justinblank.classcompiler.lang;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 // https://github.com/rob-smallshire/hindley-milner-python
+// Type variables are compared by identity, so they carry no id, and creating them touches no shared state
+//
+// Variables that have been unified form a class in a union-find forest. The root of each class holds the type bound to
+// every variable in it. Finding the root compresses the path to it, and merging classes hangs the shallower tree under
+// the deeper one, so a sequence of operations takes close to linear time.
 public class TypeVariable implements Type {
 
-    static final AtomicLong COUNTER = new AtomicLong(0);
-
-    final long l;
-    Type type = null;
+    // The type bound to this variable's class. Only meaningful on the root
+    private Type type = null;
+    // The next variable on the path to the root of this variable's class, or null for the root
+    private TypeVariable parent;
+    // An upper bound on the height of the tree under this variable, while it's a root
+    private int rank;
 
     public Type type() {
-        return type;
+        return find().type;
     }
 
-    private TypeVariable(long l) {
-        this.l = l;
+    private TypeVariable() {
     }
 
     static TypeVariable fresh() {
-        return new TypeVariable(COUNTER.incrementAndGet());
+        return new TypeVariable();
     }
 
     public static TypeVariable of(Type type) {
@@ -28,12 +32,60 @@ public class TypeVariable implements Type {
         return variable;
     }
 
+    /**
+     * @return the root of this variable's class
+     */
+    TypeVariable find() {
+        var root = this;
+        while (root.parent != null) {
+            root = root.parent;
+        }
+        var current = this;
+        while (current.parent != null) {
+            var next = current.parent;
+            current.parent = root;
+            current = next;
+        }
+        return root;
+    }
+
+    /**
+     * Bind this variable's class to a type.
+     */
+    void bind(Type type) {
+        find().type = type;
+    }
+
+    /**
+     * Merge the classes of two variables. If one class is bound to a type, the merged class is bound to it.
+     */
+    static void union(TypeVariable first, TypeVariable second) {
+        var firstRoot = first.find();
+        var secondRoot = second.find();
+        if (firstRoot == secondRoot) {
+            return;
+        }
+        var type = firstRoot.type != null ? firstRoot.type : secondRoot.type;
+        if (firstRoot.rank < secondRoot.rank) {
+            var swap = firstRoot;
+            firstRoot = secondRoot;
+            secondRoot = swap;
+        }
+        secondRoot.parent = firstRoot;
+        secondRoot.type = null;
+        if (firstRoot.rank == secondRoot.rank) {
+            firstRoot.rank++;
+        }
+        firstRoot.type = type;
+    }
+
     public String typeString() {
-        return this.type.typeString();
+        return type().typeString();
     }
 
     @Override
     public boolean resolved() {
+        var type = type();
         if (type == null) {
             return false;
         }
@@ -43,6 +95,7 @@ public class TypeVariable implements Type {
     // TODO: make useful
     public String toString() {
         // TODO: think harder about this
+        var type = type();
         if (type == null || type.resolved()) {
             return "TypeVariable: " + type;
         }
@@ -0,0 +1,103 @@
+package com.justinblank.classloader;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Objects;
+
+/**
+ * Decides which class loader a generated class is defined in.
+ *
+ * A class can only be unloaded once its defining loader is unreachable, so defining every class in the shared
+ * {@link MyClassLoader#getInstance()} keeps every generated class alive for the lifetime of the JVM. The other
+ * strategies trade some loader overhead for the ability to reclaim classes that are no longer used.
+ */
+public interface ClassLoaderStrategy {
+
+    /**
+     * Define a class.
+     *
+     * @param name the binary name of the class, e.g. "com.example.Foo"
+     * @param classBytes the class file
+     * @return the defined class
+     */
+    Class<?> define(String name, byte[] classBytes);
+
+    /**
+     * @return a strategy that defines every class in the shared {@link MyClassLoader}. Classes are never unloaded.
+     */
+    static ClassLoaderStrategy shared() {
+        return SharedLoaderStrategy.INSTANCE;
+    }
+
+    /**
+     * @return a strategy that defines each class in a new loader, so each class can be unloaded as soon as it is
+     * unreachable
+     */
+    static ClassLoaderStrategy perClass() {
+        return PerClassLoaderStrategy.INSTANCE;
+    }
+
+    /**
+     * Create a strategy that defines all its classes in a single loader, so that they can see each other and are
+     * unloaded together, once the strategy and all of the classes are unreachable.
+     *
+     * @return the new strategy
+     */
+    static ClassLoaderStrategy group() {
+        return new GroupLoaderStrategy(null);
+    }
+
+    /**
+     * Create a strategy that defines all its classes in a single loader with the given parent.
+     *
+     * @param parent the parent of the group's loader
+     * @return the new strategy
+     */
+    static ClassLoaderStrategy group(ClassLoader parent) {
+        return new GroupLoaderStrategy(parent);
+    }
+
+    /**
+     * Create a strategy that spreads classes over a bounded number of loaders. Once a loader has defined
+     * classesPerLoader classes, it is replaced by a fresh loader, and can be unloaded after all of its classes become
+     * unreachable.
+     *
+     * @param loaders the number of loaders in use at any one time
+     * @param classesPerLoader the number of classes to define in a loader before replacing it
+     * @return the new strategy
+     */
+    static ClassLoaderStrategy pool(int loaders, int classesPerLoader) {
+        return new PooledLoaderStrategy(loaders, classesPerLoader);
+    }
+
+    /**
+     * Create a strategy that defines classes as hidden classes (see Lookup.defineHiddenClass). Hidden classes are not
+     * registered by name, so they cannot be found by Class.forName or referenced from other classes, but they can be
+     * unloaded as soon as they become unreachable. The strategy creates a small anchor class in each package it defines
+     * classes in.
+     *
+     * @return the new strategy
+     * @throws UnsupportedOperationException if the JVM doesn't support hidden classes
+     */
+    static ClassLoaderStrategy hidden() {
+        return new HiddenClassStrategy(null);
+    }
+
+    /**
+     * Create a strategy that defines hidden classes using the given lookup. The generated classes must be in the same
+     * package as the lookup class, and the lookup must have full privilege access.
+     *
+     * @param lookup the lookup used to define classes
+     * @return the new strategy
+     * @throws UnsupportedOperationException if the JVM doesn't support hidden classes
+     */
+    static ClassLoaderStrategy hidden(MethodHandles.Lookup lookup) {
+        return new HiddenClassStrategy(Objects.requireNonNull(lookup, "lookup cannot be null"));
+    }
+
+    /**
+     * @return whether the running JVM can define hidden classes
+     */
+    static boolean hiddenClassesSupported() {
+        return HiddenClassStrategy.isSupported();
+    }
+}
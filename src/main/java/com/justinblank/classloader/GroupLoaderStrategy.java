@@ -0,0 +1,15 @@
+package com.justinblank.classloader;
+
+class GroupLoaderStrategy implements ClassLoaderStrategy {
+
+    private final MyClassLoader loader;
+
+    GroupLoaderStrategy(ClassLoader parent) {
+        this.loader = parent == null ? new MyClassLoader() : new MyClassLoader(parent);
+    }
+
+    @Override
+    public Class<?> define(String name, byte[] classBytes) {
+        return loader.loadClass(name, classBytes);
+    }
+}
@@ -0,0 +1,114 @@
+package com.justinblank.classloader;
+
+import org.objectweb.asm.ClassWriter;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Defines classes with Lookup.defineHiddenClass. Mako targets Java 11, where that method doesn't exist, so it's
+ * invoked reflectively, and this strategy can only be created on Java 15 or later.
+ */
+class HiddenClassStrategy implements ClassLoaderStrategy {
+
+    static final String ANCHOR_CLASS_NAME = "MakoHiddenClassAnchor";
+
+    private static final Method DEFINE_HIDDEN_CLASS;
+    private static final Object NO_OPTIONS;
+
+    static {
+        Method defineHiddenClass = null;
+        Object noOptions = null;
+        try {
+            var optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            noOptions = Array.newInstance(optionClass, 0);
+            defineHiddenClass = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class,
+                    boolean.class, noOptions.getClass());
+        } catch (ReflectiveOperationException e) {
+            // running on a JVM without hidden classes
+        }
+        DEFINE_HIDDEN_CLASS = defineHiddenClass;
+        NO_OPTIONS = noOptions;
+    }
+
+    private final MethodHandles.Lookup lookup;
+    // Used when no lookup was provided: a lookup for each package, on a class defined just to act as the host
+    private final Map<String, MethodHandles.Lookup> anchorLookups = new HashMap<>();
+
+    HiddenClassStrategy(MethodHandles.Lookup lookup) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Hidden classes require Java 15 or later, running on "
+                    + System.getProperty("java.version"));
+        }
+        this.lookup = lookup;
+    }
+
+    static boolean isSupported() {
+        return DEFINE_HIDDEN_CLASS != null;
+    }
+
+    @Override
+    public Class<?> define(String name, byte[] classBytes) {
+        var packageLookup = lookup != null ? lookup : anchorLookup(packageOf(name));
+        try {
+            var hiddenLookup = (MethodHandles.Lookup) DEFINE_HIDDEN_CLASS.invoke(packageLookup, classBytes, true, NO_OPTIONS);
+            return hiddenLookup.lookupClass();
+        } catch (InvocationTargetException e) {
+            var cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException("Failed to define hidden class " + name, cause);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to define hidden class " + name, e);
+        }
+    }
+
+    private static String packageOf(String name) {
+        int lastDot = name.lastIndexOf('.');
+        return lastDot < 0 ? "" : name.substring(0, lastDot);
+    }
+
+    private synchronized MethodHandles.Lookup anchorLookup(String packageName) {
+        return anchorLookups.computeIfAbsent(packageName, HiddenClassStrategy::defineAnchor);
+    }
+
+    /**
+     * A hidden class must be in the same package as the class of the lookup that defines it. When the caller doesn't
+     * provide one, we define an empty class in the right package, whose only purpose is to hand out a full privilege
+     * lookup on itself.
+     */
+    private static MethodHandles.Lookup defineAnchor(String packageName) {
+        var anchorName = packageName.isEmpty() ? ANCHOR_CLASS_NAME : packageName + "." + ANCHOR_CLASS_NAME;
+        var anchor = new MyClassLoader().loadClass(anchorName, anchorBytes(anchorName.replace('.', '/')));
+        try {
+            return (MethodHandles.Lookup) anchor.getMethod("lookup").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create lookup for package " + packageName, e);
+        }
+    }
+
+    private static byte[] anchorBytes(String internalName) {
+        var classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        classWriter.visit(V1_8, ACC_PUBLIC | ACC_FINAL, internalName, null, "java/lang/Object", null);
+        var mv = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;", false);
+        mv.visitInsn(ARETURN);
+        mv.visitMaxs(-1, -1);
+        mv.visitEnd();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+}
@@ -1,15 +1,111 @@
 package com.justinblank.classloader;
 
+import java.lang.ref.Cleaner;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The loader mako defines generated classes in. A single shared instance is available through
+ * {@link #getInstance()}, but instances can also be created directly, so that the classes they define can be unloaded
+ * once neither the loader nor any of its classes is reachable. See {@link ClassLoaderStrategy}.
+ */
 public class MyClassLoader extends ClassLoader {
 
+    private static final Cleaner CLEANER = Cleaner.create();
+    private static final AtomicLong LIVE_LOADERS = new AtomicLong();
+    private static final AtomicLong DEFINED_BYTES = new AtomicLong();
+
+    static {
+        // Lets independent classes be defined concurrently, rather than serializing on the loader
+        registerAsParallelCapable();
+    }
+
     private static final MyClassLoader INSTANCE = new MyClassLoader();
 
+    // Shared with the cleanup action, which must not reference the loader itself
+    private final AtomicLong definedBytes = new AtomicLong();
+    private int definedClasses;
+
+    public MyClassLoader() {
+        super();
+        register();
+    }
+
+    public MyClassLoader(ClassLoader parent) {
+        super(parent);
+        register();
+    }
+
+    private void register() {
+        LIVE_LOADERS.incrementAndGet();
+        var bytes = definedBytes;
+        CLEANER.register(this, () -> {
+            LIVE_LOADERS.decrementAndGet();
+            DEFINED_BYTES.addAndGet(-bytes.get());
+        });
+    }
+
     public static MyClassLoader getInstance() {
         return INSTANCE;
     }
 
     public Class<?> loadClass(String name, byte[] b)
             throws ClassFormatError {
-        return defineClass(name, b, 0, b.length, null);
+        var cls = defineClass(name, b, 0, b.length, null);
+        synchronized (this) {
+            definedClasses++;
+        }
+        definedBytes.addAndGet(b.length);
+        DEFINED_BYTES.addAndGet(b.length);
+        return cls;
+    }
+
+    /**
+     * Define a class, unless this loader has already defined a class with the same name. The check and the definition
+     * happen atomically, so concurrent callers can't both try to define the name.
+     *
+     * @param name the binary name of the class
+     * @param b the class file
+     * @return the defined class, or null if the name was already defined
+     */
+    Class<?> loadClassIfAbsent(String name, byte[] b) {
+        synchronized (getClassLoadingLock(name)) {
+            if (findLoadedClass(name) != null) {
+                return null;
+            }
+            return loadClass(name, b);
+        }
+    }
+
+    /**
+     * @param name the binary name of a class
+     * @return whether this loader has already defined a class with the given name
+     */
+    public boolean isDefined(String name) {
+        synchronized (getClassLoadingLock(name)) {
+            return findLoadedClass(name) != null;
+        }
+    }
+
+    /**
+     * @return the number of classes this loader has defined
+     */
+    public synchronized int definedClasses() {
+        return definedClasses;
+    }
+
+    /**
+     * @return the number of MyClassLoader instances that have not yet been garbage collected, including the shared
+     * instance
+     */
+    public static long liveLoaders() {
+        return LIVE_LOADERS.get();
+    }
+
+    /**
+     * @return the total size of the class files defined by MyClassLoader instances that have not yet been garbage
+     * collected
+     */
+    public static long definedBytes() {
+        return DEFINED_BYTES.get();
     }
 }
@@ -0,0 +1,13 @@
+package com.justinblank.classloader;
+
+class PerClassLoaderStrategy implements ClassLoaderStrategy {
+
+    static final PerClassLoaderStrategy INSTANCE = new PerClassLoaderStrategy();
+
+    private PerClassLoaderStrategy() {}
+
+    @Override
+    public Class<?> define(String name, byte[] classBytes) {
+        return new MyClassLoader().loadClass(name, classBytes);
+    }
+}
@@ -0,0 +1,42 @@
+package com.justinblank.classloader;
+
+class PooledLoaderStrategy implements ClassLoaderStrategy {
+
+    private final MyClassLoader[] loaders;
+    private final int classesPerLoader;
+    private int next;
+
+    PooledLoaderStrategy(int loaders, int classesPerLoader) {
+        if (loaders < 1) {
+            throw new IllegalArgumentException("Pool must contain at least one loader, got " + loaders);
+        }
+        if (classesPerLoader < 1) {
+            throw new IllegalArgumentException("Loaders must be able to define at least one class, got " + classesPerLoader);
+        }
+        this.loaders = new MyClassLoader[loaders];
+        this.classesPerLoader = classesPerLoader;
+    }
+
+    @Override
+    public Class<?> define(String name, byte[] classBytes) {
+        while (true) {
+            var cls = loaderFor(name).loadClassIfAbsent(name, classBytes);
+            if (cls != null) {
+                return cls;
+            }
+            // Another thread defined the same name in the loader we chose, so loaderFor will replace that loader
+        }
+    }
+
+    private synchronized MyClassLoader loaderFor(String name) {
+        int index = next;
+        next = (next + 1) % loaders.length;
+        var loader = loaders[index];
+        // A loader can only define a given name once, so a repeated name also forces a fresh loader
+        if (loader == null || loader.definedClasses() >= classesPerLoader || loader.isDefined(name)) {
+            loader = new MyClassLoader();
+            loaders[index] = loader;
+        }
+        return loader;
+    }
+}
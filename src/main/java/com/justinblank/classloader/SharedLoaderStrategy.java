@@ -0,0 +1,13 @@
+package com.justinblank.classloader;
+
+class SharedLoaderStrategy implements ClassLoaderStrategy {
+
+    static final SharedLoaderStrategy INSTANCE = new SharedLoaderStrategy();
+
+    private SharedLoaderStrategy() {}
+
+    @Override
+    public Class<?> define(String name, byte[] classBytes) {
+        return MyClassLoader.getInstance().loadClass(name, classBytes);
+    }
+}
@@ -0,0 +1,126 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+
+public class ClassCacheTest {
+
+    @Test
+    public void testIdenticalBuildersHaveSameHash() {
+        var name = ClassCompilerTest.testClassName();
+        assertEquals(ClassCache.hash(builder(name, 1)), ClassCache.hash(builder(name, 1)));
+    }
+
+    @Test
+    public void testHashDependsOnStructure() {
+        var name = ClassCompilerTest.testClassName();
+        assertNotEquals(ClassCache.hash(builder(name, 1)), ClassCache.hash(builder(name, 2)));
+        assertNotEquals(ClassCache.hash(builder(name, 1)), ClassCache.hash(builder(name + "a", 1)));
+
+        var withField = builder(name, 1);
+        withField.addField(new Field(ACC_PUBLIC, "x", "I", null, null));
+        assertNotEquals(ClassCache.hash(builder(name, 1)), ClassCache.hash(withField));
+    }
+
+    @Test
+    public void testHashCoversBlocks() {
+        var name = ClassCompilerTest.testClassName();
+        assertNotEquals(ClassCache.hash(blockBuilder(name, 1)), ClassCache.hash(blockBuilder(name, 2)));
+        assertEquals(ClassCache.hash(blockBuilder(name, 1)), ClassCache.hash(blockBuilder(name, 1)));
+    }
+
+    @Test
+    public void testCacheReturnsSameClass() throws Exception {
+        var cache = new ClassCache(4);
+        var name = ClassCompilerTest.testClassName();
+        var first = cache.getClass(builder(name, 1));
+        var second = cache.getClass(builder(name, 1));
+        assertSame(first, second);
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+        var instance = first.getDeclaredConstructors()[0].newInstance();
+        assertEquals(6, first.getMethod("compute", int.class).invoke(instance, 5));
+    }
+
+    @Test
+    public void testCacheReturnsBytes() {
+        var cache = new ClassCache(4);
+        var name = ClassCompilerTest.testClassName();
+        var first = cache.getBytes(builder(name, 1));
+        var second = cache.getBytes(builder(name, 1));
+        assertArrayEquals(first, second);
+        assertEquals(1, cache.hits());
+    }
+
+    @Test
+    public void testCacheEvictsLeastRecentlyUsed() {
+        var cache = new ClassCache(2, ClassLoaderStrategy.perClass());
+        var name = ClassCompilerTest.testClassName();
+        cache.getBytes(builder(name, 1));
+        cache.getBytes(builder(name, 2));
+        cache.getBytes(builder(name, 1));
+        cache.getBytes(builder(name, 3));
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+
+        cache.getBytes(builder(name, 1));
+        assertEquals(2, cache.hits());
+        cache.getBytes(builder(name, 2));
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void testCacheDefinesClassAgainAfterEviction() throws Exception {
+        var cache = new ClassCache(1);
+        var name = ClassCompilerTest.testClassName();
+        var first = cache.getClass(builder(name, 1));
+        cache.getClass(builder(name, 2));
+        assertEquals(1, cache.evictions());
+        var second = cache.getClass(builder(name, 1));
+        assertNotSame(first, second);
+        var instance = second.getDeclaredConstructors()[0].newInstance();
+        assertEquals(6, second.getMethod("compute", int.class).invoke(instance, 5));
+    }
+
+    @Test
+    public void testCacheDefinesBuildersWithSameName() throws Exception {
+        var cache = new ClassCache(4);
+        var name = ClassCompilerTest.testClassName();
+        var first = cache.getClass(builder(name, 1));
+        var second = cache.getClass(builder(name, 2));
+        assertEquals(first.getName(), second.getName());
+        assertEquals(6, first.getMethod("compute", int.class).invoke(first.getDeclaredConstructors()[0].newInstance(), 5));
+        assertEquals(7, second.getMethod("compute", int.class).invoke(second.getDeclaredConstructors()[0].newInstance(), 5));
+    }
+
+    @Test
+    public void testCacheRejectsNonPositiveSize() {
+        assertThrows(IllegalArgumentException.class, () -> new ClassCache(0));
+    }
+
+    private static ClassBuilder builder(String className, int increment) {
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("compute", List.of("I"), "I", new GenericVars("x"));
+        method.cond(gt(read("x"), 10)).withBody(List.of(returnValue(read("x"))));
+        method.returnValue(plus(read("x"), literal(increment)));
+        return builder;
+    }
+
+    private static ClassBuilder blockBuilder(String className, int value) {
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("compute", List.of(), "I", new GenericVars());
+        method.addBlock().push(value).addReturn(IRETURN);
+        return builder;
+    }
+}
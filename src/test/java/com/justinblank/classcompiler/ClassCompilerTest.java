@@ -1,11 +1,24 @@
 package com.justinblank.classcompiler;
 
+import com.justinblank.classloader.ClassLoaderStrategy;
+import com.justinblank.classloader.MyClassLoader;
 import org.junit.Test;
 import org.objectweb.asm.Opcodes;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.justinblank.classcompiler.lang.ArrayRead.arrayRead;
+import static com.justinblank.classcompiler.lang.BinaryOperator.lt;
+import static com.justinblank.classcompiler.lang.BinaryOperator.plus;
+import static com.justinblank.classcompiler.lang.BinaryOperator.sub;
+import static com.justinblank.classcompiler.lang.CodeElement.arrayLength;
+import static com.justinblank.classcompiler.lang.CodeElement.read;
+import static com.justinblank.classcompiler.lang.CodeElement.set;
+
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.*;
 import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
@@ -64,6 +77,24 @@ public class ClassCompilerTest {
         Object o = c.getConstructors()[0].newInstance();
     }
 
+    @Test
+    public void testArrayArgument() throws Exception {
+        var testClassName = testClassName();
+        ClassBuilder builder = new ClassBuilder(testClassName, "", "java/lang/Object", null);
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("sum", List.of("[I"), "I", new GenericVars("array", "index", "total"));
+        method.set("index", 0);
+        method.set("total", 0);
+        method.loop(lt(read("index"), arrayLength(read("array"))), List.of(
+                set("total", plus(read("total"), arrayRead(read("array"), read("index")))),
+                set("index", plus(read("index"), 1))));
+        method.returnValue(read("total"));
+
+        Class<?> c = new ClassCompiler(builder).generateClass();
+        Object o = c.getConstructors()[0].newInstance();
+        assertEquals(6, c.getMethod("sum", int[].class).invoke(o, (Object) new int[]{1, 2, 3}));
+    }
+
     @Test
     public void testConstructorSkeleton() {
         var testClassName = testClassName();
@@ -250,6 +281,150 @@ public class ClassCompilerTest {
         }
     }
 
+    @Test
+    public void testCompileAll() throws Exception {
+        var builders = new ArrayList<ClassBuilder>();
+        for (int i = 0; i < 32; i++) {
+            builders.add(loopingBuilder(testClassName(), i));
+        }
+        var pool = Executors.newFixedThreadPool(4);
+        try {
+            var classFiles = ClassCompiler.compileAll(builders, pool);
+            assertEquals(builders.size(), classFiles.size());
+            for (int i = 0; i < builders.size(); i++) {
+                var name = builders.get(i).getClassName();
+                var c = MyClassLoader.getInstance().loadClass(name, classFiles.get(i));
+                var o = c.getConstructors()[0].newInstance();
+                assertEquals(10 + i, c.getMethod("count").invoke(o));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompileAllPropagatesFailures() {
+        var builder = new ClassBuilder(testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("broken", List.of(), "I", new GenericVars());
+        method.returnValue(read("undefinedVariable"));
+        var builders = List.of(loopingBuilder(testClassName(), 0), builder);
+        assertThrows(ClassCompilationException.class, () -> ClassCompiler.compileAll(builders, ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void testCompileAllRejectsDuplicateBuilders() {
+        var builder = loopingBuilder(testClassName(), 0);
+        assertThrows(IllegalArgumentException.class, () -> ClassCompiler.compileAll(List.of(builder, builder), ForkJoinPool.commonPool()));
+    }
+
+    @Test
+    public void testParallelMethodResolution() throws Exception {
+        var builder = new ClassBuilder(testClassName(), "");
+        builder.addEmptyConstructor();
+        for (int i = 0; i < 50; i++) {
+            var method = builder.mkMethod("count" + i, List.of(), "I", new GenericVars("i"));
+            method.set("i", 0);
+            method.loop(lt(read("i"), i), List.of(set("i", plus(read("i"), 1))));
+            method.returnValue(read("i"));
+        }
+        var pool = Executors.newFixedThreadPool(4);
+        try {
+            var c = new ClassCompiler(builder).withMethodExecutor(pool).generateClass();
+            var o = c.getConstructors()[0].newInstance();
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, c.getMethod("count" + i).invoke(o));
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testParallelMethodResolutionPropagatesFailures() {
+        var builder = new ClassBuilder(testClassName(), "");
+        builder.addEmptyConstructor();
+        builder.mkMethod("ok", List.of(), "I", new GenericVars()).returnValue(1);
+        builder.mkMethod("broken", List.of(), "I", new GenericVars()).returnValue(read("undefinedVariable"));
+        var compiler = new ClassCompiler(builder).withMethodExecutor(ForkJoinPool.commonPool());
+        assertThrows(ClassCompilationException.class, compiler::generateClassAsBytes);
+    }
+
+    @Test
+    public void testListenerReceivesPhases() {
+        var className = testClassName();
+        var phases = new ArrayList<String>();
+        var sizes = new ArrayList<String>();
+        var listener = new CompilationListener() {
+            @Override
+            public void phaseCompleted(String cls, String methodName, CompilationPhase phase, long nanos, long allocatedBytes) {
+                assertEquals(className, cls);
+                assertTrue(nanos >= 0);
+                assertTrue(allocatedBytes >= -1);
+                phases.add(methodName + ":" + phase);
+            }
+
+            @Override
+            public void methodResolved(String cls, String methodName, int blocks, int operations) {
+                assertTrue(blocks > 0);
+                assertTrue(operations >= blocks);
+                sizes.add(methodName);
+            }
+        };
+        new ClassCompiler(loopingBuilder(className, 0)).withListener(listener).generateClass(ClassLoaderStrategy.perClass());
+
+        for (var phase : List.of(CompilationPhase.TYPE_INFERENCE, CompilationPhase.CONSTANT_FOLDING,
+                CompilationPhase.LOWERING, CompilationPhase.BLOCK_PRUNING, CompilationPhase.EMISSION, CompilationPhase.FRAME_COMPUTATION)) {
+            assertTrue(phases.contains("count:" + phase));
+        }
+        assertTrue(phases.contains("null:" + CompilationPhase.FRAME_COMPUTATION));
+        assertEquals("null:" + CompilationPhase.CLASS_DEFINITION, phases.get(phases.size() - 1));
+        assertTrue(sizes.contains("count"));
+        assertTrue(sizes.contains("<init>"));
+    }
+
+    @Test
+    public void testConstantIncrementsUseIinc() throws Exception {
+        var className = testClassName();
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("countDown", List.of("I"), "I", new GenericVars("x", "i", "j"));
+        method.set("i", 0);
+        method.set("j", 0);
+        method.loop(lt(read("i"), read("x")), List.of(
+                set("i", plus(1, read("i"))),
+                set("j", sub(read("j"), 3)),
+                set("j", plus(read("j"), 40000))));
+        method.returnValue(read("j"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(5 * 39997, cls.getMethod("countDown", int.class).invoke(instance, 5));
+
+        var increments = new ArrayList<Integer>();
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                if (op.inst == Operation.Inst.INCREMENT) {
+                    increments.add(op.count);
+                }
+            }
+        }
+        // 40000 is too large for IINC
+        assertEquals(List.of(1, -3), increments);
+    }
+
+    private static ClassBuilder loopingBuilder(String className, int offset) {
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("count", List.of(), "I", new GenericVars("i"));
+        method.set("i", offset);
+        method.loop(lt(read("i"), 10 + offset), List.of(set("i", plus(read("i"), 1))));
+        method.returnValue(read("i"));
+        return builder;
+    }
+
     public static String testClassName() {
         return "TestClass" + CLASS_NAME_COUNTER.incrementAndGet();
     }
@@ -0,0 +1,150 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.Builtin;
+import com.justinblank.classcompiler.lang.Void;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+import static com.justinblank.classcompiler.TestMethodUtil.countOpcode;
+import static com.justinblank.classcompiler.TestMethodUtil.hasSyntheticVars;
+import static com.justinblank.classcompiler.lang.ArrayRead.arrayRead;
+import static com.justinblank.classcompiler.lang.ArraySet.arraySet;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class CommonSubexpressionEliminationTest {
+
+    @Test
+    public void testReadsRepeatedArrayReadOnce() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = squareMethod(builder);
+
+        var cls = new ClassCompiler(builder).withCommonSubexpressionElimination(true)
+                .generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(9 + 3, cls.getMethod("square", int[].class, int.class).invoke(instance, new int[]{2, 3}, 1));
+        assertEquals(1, countOpcode(method, IALOAD));
+        assertTrue(hasSyntheticVars(method, "cse$"));
+    }
+
+    @Test
+    public void testReusesAssignedVariable() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I", "I"), "I", new GenericVars("x", "y", "a", "b"));
+        method.set("a", plus(read("x"), read("y")));
+        method.set("b", mul(plus(read("x"), read("y")), read("y")));
+        method.returnValue(sub(read("b"), read("a")));
+
+        var cls = new ClassCompiler(builder).withCommonSubexpressionElimination(true)
+                .generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(4 * (4 + 5), cls.getMethod("apply", int.class, int.class).invoke(instance, 4, 5));
+        assertEquals(1, countOpcode(method, IADD));
+        assertFalse(hasSyntheticVars(method, "cse$"));
+    }
+
+    @Test
+    public void testArrayWritesInvalidateArrayReads() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("[I", "I"), "I", new GenericVars("arr", "j", "before"));
+        method.set("before", plus(arrayRead(read("arr"), 0), 1));
+        // The index may be 0, so the write may change the element read before it
+        method.addElement(arraySet(read("arr"), read("j"), literal(10)));
+        method.returnValue(plus(read("before"), plus(arrayRead(read("arr"), 0), 1)));
+
+        var cls = new ClassCompiler(builder).withCommonSubexpressionElimination(true)
+                .generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int[].class, int.class);
+        assertEquals(2 + 11, m.invoke(instance, new int[]{1, 2}, 0));
+        assertEquals(2 + 2, m.invoke(instance, new int[]{1, 2}, 1));
+        assertEquals(2, countOpcode(method, IALOAD));
+    }
+
+    @Test
+    public void testCallsInvalidateFieldReads() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        builder.addField(new Field(ACC_PRIVATE, "count", "I", null, null));
+        var increment = builder.mkMethod("increment", List.of(), "V", new GenericVars());
+        increment.fieldSet(get("count", Builtin.I, thisRef()), plus(get("count", Builtin.I, thisRef()), 1));
+        increment.returnVoid();
+        var method = builder.mkMethod("apply", List.of(), "I", new GenericVars("before"));
+        method.set("before", mul(get("count", Builtin.I, thisRef()), 10));
+        method.call("increment", Void.VOID, thisRef());
+        method.returnValue(plus(read("before"), mul(get("count", Builtin.I, thisRef()), 10)));
+
+        var cls = new ClassCompiler(builder).withCommonSubexpressionElimination(true)
+                .generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(10, cls.getMethod("apply").invoke(instance));
+        assertEquals(10 + 20, cls.getMethod("apply").invoke(instance));
+    }
+
+    @Test
+    public void testDoesNotReorderExpressionsThatThrow() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I", "I", "[I"), "I",
+                new GenericVars("x", "y", "arr", "quotient"));
+        // The array length is evaluated after the division, so it can't be computed before this statement
+        method.set("quotient", plus(div(read("x"), read("y")), arrayLength(read("arr"))));
+        method.returnValue(plus(read("quotient"), arrayLength(read("arr"))));
+
+        var cls = new ClassCompiler(builder).withCommonSubexpressionElimination(true)
+                .generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int.class, int.class, int[].class);
+        assertEquals(3 + 2 + 2, m.invoke(instance, 6, 2, new int[2]));
+        var thrown = assertThrows(InvocationTargetException.class, () -> m.invoke(instance, 6, 0, null));
+        assertTrue(thrown.getCause() instanceof ArithmeticException);
+        assertFalse(hasSyntheticVars(method, "cse$"));
+    }
+
+    @Test
+    public void testDoesNotReuseValuesChangedInLoop() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("n", "i", "total"));
+        method.set("i", 0);
+        method.set("total", mul(read("i"), 2));
+        method.loop(lt(read("i"), read("n")), List.of(
+                set("total", plus(read("total"), mul(read("i"), 2))),
+                set("i", plus(read("i"), 1))));
+        method.returnValue(read("total"));
+
+        var cls = new ClassCompiler(builder).withCommonSubexpressionElimination(true)
+                .generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(2 * (0 + 1 + 2 + 3), cls.getMethod("apply", int.class).invoke(instance, 4));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = squareMethod(builder);
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(4 + 2, cls.getMethod("square", int[].class, int.class).invoke(instance, new int[]{2, 3}, 0));
+        assertEquals(3, countOpcode(method, IALOAD));
+        assertFalse(hasSyntheticVars(method, "cse$"));
+    }
+
+    private static Method squareMethod(ClassBuilder builder) {
+        var method = builder.mkMethod("square", List.of("[I", "I"), "I", new GenericVars("arr", "i"));
+        method.returnValue(plus(mul(arrayRead(read("arr"), read("i")), arrayRead(read("arr"), read("i"))),
+                arrayRead(read("arr"), read("i"))));
+        return method;
+    }
+}
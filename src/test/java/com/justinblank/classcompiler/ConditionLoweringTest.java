@@ -0,0 +1,117 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.Builtin;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.justinblank.classcompiler.TestMethodUtil.compileReturning;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static com.justinblank.classcompiler.lang.UnaryOperator.not;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class ConditionLoweringTest {
+
+    private static final double[] DOUBLES = {0, -0d, 1, -1, 1.5, Double.NaN, Double.POSITIVE_INFINITY};
+
+    @Test
+    public void testConditionsCompileToJumpChains() throws Exception {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("matches", List.of("I"), "I", new GenericVars("x"));
+        method.cond(or(and(gt(read("x"), 0), lt(read("x"), 10)), eq(read("x"), 42)))
+                .withBody(List.of(returnValue(1)));
+        method.returnValue(0);
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        for (var x = -2; x < 50; x++) {
+            var expected = (x > 0 && x < 10) || x == 42 ? 1 : 0;
+            assertEquals("x=" + x, expected, cls.getMethod("matches", int.class).invoke(instance, x));
+        }
+
+        // One conditional jump per comparison, and no booleans pushed or combined along the way
+        var jumps = 0;
+        var pushes = 0;
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                if (op.inst == Operation.Inst.JUMP) {
+                    assertNotEquals(GOTO, op.count);
+                    jumps++;
+                }
+                else if (op.inst == Operation.Inst.VALUE) {
+                    pushes++;
+                }
+                else if (op.inst == Operation.Inst.PASSTHROUGH) {
+                    assertNotEquals(IXOR, op.count);
+                    assertNotEquals(IAND, op.count);
+                    assertNotEquals(IOR, op.count);
+                }
+            }
+        }
+        assertEquals(3, jumps);
+        // 0, 10, 42 and the two return values
+        assertEquals(5, pushes);
+    }
+
+    @Test
+    public void testNestedConditionsAsValues() throws Exception {
+        var compiled = compileReturning(List.of("I", "I"), "Z",
+                not(or(and(gt(read("x"), read("y")), not(eq(read("x"), 3))),
+                        and(not(lt(read("y"), 0)), eq(read("x"), read("y"))))));
+        for (var x = -4; x <= 4; x++) {
+            for (var y = -4; y <= 4; y++) {
+                var expected = !((x > y && !(x == 3)) || (!(y < 0) && x == y));
+                assertEquals("x=" + x + ", y=" + y, expected, compiled.invoke(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testFloatingPointEquality() throws Exception {
+        var eq = compileReturning(List.of("D"), "Z", eq(read("x"), literal(1.5d)));
+        var neq = compileReturning(List.of("D"), "Z", neq(read("x"), read("x")));
+        var lte = compileReturning(List.of("D"), "Z", lte(read("x"), literal(0d)));
+        var notGt = compileReturning(List.of("D"), "Z", not(gt(read("x"), literal(0d))));
+        for (var x : DOUBLES) {
+            assertEquals("x=" + x, x == 1.5d, eq.invoke(x));
+            assertEquals("x=" + x, x != x, neq.invoke(x));
+            assertEquals("x=" + x, x <= 0d, lte.invoke(x));
+            assertEquals("x=" + x, !(x > 0d), notGt.invoke(x));
+        }
+        var floatEq = compileReturning(List.of("F"), "Z", eq(read("x"), literal(1.5f)));
+        for (var x : DOUBLES) {
+            assertEquals("x=" + x, (float) x == 1.5f, floatEq.invoke((float) x));
+        }
+    }
+
+    @Test
+    public void testLongEquality() throws Exception {
+        // The long is assembled from two ints, so it's evaluated by an expression, rather than read from a variable
+        var value = bitOr(shiftL(cast(Builtin.L, read("x")), literal(32)),
+                cast(Builtin.L, read("y")));
+        var eq = compileReturning(List.of("I", "I"), "Z", eq(value, literal(1L << 32)));
+        var neq = compileReturning(List.of("I", "I"), "Z", neq(value, literal(1L << 32)));
+        assertEquals(true, eq.invoke(1, 0));
+        assertEquals(false, eq.invoke(0, 1));
+        assertEquals(false, neq.invoke(1, 0));
+        assertEquals(true, neq.invoke(0, 1));
+    }
+
+    @Test
+    public void testShortComparisons() throws Exception {
+        var lt = compileReturning(List.of("S", "S"), "Z", lt(read("x"), read("y")));
+        var gte = compileReturning(List.of("S", "S"), "Z", gte(read("x"), read("y")));
+        for (short x = -2; x <= 2; x++) {
+            for (short y = -2; y <= 2; y++) {
+                assertEquals(x < y, lt.invoke(x, y));
+                assertEquals(x >= y, gte.invoke(x, y));
+            }
+        }
+    }
+}
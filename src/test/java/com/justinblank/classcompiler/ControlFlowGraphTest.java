@@ -0,0 +1,127 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class ControlFlowGraphTest {
+
+    @Test
+    public void testSuccessorsAndPredecessors() {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        var start = method.addBlock();
+        var nonZero = method.addBlock();
+        var zero = method.addBlock();
+        start.readVar(1, "I").jump(zero, IFEQ);
+        nonZero.push(1).addReturn(IRETURN);
+        zero.push(0).addReturn(IRETURN);
+
+        var graph = ControlFlowGraph.of(method.getBlocks());
+        assertEquals(List.of(2, 1), graph.successors(0));
+        assertEquals(List.of(), graph.successors(1));
+        assertEquals(List.of(0), graph.predecessors(1));
+        assertEquals(List.of(0), graph.predecessors(2));
+        assertTrue(graph.isJumpTarget(2));
+        assertFalse(graph.isJumpTarget(1));
+        assertNull(graph.indexOf(Block.POSTLOOP));
+    }
+
+    @Test
+    public void testPruningFollowsGotoChains() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        var start = method.addBlock();
+        var nonZero = method.addBlock();
+        var firstHop = method.addBlock();
+        var empty = method.addBlock();
+        var secondHop = method.addBlock();
+        var zero = method.addBlock();
+        start.readVar(1, "I").jump(firstHop, IFEQ);
+        nonZero.push(1).addReturn(IRETURN);
+        firstHop.jump(empty, GOTO);
+        secondHop.jump(zero, GOTO);
+        zero.push(0).addReturn(IRETURN);
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(0, cls.getMethod("apply", int.class).invoke(instance, 0));
+        assertEquals(1, cls.getMethod("apply", int.class).invoke(instance, 5));
+        // The conditional jump leads straight to the return, and the blocks that only jumped are gone
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                assertFalse(op.isGoto());
+            }
+        }
+        assertFalse(method.getBlocks().contains(firstHop));
+        assertFalse(method.getBlocks().contains(secondHop));
+    }
+
+    @Test(timeout = 10_000)
+    public void testPruningTerminatesForGotoCycles() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        var start = method.addBlock();
+        var nonZero = method.addBlock();
+        var first = method.addBlock();
+        var second = method.addBlock();
+        start.readVar(1, "I").jump(first, IFEQ);
+        nonZero.push(1).addReturn(IRETURN);
+        first.jump(second, GOTO);
+        second.jump(first, GOTO);
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(1, cls.getMethod("apply", int.class).invoke(instance, 5));
+    }
+
+    @Test(timeout = 10_000)
+    public void testPruningLargeMethodsIsLinear() {
+        // Each block is only reached from the one before it, which can't be reached, so dropping one block makes the
+        // next unreachable. Finding that a round at a time takes time quadratic in the number of blocks.
+        var blockCount = 25_000;
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        var blocks = new ArrayList<Block>();
+        for (var i = 0; i <= blockCount; i++) {
+            blocks.add(method.addBlock());
+        }
+        blocks.get(0).push(0).addReturn(IRETURN);
+        for (var i = 1; i < blockCount; i++) {
+            blocks.get(i).readVar(1, "I").jump(blocks.get(i + 1), IFEQ);
+        }
+        blocks.get(blockCount).push(1).addReturn(IRETURN);
+        assertEquals(2 * blockCount + 2, method.operationCount());
+
+        method.pruneBlocks();
+        assertEquals(List.of(blocks.get(0)), method.getBlocks());
+        assertEquals(2, method.operationCount());
+    }
+
+    @Test(timeout = 10_000)
+    public void testInsertingBlocksKeepsNumbersCurrent() {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        var first = method.addBlock();
+        var last = method.addBlock();
+        var previous = first;
+        for (var i = 0; i < 50_000; i++) {
+            previous = method.addBlockAfter(previous);
+        }
+        method.insertBlocks(first, List.of(new Block(0, new ArrayList<>()), new Block(0, new ArrayList<>())));
+        var blocks = method.getBlocks();
+        assertEquals(50_004, blocks.size());
+        assertSame(first, blocks.get(0));
+        assertSame(last, blocks.get(blocks.size() - 1));
+        for (var i = 0; i < blocks.size(); i++) {
+            assertEquals(i, blocks.get(i).number);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+import static com.justinblank.classcompiler.TestMethodUtil.countOpcode;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class DeadStoreEliminationTest {
+
+    @Test
+    public void testRemovesStoresThatAreNeverRead() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x", "unused", "doubled", "result"));
+        method.set("unused", mul(read("x"), 7));
+        // Only read by another dead store
+        method.set("doubled", mul(read("x"), 2));
+        method.set("unused", read("doubled"));
+        method.set("result", plus(read("x"), 1));
+        method.returnValue(read("result"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(6, cls.getMethod("apply", int.class).invoke(instance, 5));
+        assertEquals(1, count(method, Operation.Inst.SET_VAR));
+        assertEquals(0, countOpcode(method, IMUL));
+        var vars = method.getMatchingVars().get();
+        assertThrows(IllegalStateException.class, () -> vars.indexByName("unused"));
+        assertThrows(IllegalStateException.class, () -> vars.indexByName("doubled"));
+    }
+
+    @Test
+    public void testRemovesOverwrittenStores() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x", "a"));
+        method.set("a", mul(read("x"), 3));
+        method.set("a", plus(read("x"), 1));
+        method.returnValue(read("a"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(6, cls.getMethod("apply", int.class).invoke(instance, 5));
+        assertEquals(1, count(method, Operation.Inst.SET_VAR));
+    }
+
+    @Test
+    public void testKeepsComputationsThatCanThrow() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I", "I"), "I", new GenericVars("x", "y", "quotient"));
+        method.set("quotient", div(read("x"), read("y")));
+        method.returnValue(read("x"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int.class, int.class);
+        assertEquals(4, m.invoke(instance, 4, 2));
+        var thrown = assertThrows(InvocationTargetException.class, () -> m.invoke(instance, 4, 0));
+        assertTrue(thrown.getCause() instanceof ArithmeticException);
+        assertEquals(0, count(method, Operation.Inst.SET_VAR));
+        assertEquals(1, countOpcode(method, IDIV));
+    }
+
+    @Test
+    public void testKeepsStoresReadAfterBranches() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x", "y", "i"));
+        method.set("y", plus(read("x"), 1));
+        method.cond(gt(read("x"), 10)).withBody(List.of(set("y", 0)));
+        method.set("i", 0);
+        method.loop(lt(read("i"), 3), List.of(set("y", mul(read("y"), 2)), set("i", plus(read("i"), 1))));
+        method.returnValue(read("y"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int.class);
+        assertEquals(8 * 6, m.invoke(instance, 5));
+        assertEquals(0, m.invoke(instance, 11));
+    }
+
+    private static long count(Method method, Operation.Inst inst) {
+        return method.getBlocks().stream()
+                .flatMap(block -> block.operations.stream())
+                .filter(op -> op.inst == inst)
+                .count();
+    }
+}
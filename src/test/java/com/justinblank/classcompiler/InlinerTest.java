@@ -0,0 +1,131 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.Builtin;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.util.List;
+
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class InlinerTest {
+
+    @Test
+    public void testInlinesPrivateMethod() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var doubled = builder.mkMethod("doubled", List.of("I"), "I", new GenericVars("x"), ACC_PRIVATE);
+        doubled.returnValue(mul(read("x"), 2));
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("y"));
+        // The value already on the stack must survive the inlined body
+        method.returnValue(plus(read("y"), call("doubled", Builtin.I, thisRef(), plus(read("y"), 1))));
+
+        var cls = new ClassCompiler(builder).withInlining(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(5 + 12, cls.getMethod("apply", int.class).invoke(instance, 5));
+        assertEquals(0, calls(method, "doubled"));
+        // Once all its calls are inlined, the private method is no longer needed
+        assertThrows(NoSuchMethodException.class, () -> cls.getDeclaredMethod("doubled", int.class));
+    }
+
+    @Test
+    public void testInlinesMethodsWithBranchesAndLocals() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var max = builder.mkMethod("max", List.of("I", "I"), "I", new GenericVars("a", "b", "c"), ACC_PRIVATE | ACC_FINAL);
+        max.set("c", read("a"));
+        max.cond(gt(read("b"), read("c"))).withBody(List.of(set("c", read("b"))));
+        max.returnValue(read("c"));
+        var method = builder.mkMethod("apply", List.of("I", "I"), "I", new GenericVars("x", "y", "z"));
+        method.set("z", 100);
+        method.returnValue(plus(read("z"), call("max", Builtin.I, thisRef(), read("x"), read("y"))));
+
+        var cls = new ClassCompiler(builder).withInlining(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int.class, int.class);
+        assertEquals(107, m.invoke(instance, 7, 3));
+        assertEquals(109, m.invoke(instance, 7, 9));
+        assertEquals(0, calls(method, "max"));
+    }
+
+    @Test
+    public void testInlinesChainsOfCalls() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var first = builder.mkMethod("first", List.of("I"), "I", new GenericVars("x"), ACC_PRIVATE);
+        first.returnValue(plus(read("x"), 1));
+        var second = builder.mkMethod("second", List.of("I"), "I", new GenericVars("x"), ACC_PRIVATE);
+        second.returnValue(mul(call("first", Builtin.I, thisRef(), read("x")), 3));
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        method.returnValue(call("second", Builtin.I, thisRef(), read("x")));
+
+        var cls = new ClassCompiler(builder).withInlining(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(15, cls.getMethod("apply", int.class).invoke(instance, 4));
+        assertEquals(0, calls(method, "first"));
+        assertEquals(0, calls(method, "second"));
+    }
+
+    @Test
+    public void testInlinesStaticMethodsWithLongArguments() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var combine = builder.mkMethod("combine", List.of("J", "J"), "J", new GenericVars("a", "b"),
+                ACC_PRIVATE | ACC_STATIC);
+        combine.returnValue(plus(mul(read("a"), read("b")), read("a")));
+        var method = builder.mkMethod("apply", List.of("J"), "J", new GenericVars("x"));
+        method.returnValue(callStatic(builder.getClassName(), "combine", Builtin.L, read("x"), literal(3L)));
+
+        var cls = new ClassCompiler(builder).withInlining(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(4L * 3 + 4, cls.getMethod("apply", long.class).invoke(instance, 4L));
+        assertEquals(0, calls(method, "combine"));
+    }
+
+    @Test
+    public void testDoesNotInlinePublicOrRecursiveMethods() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var overridable = builder.mkMethod("overridable", List.of("I"), "I", new GenericVars("x"));
+        overridable.returnValue(plus(read("x"), 1));
+        var recursive = builder.mkMethod("recursive", List.of("I"), "I", new GenericVars("x"), ACC_PRIVATE);
+        recursive.cond(lt(read("x"), 1)).withBody(List.of(returnValue(0)));
+        recursive.returnValue(call("recursive", Builtin.I, thisRef(), sub(read("x"), 1)));
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x"));
+        method.returnValue(plus(call("overridable", Builtin.I, thisRef(), read("x")),
+                call("recursive", Builtin.I, thisRef(), read("x"))));
+
+        var cls = new ClassCompiler(builder).withInlining(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(4, cls.getMethod("apply", int.class).invoke(instance, 3));
+        assertEquals(1, calls(method, "overridable"));
+        assertEquals(1, calls(method, "recursive"));
+    }
+
+    @Test
+    public void testInliningDisabledByDefault() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var doubled = builder.mkMethod("doubled", List.of("I"), "I", new GenericVars("x"), ACC_PRIVATE);
+        doubled.returnValue(mul(read("x"), 2));
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("y"));
+        method.returnValue(call("doubled", Builtin.I, thisRef(), read("y")));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(10, cls.getMethod("apply", int.class).invoke(instance, 5));
+        assertEquals(1, calls(method, "doubled"));
+        assertNotNull(cls.getDeclaredMethod("doubled", int.class));
+    }
+
+    private static long calls(Method method, String methodName) {
+        return method.getBlocks().stream()
+                .flatMap(block -> block.operations.stream())
+                .filter(op -> op.inst == Operation.Inst.CALL && methodName.equals(op.spec.name))
+                .count();
+    }
+}
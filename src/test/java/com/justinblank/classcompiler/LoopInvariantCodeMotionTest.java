@@ -0,0 +1,124 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.Builtin;
+import com.justinblank.classcompiler.lang.ReferenceType;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+
+import static com.justinblank.classcompiler.TestMethodUtil.hasSyntheticVars;
+import static com.justinblank.classcompiler.lang.ArrayRead.arrayRead;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class LoopInvariantCodeMotionTest {
+
+    @Test
+    public void testHoistsArrayLength() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = sumMethod(builder);
+
+        var cls = new ClassCompiler(builder).withLoopInvariantCodeMotion(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(10, cls.getMethod("sum", int[].class).invoke(instance, (Object) new int[]{1, 2, 3, 4}));
+        assertEquals(0, cls.getMethod("sum", int[].class).invoke(instance, (Object) new int[0]));
+        assertTrue(hasSyntheticVars(method, "licm$"));
+    }
+
+    @Test
+    public void testHoistedArrayLengthStillThrowsForNull() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        sumMethod(builder);
+
+        var cls = new ClassCompiler(builder).withLoopInvariantCodeMotion(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var thrown = assertThrows(InvocationTargetException.class,
+                () -> cls.getMethod("sum", int[].class).invoke(instance, (Object) null));
+        assertTrue(thrown.getCause() instanceof NullPointerException);
+    }
+
+    @Test
+    public void testDoesNotHoistConditionallyEvaluatedExpressionsThatThrow() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("count", List.of("I", "[I"), "I", new GenericVars("n", "arr", "i"));
+        method.set("i", 0);
+        // The array is only read when n is positive, so a null array must not throw when it isn't
+        method.loop(and(gt(read("n"), read("i")), lt(read("i"), arrayLength(read("arr")))),
+                List.of(set("i", plus(read("i"), 1))));
+        method.returnValue(read("i"));
+
+        var cls = new ClassCompiler(builder).withLoopInvariantCodeMotion(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("count", int.class, int[].class);
+        assertEquals(0, m.invoke(instance, 0, null));
+        assertEquals(2, m.invoke(instance, 5, new int[2]));
+        assertFalse(hasSyntheticVars(method, "licm$"));
+    }
+
+    @Test
+    public void testDoesNotHoistExpressionsOfAssignedVariables() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("n", "i", "x", "total"));
+        method.set("i", 0);
+        method.set("x", 1);
+        method.set("total", 0);
+        method.loop(lt(read("i"), read("n")), List.of(
+                set("total", plus(read("total"), mul(read("x"), 3))),
+                set("x", plus(read("x"), 1)),
+                set("i", plus(read("i"), 1))));
+        method.returnValue(read("total"));
+
+        var cls = new ClassCompiler(builder).withLoopInvariantCodeMotion(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(3 * (1 + 2 + 3), cls.getMethod("apply", int.class).invoke(instance, 3));
+        assertFalse(hasSyntheticVars(method, "licm$"));
+    }
+
+    @Test
+    public void testHoistsFinalStaticFieldArithmetic() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        builder.addField(new Field(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "LIMIT", "I", null, 5));
+        var method = builder.mkMethod("apply", List.of(), "I", new GenericVars("i"));
+        method.set("i", 0);
+        method.loop(lt(read("i"), mul(getStatic("LIMIT", ReferenceType.of(builder.getClassName()), Builtin.I), 2)),
+                List.of(set("i", plus(read("i"), 1))));
+        method.returnValue(read("i"));
+
+        var cls = new ClassCompiler(builder).withLoopInvariantCodeMotion(true).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(10, cls.getMethod("apply").invoke(instance));
+        assertTrue(hasSyntheticVars(method, "licm$"));
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = sumMethod(builder);
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(6, cls.getMethod("sum", int[].class).invoke(instance, (Object) new int[]{1, 2, 3}));
+        assertFalse(hasSyntheticVars(method, "licm$"));
+    }
+
+    private static Method sumMethod(ClassBuilder builder) {
+        var method = builder.mkMethod("sum", List.of("[I"), "I", new GenericVars("arr", "i", "total"));
+        method.set("i", 0);
+        method.set("total", 0);
+        method.loop(lt(read("i"), arrayLength(read("arr"))), List.of(
+                set("total", plus(read("total"), arrayRead(read("arr"), read("i")))),
+                set("i", plus(read("i"), 1))));
+        method.returnValue(read("total"));
+        return method;
+    }
+}
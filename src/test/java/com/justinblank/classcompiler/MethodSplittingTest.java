@@ -0,0 +1,139 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.CodeElement;
+import com.justinblank.classcompiler.lang.Switch;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.IRETURN;
+
+public class MethodSplittingTest {
+
+    private static final int CASES = 16;
+    // Enough statements that the cases together need more than 64KB of code
+    private static final int STATEMENTS_PER_CASE = 500;
+
+    @Test
+    public void testEstimate() {
+        var block = new Block(0, new ArrayList<>());
+        block.push(1).push(100).push(1000).push(100_000L).readVar(1, "I").readVar(300, "I").addReturn(IRETURN);
+        assertEquals(1 + 2 + 3 + 3 + 1 + 4 + 1, MethodSize.estimate(block, Optional.empty()));
+    }
+
+    @Test
+    public void testSplitsSwitchArmsThatReturn() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I", "I"), "I", new GenericVars("key", "x", "y"));
+        var s = new Switch(read("key"));
+        for (var key = 0; key < CASES; key++) {
+            List<CodeElement> body = new ArrayList<>();
+            body.add(set("y", read("x")));
+            body.addAll(hashStatements(key));
+            body.add(returnValue(read("y")));
+            s.setCase(key, body);
+        }
+        s.setDefault(returnValue(-1));
+        method.addElement(s);
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int.class, int.class);
+        for (var key = 0; key < CASES; key++) {
+            assertEquals(expected(key, 7), m.invoke(instance, key, 7));
+        }
+        assertEquals(-1, m.invoke(instance, CASES, 7));
+        assertHasHelpers(cls);
+    }
+
+    @Test
+    public void testSplitsSwitchArmsThatAssignVariables() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I", "I"), "I", new GenericVars("key", "x", "y", "z"));
+        method.set("y", read("x"));
+        var s = new Switch(read("key"));
+        for (var key = 0; key < CASES; key++) {
+            List<CodeElement> body = new ArrayList<>(hashStatements(key));
+            // z is only used inside the arm, so it stays local to the helper
+            body.add(set("z", literal(key)));
+            body.add(cond(gt(read("z"), 100)).withBody(set("y", 0)));
+            s.setCase(key, body);
+        }
+        s.setDefault(set("y", -1));
+        method.addElement(s);
+        method.returnValue(plus(read("y"), 1));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int.class, int.class);
+        for (var key = 0; key < CASES; key++) {
+            assertEquals(expected(key, 3) + 1, m.invoke(instance, key, 3));
+        }
+        assertEquals(0, m.invoke(instance, CASES, 3));
+        assertHasHelpers(cls);
+    }
+
+    @Test
+    public void testSplitsSwitchArmsInLoops() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I", "I"), "I", new GenericVars("key", "x", "y", "i"));
+        method.set("y", read("x"));
+        method.set("i", 0);
+        var s = new Switch(read("key"));
+        for (var key = 0; key < CASES; key++) {
+            s.setCase(key, hashStatements(key));
+        }
+        s.setDefault(set("y", -1));
+        method.loop(lt(read("i"), 2), List.of(s, set("i", plus(read("i"), 1))));
+        method.returnValue(read("y"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        var m = cls.getMethod("apply", int.class, int.class);
+        for (var key = 0; key < CASES; key++) {
+            // The value each iteration assigns is read by the next
+            assertEquals(expected(key, expected(key, 5)), m.invoke(instance, key, 5));
+        }
+        assertEquals(-1, m.invoke(instance, CASES, 5));
+        assertHasHelpers(cls);
+    }
+
+    private static List<CodeElement> hashStatements(int key) {
+        List<CodeElement> statements = new ArrayList<>();
+        for (var i = 0; i < STATEMENTS_PER_CASE; i++) {
+            statements.add(set("y", plus(mul(read("y"), 31), literal(key * 1000 + i))));
+        }
+        return statements;
+    }
+
+    private static int expected(int key, int x) {
+        var y = x;
+        for (var i = 0; i < STATEMENTS_PER_CASE; i++) {
+            y = y * 31 + key * 1000 + i;
+        }
+        return y;
+    }
+
+    private static void assertHasHelpers(Class<?> cls) {
+        var helpers = Arrays.stream(cls.getDeclaredMethods())
+                .filter(m -> m.getName().startsWith("apply$"))
+                .toArray(java.lang.reflect.Method[]::new);
+        assertTrue(helpers.length > 0);
+        for (var helper : helpers) {
+            assertTrue(Modifier.isPrivate(helper.getModifiers()));
+            assertTrue(helper.isSynthetic());
+        }
+    }
+}
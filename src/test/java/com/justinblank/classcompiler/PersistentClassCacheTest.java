@@ -0,0 +1,87 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.util.List;
+
+import static com.justinblank.classcompiler.lang.BinaryOperator.plus;
+import static com.justinblank.classcompiler.lang.CodeElement.read;
+import static org.junit.Assert.*;
+
+public class PersistentClassCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testVersionIsFilteredIntoResource() {
+        assertNotEquals("unknown", PersistentClassCache.MAKO_VERSION);
+        assertFalse(PersistentClassCache.MAKO_VERSION.contains("$"));
+    }
+
+    @Test
+    public void testWriteThenRead() throws Exception {
+        var cache = new PersistentClassCache(folder.getRoot().toPath());
+        assertTrue(cache.read("missing").isEmpty());
+        var bytes = new ClassCompiler(builder(ClassCompilerTest.testClassName())).generateClassAsBytes();
+        cache.write("key", bytes);
+        assertArrayEquals(bytes, cache.read("key").orElseThrow());
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertTrue(Files.exists(folder.getRoot().toPath().resolve(PersistentClassCache.MAKO_VERSION).resolve("key.class")));
+    }
+
+    @Test
+    public void testBuilderIsOnlyCompiledOnce() {
+        var name = ClassCompilerTest.testClassName();
+        var cache = new PersistentClassCache(folder.getRoot().toPath());
+        var first = cache.getBytes(builder(name));
+        assertEquals(1, cache.misses());
+
+        // A fresh instance simulates a restart
+        var restarted = new PersistentClassCache(folder.getRoot().toPath());
+        var second = restarted.getBytes(builder(name));
+        assertArrayEquals(first, second);
+        assertEquals(1, restarted.hits());
+    }
+
+    @Test
+    public void testLoadClassWithoutBuilder() throws Exception {
+        var cache = new PersistentClassCache(folder.getRoot().toPath());
+        cache.getBytes("tenant-1", builder(ClassCompilerTest.testClassName()));
+
+        var cls = new PersistentClassCache(folder.getRoot().toPath())
+                .loadClass("tenant-1", ClassLoaderStrategy.perClass()).orElseThrow();
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(3, cls.getMethod("increment", int.class).invoke(instance, 2));
+    }
+
+    @Test
+    public void testCorruptEntryIsAMiss() throws Exception {
+        var cache = new PersistentClassCache(folder.getRoot().toPath());
+        var path = folder.getRoot().toPath().resolve(PersistentClassCache.MAKO_VERSION).resolve("corrupt.class");
+        Files.write(path, new byte[]{1, 2, 3});
+        assertTrue(cache.read("corrupt").isEmpty());
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testRejectsInvalidKeys() {
+        var cache = new PersistentClassCache(folder.getRoot().toPath());
+        assertThrows(IllegalArgumentException.class, () -> cache.read("../escape"));
+        assertThrows(IllegalArgumentException.class, () -> cache.read(""));
+        assertThrows(IllegalArgumentException.class, () -> cache.write("a/b", new byte[0]));
+    }
+
+    private static ClassBuilder builder(String className) {
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("increment", List.of("I"), "I", new GenericVars("x"));
+        method.returnValue(plus(read("x"), 1));
+        return builder;
+    }
+}
@@ -0,0 +1,190 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.Builtin;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.justinblank.classcompiler.lang.ArrayRead.arrayRead;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class SlotAllocationTest {
+
+    @Test
+    public void testStaticMethodArguments() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I", "I"), "I", new GenericVars("a", "b", "c"),
+                ACC_PUBLIC | ACC_STATIC);
+        method.set("c", sub(read("a"), read("b")));
+        method.returnValue(read("c"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        assertEquals(2, cls.getMethod("apply", int.class, int.class).invoke(null, 5, 3));
+        assertEquals(0, method.getMatchingVars().get().indexByName("a"));
+        assertEquals(1, method.getMatchingVars().get().indexByName("b"));
+    }
+
+    @Test
+    public void testLongAndDoubleVariablesTakeTwoSlots() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("J", "D", "I"), "J",
+                new GenericVars("a", "d", "i", "sum", "scaled"));
+        method.set("scaled", mul(read("d"), literal(2.0)));
+        method.set("sum", plus(read("a"), literal(1L)));
+        method.returnValue(plus(read("sum"), cast(Builtin.L, read("scaled"))));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(4L + 1 + 5, cls.getMethod("apply", long.class, double.class, int.class)
+                .invoke(instance, 4L, 2.5, 7));
+        var vars = method.getMatchingVars().get();
+        assertEquals(1, vars.indexByName("a"));
+        assertEquals(3, vars.indexByName("d"));
+        assertEquals(5, vars.indexByName("i"));
+        // Both locals are live together, and each needs two slots
+        assertEquals(4, Math.abs(vars.indexByName("sum") - vars.indexByName("scaled")) + 2);
+    }
+
+    @Test
+    public void testReusesSlotsOfDeadVariables() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x", "a", "r", "b"));
+        method.set("a", plus(read("x"), 1));
+        method.set("r", mul(read("a"), 2));
+        method.set("b", plus(read("r"), 3));
+        method.returnValue(read("b"));
+
+        var bytes = new ClassCompiler(builder).generateClassAsBytes();
+        var cls = ClassLoaderStrategy.perClass().define(builder.getClassName(), bytes);
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(15, cls.getMethod("apply", int.class).invoke(instance, 5));
+        // Each variable is last read before the next is assigned, so they can all use one slot
+        var vars = method.getMatchingVars().get();
+        assertEquals(vars.indexByName("a"), vars.indexByName("r"));
+        assertEquals(vars.indexByName("r"), vars.indexByName("b"));
+        assertNotEquals(vars.indexByName("x"), vars.indexByName("a"));
+
+        // The debug ranges of variables sharing a slot don't overlap
+        var ranges = localVariableRanges(bytes, "apply");
+        assertTrue(ranges.get("a")[0] < ranges.get("a")[1]);
+        assertTrue(ranges.get("a")[1] <= ranges.get("r")[0]);
+        assertTrue(ranges.get("r")[1] <= ranges.get("b")[0]);
+        // Nor do they start before the store that gives the variable its value
+        for (var name : List.of("a", "r", "b")) {
+            assertTrue(name, startsAfterStore(bytes, "apply", name));
+        }
+    }
+
+    @Test
+    public void testKeepsVariablesLiveAcrossLoopsApart() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("[I"), "I", new GenericVars("arr", "i", "total", "element"));
+        method.set("i", 0);
+        method.set("total", 0);
+        method.loop(lt(read("i"), arrayLength(read("arr"))), List.of(
+                set("element", arrayRead(read("arr"), read("i"))),
+                set("total", plus(read("total"), mul(read("element"), read("element")))),
+                set("i", plus(read("i"), 1))));
+        method.returnValue(read("total"));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(1 + 4 + 9, cls.getMethod("apply", int[].class).invoke(instance, (Object) new int[]{1, 2, 3}));
+        var vars = method.getMatchingVars().get();
+        assertNotEquals(vars.indexByName("total"), vars.indexByName("element"));
+        assertNotEquals(vars.indexByName("i"), vars.indexByName("element"));
+    }
+
+    @Test
+    public void testDebugRangesDontOverlapAfterInlining() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var ignore = builder.mkMethod("ignore", List.of("I"), "I", new GenericVars("y"), ACC_PRIVATE);
+        ignore.returnValue(7);
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x", "a", "r", "b"));
+        method.set("a", plus(read("x"), 1));
+        // Once the call is inlined, the argument is never read, so the store and read of a are both removed
+        method.set("r", call("ignore", Builtin.I, thisRef(), read("a")));
+        method.set("b", plus(read("r"), 3));
+        method.returnValue(read("b"));
+
+        var bytes = new ClassCompiler(builder).withInlining(true).generateClassAsBytes();
+        var cls = ClassLoaderStrategy.perClass().define(builder.getClassName(), bytes);
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(10, cls.getMethod("apply", int.class).invoke(instance, 5));
+        var vars = method.getMatchingVars().get();
+        assertEquals(vars.indexByName("a"), vars.indexByName("r"));
+
+        var classNode = new ClassNode();
+        new ClassReader(bytes).accept(classNode, 0);
+        for (var m : classNode.methods) {
+            if (m.name.equals("apply")) {
+                for (var first : m.localVariables) {
+                    for (var second : m.localVariables) {
+                        if (first != second && first.index == second.index) {
+                            var overlap = m.instructions.indexOf(first.start) < m.instructions.indexOf(second.end)
+                                    && m.instructions.indexOf(second.start) < m.instructions.indexOf(first.end);
+                            assertFalse(first.name + " overlaps " + second.name, overlap);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the start and end of each local variable's debug range, as instruction indexes
+     */
+    private static Map<String, int[]> localVariableRanges(byte[] bytes, String methodName) {
+        var classNode = new ClassNode();
+        new ClassReader(bytes).accept(classNode, 0);
+        Map<String, int[]> ranges = new HashMap<>();
+        for (var method : classNode.methods) {
+            if (method.name.equals(methodName)) {
+                for (var local : method.localVariables) {
+                    ranges.put(local.name, new int[]{method.instructions.indexOf(local.start),
+                            method.instructions.indexOf(local.end)});
+                }
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * @return true if the last instruction before the local variable's debug range is a store to its slot
+     */
+    private static boolean startsAfterStore(byte[] bytes, String methodName, String variableName) {
+        var classNode = new ClassNode();
+        new ClassReader(bytes).accept(classNode, 0);
+        for (var method : classNode.methods) {
+            if (method.name.equals(methodName)) {
+                for (var local : method.localVariables) {
+                    if (local.name.equals(variableName)) {
+                        AbstractInsnNode previous = local.start.getPrevious();
+                        while (previous != null && previous.getOpcode() < 0) {
+                            previous = previous.getPrevious();
+                        }
+                        return previous instanceof VarInsnNode && previous.getOpcode() == ISTORE
+                                && ((VarInsnNode) previous).var == local.index;
+                    }
+                }
+            }
+        }
+        throw new AssertionError("Local variable not found");
+    }
+}
@@ -0,0 +1,152 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.ReferenceType;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class StackMapFramesTest {
+
+    @Test
+    public void testLoopFrames() {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        var method = builder.mkMethod("count", List.of("I"), "I", new GenericVars("x", "i"));
+        method.set("i", 0);
+        method.loop(lt(read("i"), read("x")), List.of(set("i", plus(read("i"), 1))));
+        method.returnValue(read("i"));
+        resolve(method, className);
+
+        var frames = StackMapFrames.compute(className, method);
+        var computed = new ArrayList<StackMapFrames.Frame>();
+        for (var block : method.getBlocks()) {
+            assertTrue(frames.isReachable(block));
+            if (frames.frameAt(block) != null) {
+                computed.add(frames.frameAt(block));
+            }
+        }
+        assertFalse(computed.isEmpty());
+        for (var frame : computed) {
+            assertArrayEquals(new Object[]{className, INTEGER, INTEGER}, frame.locals);
+            assertEquals(0, frame.stack.length);
+        }
+        assertEquals(2, frames.maxStack());
+        assertEquals(3, frames.maxLocals());
+    }
+
+    @Test
+    public void testMaxsCountWideValues() {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        var method = builder.mkMethod("add", List.of("I", "D"), "J", new GenericVars("x", "y"));
+        method.addBlock().push(1L).push(2L).operate(LADD).addReturn(LRETURN);
+        resolve(method, className);
+
+        var frames = StackMapFrames.compute(className, method);
+        assertEquals(4, frames.maxStack());
+        assertEquals(4, frames.maxLocals());
+    }
+
+    @Test
+    public void testInconsistentStackHeightsFailCompilation() {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("broken", List.of("I"), "I", new GenericVars("x"));
+        var start = method.addBlock();
+        var extraValue = method.addBlock();
+        var end = method.addBlock();
+        start.readVar(1, "I").jump(end, IFEQ);
+        extraValue.push(1);
+        end.push(0).addReturn(IRETURN);
+
+        var e = assertThrows(ClassCompilationException.class, () -> new ClassCompiler(builder).generateClassAsBytes());
+        assertTrue(e.getMessage().contains("Inconsistent stack heights"));
+        assertTrue(e.getMessage().contains("MethodName=broken"));
+    }
+
+    @Test
+    public void testStackUnderflowFailsCompilation() {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("broken", List.of(), "I", new GenericVars());
+        method.addBlock().push(1).operate(IADD).addReturn(IRETURN);
+
+        var e = assertThrows(ClassCompilationException.class, () -> new ClassCompiler(builder).generateClassAsBytes());
+        assertTrue(e.getMessage().contains("Stack underflow"));
+    }
+
+    @Test
+    public void testUnreachableBlocksAreNotEmitted() throws Exception {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("one", List.of(), "I", new GenericVars());
+        method.addBlock().push(1).addReturn(IRETURN);
+        var unreachable = method.addBlock().push(2).addReturn(IRETURN);
+        resolve(method, className);
+
+        assertFalse(StackMapFrames.compute(className, method).isReachable(unreachable));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(1, cls.getMethod("one").invoke(instance));
+    }
+
+    @Test
+    public void testUninitializedObjectAcrossBranches() throws Exception {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("isSmall", List.of("I"), CompilerUtil.descriptor(Boolean.class), new GenericVars("x"));
+        // The conjunction branches while the new Boolean is uninitialized on the stack
+        method.returnValue(construct(ReferenceType.of(Boolean.class), and(lt(read("x"), 3), lt(literal(0), read("x")))));
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(true, cls.getMethod("isSmall", int.class).invoke(instance, 1));
+        assertEquals(false, cls.getMethod("isSmall", int.class).invoke(instance, 4));
+        assertEquals(false, cls.getMethod("isSmall", int.class).invoke(instance, -1));
+        // Mako computed the frames, rather than falling back to ASM
+        var frames = StackMapFrames.compute(className, method);
+        var newOperation = method.getBlocks().get(0).operations.get(0);
+        assertEquals(Operation.Inst.NEW, newOperation.inst);
+        assertNotNull(frames.labelFor(newOperation));
+    }
+
+    @Test
+    public void testFallsBackToAsmWhenCommonSuperclassIsNeeded() throws Exception {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("pick", List.of("I"), CompilerUtil.descriptor(Object.class), new GenericVars("x"));
+        var start = method.addBlock();
+        var trueBranch = method.addBlock();
+        var falseBranch = method.addBlock();
+        var end = method.addBlock();
+        start.readVar(1, "I").jump(falseBranch, IFEQ);
+        trueBranch.readStatic("TRUE", "java/lang/Boolean", "Ljava/lang/Boolean;").jump(end, GOTO);
+        falseBranch.readStatic("out", "java/lang/System", "Ljava/io/PrintStream;");
+        end.addReturn(ARETURN);
+
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        assertEquals(Boolean.TRUE, cls.getMethod("pick", int.class).invoke(instance, 1));
+        assertSame(System.out, cls.getMethod("pick", int.class).invoke(instance, 0));
+        assertThrows(StackMapFrames.AnalysisException.class, () -> StackMapFrames.compute(className, method));
+    }
+
+    private static void resolve(Method method, String className) {
+        method.setClass(className, "");
+        method.resolve();
+    }
+}
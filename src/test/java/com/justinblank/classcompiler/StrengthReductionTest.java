@@ -0,0 +1,102 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.BinaryOperator;
+import com.justinblank.classcompiler.lang.Builtin;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.function.BiFunction;
+
+import static com.justinblank.classcompiler.TestMethodUtil.compileReturning;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.cast;
+import static com.justinblank.classcompiler.lang.CodeElement.read;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.objectweb.asm.Opcodes.*;
+
+public class StrengthReductionTest {
+
+    private static final int[] INTS = {0, 1, -1, 2, -2, 7, -7, 63, 64, -64, -65, 12345, -12345, Integer.MAX_VALUE,
+            Integer.MIN_VALUE, Integer.MIN_VALUE + 1};
+    private static final long[] LONGS = {0, 1, -1, 7, -7, 64, -65, 1L << 40, -(1L << 40) - 3, Long.MAX_VALUE,
+            Long.MIN_VALUE, Long.MIN_VALUE + 1};
+    private static final double[] DOUBLES = {0, -0d, 1, -3.5, 1e-310, Double.MIN_VALUE, Double.MAX_VALUE,
+            Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+    @Test
+    public void testIntOperationsByConstants() throws Exception {
+        for (var constant : new int[]{1, 2, 3, 5, 6, 7, 8, 9, 15, 64, 1 << 30, -1, -8, Integer.MIN_VALUE, Integer.MAX_VALUE}) {
+            checkInt(MULTIPLY, constant, (x, c) -> x * c);
+            checkInt(DIVIDE, constant, (x, c) -> x / c);
+            checkInt(MOD, constant, (x, c) -> x % c);
+        }
+    }
+
+    @Test
+    public void testLongOperationsByConstants() throws Exception {
+        for (var constant : new long[]{1, 2, 3, 7, 9, 64, 1L << 40, 1L << 62, -4, Long.MIN_VALUE, Long.MAX_VALUE}) {
+            checkLong(MULTIPLY, constant, (x, c) -> x * c);
+            checkLong(DIVIDE, constant, (x, c) -> x / c);
+            checkLong(MOD, constant, (x, c) -> x % c);
+        }
+    }
+
+    @Test
+    public void testFloatingPointDivisionByConstants() throws Exception {
+        for (var constant : new double[]{2, 0.5, -4, 3, 0x1p1000, 0x1p1023, 0x1p-1022, Double.MIN_VALUE}) {
+            var method = compileReturning(List.of("D"), "D", div(read("x"), literal(constant)));
+            for (var x : DOUBLES) {
+                assertEquals("x=" + x + ", c=" + constant, (Double) (x / constant), method.invoke(x));
+            }
+        }
+        for (var constant : new float[]{2, 0.25f, -8, 0x1p126f, 0x1p127f, 0x1p-126f}) {
+            var method = compileReturning(List.of("F"), "F", div(read("x"), literal(constant)));
+            for (var x : DOUBLES) {
+                var f = (float) x;
+                assertEquals("x=" + f + ", c=" + constant, (Float) (f / constant), method.invoke(f));
+            }
+        }
+    }
+
+    @Test
+    public void testPowerOfTwoModuloAvoidsDivision() {
+        var className = ClassCompilerTest.testClassName();
+        var builder = new ClassBuilder(className, "");
+        var method = builder.mkMethod("index", List.of("I"), "I", new GenericVars("x"));
+        method.returnValue(plus(mod(read("x"), 64), mul(8, div(read("x"), 4))));
+        method.setClass(className, "");
+        method.resolve();
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                if (op.inst == Operation.Inst.PASSTHROUGH) {
+                    assertNotEquals(IREM, op.count);
+                    assertNotEquals(IDIV, op.count);
+                    assertNotEquals(IMUL, op.count);
+                }
+            }
+        }
+    }
+
+    private static void checkInt(BinaryOperator operator, int constant, BiFunction<Integer, Integer, Integer> expected) throws Exception {
+        var right = compileReturning(List.of("I"), "I", operator.op(read("x"), literal(constant)));
+        var left = operator == MULTIPLY ? compileReturning(List.of("I"), "I", operator.op(literal(constant), read("x"))) : null;
+        for (var x : INTS) {
+            var message = operator + ", x=" + x + ", c=" + constant;
+            assertEquals(message, expected.apply(x, constant), right.invoke(x));
+            if (left != null) {
+                assertEquals(message, expected.apply(x, constant), left.invoke(x));
+            }
+        }
+    }
+
+    private static void checkLong(BinaryOperator operator, long constant, BiFunction<Long, Long, Long> expected) throws Exception {
+        // The long is assembled from two ints, so it's evaluated by an expression, rather than read from a variable
+        var value = bitOr(shiftL(cast(Builtin.L, read("x")), literal(32)), bitAnd(cast(Builtin.L, read("y")), literal(0xFFFFFFFFL)));
+        var compiled = compileReturning(List.of("I", "I"), "J", operator.op(value, literal(constant)));
+        for (var x : LONGS) {
+            assertEquals(operator + ", x=" + x + ", c=" + constant, expected.apply(x, constant),
+                    compiled.invoke((int) (x >>> 32), (int) x));
+        }
+    }
+}
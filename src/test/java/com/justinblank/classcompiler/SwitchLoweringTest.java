@@ -0,0 +1,336 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.TestMethodUtil.CompiledMethod;
+import com.justinblank.classcompiler.lang.Builtin;
+import com.justinblank.classcompiler.lang.Switch;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import static com.justinblank.classcompiler.TestMethodUtil.compile;
+import static com.justinblank.classcompiler.TestMethodUtil.find;
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+
+public class SwitchLoweringTest {
+
+    @Test
+    public void testPreferTable() {
+        assertTrue(SwitchLowering.preferTable(0, 3, 4));
+        // javac picks a tableswitch for these keys too
+        assertTrue(SwitchLowering.preferTable(1, 10, 4));
+        assertFalse(SwitchLowering.preferTable(1, 100, 4));
+        assertFalse(SwitchLowering.preferTable(Integer.MIN_VALUE, Integer.MAX_VALUE, 2));
+    }
+
+    @Test
+    public void testSegments() {
+        var keys = List.of(-1000, 1, 2, 3, 4, 6, 500, 10_000, 10_001, 10_002, 10_003, 10_004, 99_999);
+        var segments = SwitchLowering.segments(keys);
+        assertEquals(5, segments.size());
+        assertSegment(segments.get(0), false, -1000);
+        assertSegment(segments.get(1), true, 1, 2, 3, 4, 6);
+        assertSegment(segments.get(2), false, 500);
+        assertSegment(segments.get(3), true, 10_000, 10_001, 10_002, 10_003, 10_004);
+        assertSegment(segments.get(4), false, 99_999);
+
+        segments = SwitchLowering.segments(List.of(1, 100, 10_000));
+        assertEquals(1, segments.size());
+        assertSegment(segments.get(0), false, 1, 100, 10_000);
+    }
+
+    @Test(timeout = 10_000)
+    public void testSegmentsOfManyEvenlySpacedKeys() {
+        // Too sparse for any table, but dense enough that scanning forward from each key takes quadratic time
+        var keys = new ArrayList<Integer>();
+        for (var i = 0; i < 200_000; i++) {
+            keys.add(i * 6);
+        }
+        var segments = SwitchLowering.segments(keys);
+        assertEquals(1, segments.size());
+        assertFalse(segments.get(0).isTable);
+        assertEquals(keys.size(), segments.get(0).keys.size());
+    }
+
+    @Test
+    public void testSparseSwitchUsesLookupSwitch() throws Exception {
+        var keys = List.of(Integer.MIN_VALUE, -7, 0, 12, 4096, Integer.MAX_VALUE);
+        var method = compileSwitch(keys);
+        assertEquals(List.of(Operation.Inst.LOOKUPSWITCH), switches(method.method));
+        check(method, keys);
+    }
+
+    @Test
+    public void testDenseSwitchWithGapsUsesTableSwitch() throws Exception {
+        var keys = List.of(1, 2, 4, 5, 7);
+        var method = compileSwitch(keys);
+        assertEquals(List.of(Operation.Inst.TABLESWITCH), switches(method.method));
+        check(method, keys);
+    }
+
+    @Test
+    public void testClusteredSwitchUsesNestedTables() throws Exception {
+        var keys = new ArrayList<Integer>();
+        for (var i = 0; i < 8; i++) {
+            keys.add(i);
+            keys.add(1000 + i);
+            keys.add(-50_000 + 2 * i);
+        }
+        keys.add(77);
+        keys.add(Integer.MAX_VALUE);
+        var method = compileSwitch(keys);
+        var switches = switches(method.method);
+        assertEquals(3, switches.stream().filter(inst -> inst == Operation.Inst.TABLESWITCH).count());
+        assertEquals(2, switches.stream().filter(inst -> inst == Operation.Inst.LOOKUPSWITCH).count());
+        check(method, keys);
+    }
+
+    @Test
+    public void testCaseBodiesWithControlFlow() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of("I"), "I", new GenericVars("x", "y"));
+        method.set("y", 0);
+        method.addSwitch(read("x"))
+                .setCase(1, List.of(loop(lt(read("y"), 10), List.of(set("y", plus(read("y"), 3))))))
+                .setCase(1000, List.of(
+                        cond(gt(read("y"), 0)).withBody(set("y", 1)).orElse(set("y", 2)),
+                        callStatic(Math.class, "abs", Builtin.I, read("y"))))
+                .setDefault(set("y", -1));
+        method.returnValue(plus(read("y"), 100));
+        var compiled = compile(builder, method);
+        assertEquals(112, compiled.invoke(1));
+        assertEquals(102, compiled.invoke(1000));
+        assertEquals(99, compiled.invoke(5));
+    }
+
+    @Test
+    public void testStringSwitch() throws Exception {
+        // "Aa" and "BB" have the same hash code, as do "AaAa", "AaBB" and "BBBB"
+        var keys = List.of("", "Aa", "BB", "AaAa", "AaBB", "BBBB", "switch", "case");
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of(CompilerUtil.STRING_DESCRIPTOR), "I", new GenericVars("x"));
+        var s = new Switch(read("x"));
+        for (var i = 0; i < keys.size(); i++) {
+            s.setCase(keys.get(i), returnValue(i));
+        }
+        s.setDefault(returnValue(-1));
+        method.addElement(s);
+        var compiled = compile(builder, method);
+        for (var i = 0; i < keys.size(); i++) {
+            assertEquals(i, compiled.invoke(keys.get(i)));
+            // A new string, so the match can't rely on identity
+            assertEquals(i, compiled.invoke(new String(keys.get(i))));
+        }
+        assertEquals(-1, compiled.invoke("BBAa"));
+        assertEquals(-1, compiled.invoke("Switch"));
+        var e = assertThrows(InvocationTargetException.class, () -> compiled.invoke((Object) null));
+        assertTrue(e.getCause() instanceof NullPointerException);
+
+        var equalsCalls = 0;
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                if (op.inst == Operation.Inst.CALL && op.spec.name.equals("equals")) {
+                    equalsCalls++;
+                }
+            }
+        }
+        assertEquals(keys.size(), equalsCalls);
+    }
+
+    @Test
+    public void testStringSwitchWithoutReturns() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of(CompilerUtil.STRING_DESCRIPTOR), "I", new GenericVars("x", "y"));
+        method.set("y", 1);
+        method.addSwitch(read("x"))
+                .setCase("one", set("y", 10))
+                .setCase("two", set("y", 20))
+                .setDefault(List.of());
+        method.returnValue(plus(read("y"), 1));
+        var compiled = compile(builder, method);
+        assertEquals(11, compiled.invoke("one"));
+        assertEquals(21, compiled.invoke("two"));
+        assertEquals(2, compiled.invoke("three"));
+    }
+
+    @Test
+    public void testPerfectHash() {
+        var random = new Random(17);
+        for (var size : new int[]{2, 3, 100, 1024, 3000}) {
+            var keys = randomKeys(random, size);
+            var hash = SwitchLowering.PerfectHash.build(keys);
+            assertNotNull(hash);
+            var slots = new HashSet<Integer>();
+            for (var key : keys) {
+                var slot = hash.slot(key);
+                assertTrue(slots.add(slot));
+                assertEquals(key.intValue(), hash.keys[slot]);
+            }
+            for (var i = 0; i < 10_000; i++) {
+                var value = random.nextInt();
+                if (!keys.contains(value)) {
+                    assertNotEquals(value, hash.keys[hash.slot(value)]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testStrategies() throws Exception {
+        var keys = randomKeys(new Random(5), 300);
+        keys.add(Integer.MIN_VALUE);
+        keys.add(Integer.MAX_VALUE);
+        keys.add(0);
+        Collections.sort(keys);
+        for (var strategy : Switch.Strategy.values()) {
+            var compiled = compileSwitch(keys, strategy);
+            check(compiled, keys);
+            var switches = switches(compiled.method);
+            switch (strategy) {
+                case BINARY_SEARCH:
+                    assertTrue(switches.isEmpty());
+                    break;
+                case PERFECT_HASH:
+                    assertEquals(List.of(Operation.Inst.TABLESWITCH), switches);
+                    break;
+                default:
+                    assertTrue(switches.contains(Operation.Inst.LOOKUPSWITCH));
+            }
+        }
+    }
+
+    @Test
+    public void testLargeSparseSwitchUsesPerfectHash() throws Exception {
+        var keys = randomKeys(new Random(11), 2000);
+        Collections.sort(keys);
+        var compiled = compileSwitch(keys);
+        assertEquals(List.of(Operation.Inst.TABLESWITCH), switches(compiled.method));
+        check(compiled, keys);
+        var random = new Random(12);
+        for (var i = 0; i < 1000; i++) {
+            var value = random.nextInt();
+            assertEquals(keys.contains(value) ? expected(value) : -1, compiled.invoke(value));
+        }
+    }
+
+    @Test
+    public void testSparseSwitchTooLargeForStaticInitializerUsesLookupSwitch() throws Exception {
+        // The perfect hash tables for this many keys can't be filled within <clinit>'s size limit
+        var keys = randomKeys(new Random(13), 5000);
+        Collections.sort(keys);
+        var compiled = compileSwitch(keys);
+        assertTrue(switches(compiled.method).contains(Operation.Inst.LOOKUPSWITCH));
+        check(compiled, keys);
+    }
+
+    @Test
+    public void testPerfectHashTablesShareStaticInitializer() throws Exception {
+        // Either switch's tables fit in <clinit> alone, but not together
+        var keys = randomKeys(new Random(14), 3000);
+        Collections.sort(keys);
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var first = switchMethod(builder, "first", keys, Switch.Strategy.AUTO);
+        var second = switchMethod(builder, "second", keys, Switch.Strategy.AUTO);
+        var compiledFirst = compile(builder, first);
+        var lookupSwitches = 0;
+        for (var compiled : List.of(compiledFirst, find(compiledFirst.instance, second))) {
+            if (switches(compiled.method).contains(Operation.Inst.LOOKUPSWITCH)) {
+                lookupSwitches++;
+            }
+            check(compiled, keys);
+        }
+        assertEquals(1, lookupSwitches);
+    }
+
+    @Test
+    public void testStringSwitchWithBinarySearch() throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", List.of(CompilerUtil.STRING_DESCRIPTOR), "I", new GenericVars("x"));
+        method.addSwitch(read("x"))
+                .withStrategy(Switch.Strategy.BINARY_SEARCH)
+                .setCase("Aa", returnValue(1))
+                .setCase("BB", returnValue(2))
+                .setCase("mako", returnValue(3))
+                .setDefault(returnValue(-1));
+        var compiled = compile(builder, method);
+        assertEquals(1, compiled.invoke("Aa"));
+        assertEquals(2, compiled.invoke("BB"));
+        assertEquals(3, compiled.invoke("mako"));
+        assertEquals(-1, compiled.invoke("Mako"));
+    }
+
+    private static List<Integer> randomKeys(Random random, int size) {
+        var keys = new HashSet<Integer>();
+        while (keys.size() < size) {
+            keys.add(random.nextInt());
+        }
+        return new ArrayList<>(keys);
+    }
+
+    private static void assertSegment(SwitchLowering.Segment segment, boolean isTable, Integer... keys) {
+        assertEquals(isTable, segment.isTable);
+        assertEquals(List.of(keys), segment.keys);
+    }
+
+    private static List<Operation.Inst> switches(Method method) {
+        var switches = new ArrayList<Operation.Inst>();
+        for (var block : method.getBlocks()) {
+            for (var op : block.operations) {
+                if (op.isSwitch()) {
+                    switches.add(op.inst);
+                }
+            }
+        }
+        return switches;
+    }
+
+    private static void check(CompiledMethod compiled, List<Integer> keyList) throws Exception {
+        var keys = new HashSet<>(keyList);
+        for (var key : keyList) {
+            assertEquals("key=" + key, expected(key), compiled.invoke(key));
+            for (var neighbor : new long[]{(long) key - 1, (long) key + 1}) {
+                if (neighbor >= Integer.MIN_VALUE && neighbor <= Integer.MAX_VALUE && !keys.contains((int) neighbor)) {
+                    assertEquals(-1, compiled.invoke((int) neighbor));
+                }
+            }
+        }
+    }
+
+    // Each case returns a value derived from its key, so a wrong target is detected
+    private static int expected(int key) {
+        return key ^ 0x5555;
+    }
+
+    private static CompiledMethod compileSwitch(List<Integer> keys) throws Exception {
+        return compileSwitch(keys, Switch.Strategy.AUTO);
+    }
+
+    private static CompiledMethod compileSwitch(List<Integer> keys, Switch.Strategy strategy) throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        return compile(builder, switchMethod(builder, "apply", keys, strategy));
+    }
+
+    private static Method switchMethod(ClassBuilder builder, String name, List<Integer> keys, Switch.Strategy strategy) {
+        var method = builder.mkMethod(name, List.of("I"), "I", new GenericVars("x"));
+        var s = new Switch(read("x")).withStrategy(strategy);
+        for (var key : keys) {
+            s.setCase(key, returnValue(literal(expected(key))));
+        }
+        s.setDefault(returnValue(-1));
+        method.addElement(s);
+        return method;
+    }
+}
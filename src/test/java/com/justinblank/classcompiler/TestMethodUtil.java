@@ -0,0 +1,95 @@
+package com.justinblank.classcompiler;
+
+import com.justinblank.classcompiler.lang.Expression;
+import com.justinblank.classloader.ClassLoaderStrategy;
+
+import java.util.List;
+
+/**
+ * Helpers for tests that compile a method, then both call it and look at the blocks it was lowered to.
+ */
+class TestMethodUtil {
+
+    private TestMethodUtil() {}
+
+    /**
+     * Compile a method named apply, with the variables x and y, that returns the value of an expression.
+     *
+     * @param arguments the descriptors of the method's arguments
+     * @param returnType the descriptor of the method's return type
+     * @param expression the expression to return
+     * @return the compiled method
+     */
+    static CompiledMethod compileReturning(List<String> arguments, String returnType, Expression expression)
+            throws Exception {
+        var builder = new ClassBuilder(ClassCompilerTest.testClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("apply", arguments, returnType, new GenericVars("x", "y"));
+        method.returnValue(expression);
+        return compile(builder, method);
+    }
+
+    /**
+     * Compile a class with an empty constructor, and find one of its methods.
+     *
+     * @param builder the class
+     * @param method the method to find, which the class must declare
+     * @return the compiled method, bound to a new instance of the class
+     */
+    static CompiledMethod compile(ClassBuilder builder, Method method) throws Exception {
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.perClass());
+        return find(cls.getDeclaredConstructors()[0].newInstance(), method);
+    }
+
+    /**
+     * Find another method of a class that has already been compiled.
+     *
+     * @param instance an instance of the compiled class
+     * @param method the method to find
+     * @return the compiled method, bound to the instance
+     */
+    static CompiledMethod find(Object instance, Method method) {
+        for (var m : instance.getClass().getMethods()) {
+            if (m.getName().equals(method.methodName)) {
+                return new CompiledMethod(method, instance, m);
+            }
+        }
+        throw new AssertionError("Method not found");
+    }
+
+    /**
+     * @return the number of times an instruction with no operands, such as IADD, appears in the method's blocks
+     */
+    static long countOpcode(Method method, int opcode) {
+        return method.getBlocks().stream()
+                .flatMap(block -> block.operations.stream())
+                .filter(op -> op.inst == Operation.Inst.PASSTHROUGH && op.count == opcode)
+                .count();
+    }
+
+    /**
+     * @param prefix the prefix of the names an optimization gives the variables it creates, such as "cse$"
+     * @return true if the method has any variable with that prefix
+     */
+    static boolean hasSyntheticVars(Method method, String prefix) {
+        return method.getMatchingVars().get().allVars().stream()
+                .anyMatch(pair -> pair.getLeft().startsWith(prefix));
+    }
+
+    static class CompiledMethod {
+        // The method as mako represents it, whose blocks can be examined once it's compiled
+        final Method method;
+        final Object instance;
+        final java.lang.reflect.Method compiledMethod;
+
+        CompiledMethod(Method method, Object instance, java.lang.reflect.Method compiledMethod) {
+            this.method = method;
+            this.instance = instance;
+            this.compiledMethod = compiledMethod;
+        }
+
+        Object invoke(Object... arguments) throws Exception {
+            return compiledMethod.invoke(instance, arguments);
+        }
+    }
+}
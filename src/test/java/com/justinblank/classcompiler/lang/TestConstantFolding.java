@@ -0,0 +1,149 @@
+package com.justinblank.classcompiler.lang;
+
+import com.justinblank.classcompiler.ClassBuilder;
+import com.justinblank.classcompiler.ClassCompiler;
+import com.justinblank.classcompiler.CompilationListener;
+import com.justinblank.classcompiler.GenericVars;
+import com.justinblank.classcompiler.Method;
+import com.justinblank.classloader.ClassLoaderStrategy;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.justinblank.classcompiler.lang.BinaryOperator.*;
+import static com.justinblank.classcompiler.lang.CodeElement.*;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static com.justinblank.classcompiler.lang.TestMethods.TEST_METHOD;
+import static com.justinblank.classcompiler.lang.UnaryOperator.not;
+import static org.junit.Assert.*;
+
+public class TestConstantFolding {
+
+    @Test
+    public void testEvaluateFollowsJavaSemantics() {
+        assertEquals(Integer.MIN_VALUE, ConstantFolding.evaluate(PLUS, Integer.MAX_VALUE, 1));
+        assertEquals(Integer.MIN_VALUE, ConstantFolding.evaluate(DIVIDE, Integer.MIN_VALUE, -1));
+        assertEquals(Long.MIN_VALUE, ConstantFolding.evaluate(MULTIPLY, Long.MIN_VALUE, -1L));
+        assertEquals(-1, ConstantFolding.evaluate(MOD, -7, 3));
+        assertEquals(2, ConstantFolding.evaluate(SHL, 1, 33));
+        assertEquals(1L << 33, ConstantFolding.evaluate(SHL, 1L, 33));
+        assertEquals(Integer.MAX_VALUE, ConstantFolding.evaluate(USHR, -1, 1));
+
+        assertNull(ConstantFolding.evaluate(DIVIDE, 1, 0));
+        assertNull(ConstantFolding.evaluate(MOD, 1L, 0L));
+        assertEquals(Double.POSITIVE_INFINITY, ConstantFolding.evaluate(DIVIDE, 1d, 0d));
+        assertEquals(Float.NaN, ConstantFolding.evaluate(MOD, 1f, 0f));
+
+        assertEquals(false, ConstantFolding.evaluate(EQUALS, Double.NaN, Double.NaN));
+        assertEquals(true, ConstantFolding.evaluate(NOT_EQUALS, Double.NaN, Double.NaN));
+        assertEquals(false, ConstantFolding.evaluate(LESS_THAN_OR_EQUALS, Float.NaN, 1f));
+        assertEquals(true, ConstantFolding.evaluate(EQUALS, 0d, -0d));
+        assertEquals(true, ConstantFolding.evaluate(LESS_THAN, Long.MIN_VALUE, 0L));
+
+        // Mixed types are not folded
+        assertNull(ConstantFolding.evaluate(PLUS, 1, 1L));
+    }
+
+    @Test
+    public void testLiteralArithmeticIsFolded() throws Exception {
+        var method = new Method(TEST_METHOD, List.of(), Builtin.I, null);
+        method.returnValue(plus(mul(literal(2), literal(3)), sub(literal(10), literal(4))));
+        var operations = new AtomicInteger();
+        assertEquals(12, invoke(method, operations));
+        // push and return
+        assertEquals(2, operations.get());
+    }
+
+    @Test
+    public void testIdentitiesAreSimplified() throws Exception {
+        var method = new Method(TEST_METHOD, List.of("I"), Builtin.I, new GenericVars("x"));
+        method.returnValue(shiftL(plus(literal(0), div(mul(read("x"), literal(1)), literal(1))), literal(0)));
+        var operations = new AtomicInteger();
+        assertEquals(7, invoke(method, operations, 7));
+        assertEquals(2, operations.get());
+    }
+
+    @Test
+    public void testMultiplicationByZeroPreservesSideEffects() throws Exception {
+        var method = new Method(TEST_METHOD, List.of("I"), Builtin.I, new GenericVars("x"));
+        method.returnValue(mul(callStatic(Math.class, "floorDiv", Builtin.I, read("x"), literal(0)), literal(0)));
+        var e = assertThrows(InvocationTargetException.class, () -> invoke(method, new AtomicInteger(), 1));
+        assertTrue(e.getCause() instanceof ArithmeticException);
+    }
+
+    @Test
+    public void testFloatingPointIdentitiesAreNotApplied() throws Exception {
+        var method = new Method(TEST_METHOD, List.of("F"), Builtin.F, new GenericVars("x"));
+        method.returnValue(plus(read("x"), literal(0f)));
+        // -0.0 + 0.0 is 0.0, so x + 0 is not x
+        assertEquals(0f, invoke(method, new AtomicInteger(), -0f));
+    }
+
+    @Test
+    public void testDivisionByZeroIsNotFolded() {
+        var method = new Method(TEST_METHOD, List.of(), Builtin.I, null);
+        method.returnValue(div(literal(1), literal(0)));
+        var e = assertThrows(InvocationTargetException.class, () -> invoke(method, new AtomicInteger()));
+        assertTrue(e.getCause() instanceof ArithmeticException);
+    }
+
+    @Test
+    public void testCastsAreFolded() throws Exception {
+        var method = new Method(TEST_METHOD, List.of(), Builtin.I, null);
+        method.returnValue(plus(cast(Builtin.I, literal(3.9d)), cast(Builtin.I, literal(Float.NaN))));
+        assertEquals(3, invoke(method, new AtomicInteger()));
+
+        method = new Method(TEST_METHOD, List.of(), Builtin.S, null);
+        method.returnValue(cast(Builtin.S, literal(70000)));
+        assertEquals((short) 70000, invoke(method, new AtomicInteger()));
+
+        method = new Method(TEST_METHOD, List.of(), Builtin.L, null);
+        method.returnValue(cast(Builtin.L, literal(1e30)));
+        assertEquals(Long.MAX_VALUE, invoke(method, new AtomicInteger()));
+    }
+
+    @Test
+    public void testFoldedComparisonsAsConditions() throws Exception {
+        var method = new Method(TEST_METHOD, List.of("I"), Builtin.I, new GenericVars("x"));
+        method.cond(and(lt(literal(1), literal(2)), lt(read("x"), literal(3))))
+                .withBody(List.of(returnValue(1)));
+        method.cond(or(not(gt(literal(1d), literal(2d))), eq(read("x"), literal(4))))
+                .withBody(List.of(returnValue(2)));
+        method.returnValue(3);
+        assertEquals(1, invoke(method, new AtomicInteger(), 2));
+        assertEquals(2, invoke(method, new AtomicInteger(), 5));
+    }
+
+    @Test
+    public void testFoldedComparisonsAsArguments() throws Exception {
+        var method = new Method(TEST_METHOD, List.of("I"), ReferenceType.of(Boolean.class), new GenericVars("x"));
+        // and(true, x < 3) becomes x < 3, which must still be lowered as a value
+        method.returnValue(construct(ReferenceType.of(Boolean.class), and(literal(true), lt(read("x"), literal(3)))));
+        assertEquals(true, invoke(method, new AtomicInteger(), 2));
+        assertEquals(false, invoke(method, new AtomicInteger(), 4));
+    }
+
+    private static Object invoke(Method method, AtomicInteger operations, Object... arguments) throws Exception {
+        var builder = new ClassBuilder(TestClassUtil.uniqueClassName(), "");
+        builder.addEmptyConstructor();
+        builder.addMethod(method);
+        var listener = new CompilationListener() {
+            @Override
+            public void methodResolved(String className, String methodName, int blocks, int count) {
+                if (TEST_METHOD.equals(methodName)) {
+                    operations.set(count);
+                }
+            }
+        };
+        var cls = new ClassCompiler(builder).withListener(listener).generateClass(ClassLoaderStrategy.perClass());
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        for (var m : cls.getMethods()) {
+            if (m.getName().equals(TEST_METHOD)) {
+                return m.invoke(instance, arguments);
+            }
+        }
+        throw new AssertionError("Method not found");
+    }
+}
@@ -311,6 +311,20 @@ public class TestMethods {
         return method;
     }
 
+    public static Method sparseIntegerSwitchMethod() {
+        var vars = new GenericVars();
+        vars.addVar("a");
+        var method = new Method(TEST_METHOD, List.of(), Builtin.I, vars);
+        method.set("a", 1000);
+        method.addSwitch(read("a")).
+                setCase(-5, List.of(returnValue(2))).
+                setCase(1000, List.of(returnValue(3))).
+                setCase(1_000_000, List.of(returnValue(4))).
+                setDefault(returnValue(5));
+
+        return method;
+    }
+
     public static Method conditionalWithSwitchAndOrElse() {
         var vars = new GenericVars("a");
         var method = new Method(TEST_METHOD, List.of(), Builtin.I, vars);
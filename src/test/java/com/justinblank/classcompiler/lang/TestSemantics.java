@@ -412,6 +412,11 @@ public class TestSemantics {
         apply(TestMethods::denseIntegerSwitchMethodWithAssignments, 5);
     }
 
+    @Test
+    public void testSparseIntegerSwitchMethod() throws Exception {
+        apply(TestMethods::sparseIntegerSwitchMethod, 3);
+    }
+
     @Test
     public void testConditionalWithSwitchInOrElse() throws Exception {
         apply(TestMethods::conditionalWithSwitchInOrElse, 1);
@@ -307,6 +307,11 @@ public class TestSyntax {
         apply(TestMethods.conditionalWithSwitchAndOrElse());
     }
 
+    @Test
+    public void testSparseIntegerSwitchMethod() throws Exception {
+        apply(TestMethods.sparseIntegerSwitchMethod());
+    }
+
     @Test
     public void testConditionalWithSwitchInOrElse() throws Exception {
         apply(TestMethods.conditionalWithSwitchInOrElse());
@@ -0,0 +1,65 @@
+package com.justinblank.classcompiler.lang;
+
+import com.justinblank.classcompiler.Method;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.justinblank.classcompiler.lang.BinaryOperator.plus;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+
+public class TestTypeInference {
+
+    @Test
+    public void testUnifyingUnresolvedVariablesLinksThem() {
+        var first = TypeVariable.fresh();
+        var second = TypeVariable.fresh();
+        TypeInference.unify(first, second);
+        assertNull(first.type());
+        TypeInference.unify(second, Builtin.L);
+        assertEquals(Builtin.L, first.type());
+    }
+
+    @Test
+    public void testLongChainsOfVariablesResolve() {
+        var variables = new ArrayList<TypeVariable>();
+        variables.add(TypeVariable.fresh());
+        for (var i = 1; i < 100_000; i++) {
+            var variable = TypeVariable.fresh();
+            TypeInference.unify(variables.get(i - 1), variable);
+            variables.add(variable);
+        }
+        TypeInference.unify(variables.get(variables.size() - 1), Builtin.D);
+        for (var variable : variables) {
+            assertEquals(Builtin.D, variable.type());
+        }
+    }
+
+    @Test
+    public void testUnifyingBoundVariablesChecksTypes() {
+        var array = TypeVariable.of(ArrayType.of(Builtin.I));
+        var reference = TypeVariable.of(ReferenceType.of(String.class));
+        assertThrows(TypeInference.TypeCheckException.class, () -> TypeInference.unify(array, reference));
+    }
+
+    @Test
+    public void testInferredTypesOfExpressionsAreReused() {
+        var inference = new TypeInference("Test", new Method("test", List.of(), "I", null));
+        var environment = new HashMap<String, TypeVariable>();
+        // Each analysis of a literal creates a new type variable, so only a cached result is the same object
+        Expression expression = literal(0);
+        var nested = new ArrayList<Expression>();
+        for (var i = 0; i < 1000; i++) {
+            expression = plus(expression, literal(i));
+            nested.add(expression);
+        }
+        var type = inference.analyze(expression, environment);
+        assertEquals(Builtin.I, type.type());
+        for (var subexpression : nested) {
+            assertSame(inference.analyze(subexpression, environment), inference.analyze(subexpression, environment));
+        }
+    }
+}
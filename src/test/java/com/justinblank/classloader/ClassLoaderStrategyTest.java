@@ -0,0 +1,184 @@
+package com.justinblank.classloader;
+
+import com.justinblank.classcompiler.ClassBuilder;
+import com.justinblank.classcompiler.ClassCompiler;
+import com.justinblank.classcompiler.GenericVars;
+import com.justinblank.classcompiler.lang.Builtin;
+import org.junit.Test;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.justinblank.classcompiler.lang.CodeElement.call;
+import static com.justinblank.classcompiler.lang.CodeElement.thisRef;
+import static com.justinblank.classcompiler.lang.Literal.literal;
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+
+public class ClassLoaderStrategyTest {
+
+    private static final AtomicInteger CLASS_NAME_COUNTER = new AtomicInteger();
+
+    @Test
+    public void testPerClassStrategyUsesDistinctLoaders() throws Exception {
+        var strategy = ClassLoaderStrategy.perClass();
+        var first = new ClassCompiler(builder(uniqueClassName(), 1)).generateClass(strategy);
+        var second = new ClassCompiler(builder(uniqueClassName(), 2)).generateClass(strategy);
+        assertNotSame(first.getClassLoader(), second.getClassLoader());
+        assertEquals(1, invoke(first));
+        assertEquals(2, invoke(second));
+    }
+
+    @Test
+    public void testPerClassStrategyCanRedefineName() throws Exception {
+        var name = uniqueClassName();
+        var first = new ClassCompiler(builder(name, 1)).generateClass(ClassLoaderStrategy.perClass());
+        var second = new ClassCompiler(builder(name, 2)).generateClass(ClassLoaderStrategy.perClass());
+        assertEquals(1, invoke(first));
+        assertEquals(2, invoke(second));
+    }
+
+    @Test
+    public void testGroupStrategySharesLoader() {
+        var strategy = ClassLoaderStrategy.group();
+        var first = new ClassCompiler(builder(uniqueClassName(), 1)).generateClass(strategy);
+        var second = new ClassCompiler(builder(uniqueClassName(), 2)).generateClass(strategy);
+        assertSame(first.getClassLoader(), second.getClassLoader());
+    }
+
+    @Test
+    public void testPooledStrategyReplacesFullLoaders() {
+        var strategy = ClassLoaderStrategy.pool(1, 2);
+        var first = new ClassCompiler(builder(uniqueClassName(), 1)).generateClass(strategy);
+        var second = new ClassCompiler(builder(uniqueClassName(), 2)).generateClass(strategy);
+        var third = new ClassCompiler(builder(uniqueClassName(), 3)).generateClass(strategy);
+        assertSame(first.getClassLoader(), second.getClassLoader());
+        assertNotSame(second.getClassLoader(), third.getClassLoader());
+    }
+
+    @Test
+    public void testPooledStrategyHandlesRepeatedNames() throws Exception {
+        var strategy = ClassLoaderStrategy.pool(1, 10);
+        var name = uniqueClassName();
+        var first = new ClassCompiler(builder(name, 1)).generateClass(strategy);
+        var second = new ClassCompiler(builder(name, 2)).generateClass(strategy);
+        assertEquals(1, invoke(first));
+        assertEquals(2, invoke(second));
+    }
+
+    @Test
+    public void testPooledStrategyHandlesRepeatedNamesConcurrently() throws Exception {
+        var strategy = ClassLoaderStrategy.pool(2, 1000);
+        var name = uniqueClassName();
+        var bytes = new ClassCompiler(builder(name, 1)).generateClassAsBytes();
+        var executor = Executors.newFixedThreadPool(8);
+        try {
+            var start = new CountDownLatch(1);
+            List<Future<Class<?>>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return strategy.define(name, bytes);
+                }));
+            }
+            start.countDown();
+            for (var future : futures) {
+                assertEquals(1, invoke(future.get()));
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testPooledStrategyRejectsEmptyPool() {
+        assertThrows(IllegalArgumentException.class, () -> ClassLoaderStrategy.pool(0, 1));
+        assertThrows(IllegalArgumentException.class, () -> ClassLoaderStrategy.pool(1, 0));
+    }
+
+    @Test
+    public void testDefinedBytesAreCounted() {
+        var before = MyClassLoader.definedBytes();
+        var name = uniqueClassName();
+        var bytes = new ClassCompiler(builder(name, 1)).generateClassAsBytes();
+        var loader = new MyClassLoader();
+        loader.loadClass(name, bytes);
+        assertTrue(MyClassLoader.definedBytes() - before >= bytes.length);
+        assertTrue(MyClassLoader.liveLoaders() >= 2);
+    }
+
+    @Test
+    public void testUnreachableLoaderIsCollected() throws Exception {
+        var ref = defineAndForget();
+        for (int i = 0; i < 100 && ref.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get());
+    }
+
+    @Test
+    public void testHiddenClassStrategy() throws Exception {
+        assumeTrue(ClassLoaderStrategy.hiddenClassesSupported());
+        var name = uniqueClassName();
+        var cls = new ClassCompiler(builder(name, 1)).generateClass(ClassLoaderStrategy.hidden());
+        assertTrue(cls.getName().startsWith(name + "/"));
+        assertEquals(1, invoke(cls));
+        assertThrows(ClassNotFoundException.class, () -> Class.forName(name, false, cls.getClassLoader()));
+    }
+
+    @Test
+    public void testHiddenClassCanCallItself() throws Exception {
+        assumeTrue(ClassLoaderStrategy.hiddenClassesSupported());
+        var builder = new ClassBuilder(uniqueClassName(), "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("value", List.of(), "I", new GenericVars());
+        method.returnValue(call("other", Builtin.I, thisRef()));
+        var other = builder.mkMethod("other", List.of(), "I", new GenericVars(), ACC_PRIVATE);
+        other.returnValue(literal(7));
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.hidden());
+        assertEquals(7, invoke(cls));
+    }
+
+    @Test
+    public void testHiddenClassStrategyWithLookup() throws Exception {
+        assumeTrue(ClassLoaderStrategy.hiddenClassesSupported());
+        var builder = new ClassBuilder(uniqueClassName(), "com.justinblank.classloader");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("value", List.of(), "I", new GenericVars());
+        method.returnValue(literal(3));
+        var cls = new ClassCompiler(builder).generateClass(ClassLoaderStrategy.hidden(MethodHandles.lookup()));
+        assertSame(ClassLoaderStrategyTest.class.getClassLoader(), cls.getClassLoader());
+        assertEquals(3, invoke(cls));
+    }
+
+    private static WeakReference<ClassLoader> defineAndForget() {
+        var cls = new ClassCompiler(builder(uniqueClassName(), 1)).generateClass(ClassLoaderStrategy.perClass());
+        return new WeakReference<>(cls.getClassLoader());
+    }
+
+    private static ClassBuilder builder(String className, int value) {
+        var builder = new ClassBuilder(className, "");
+        builder.addEmptyConstructor();
+        var method = builder.mkMethod("value", List.of(), "I", new GenericVars());
+        method.returnValue(literal(value));
+        return builder;
+    }
+
+    private static Object invoke(Class<?> cls) throws Exception {
+        var instance = cls.getDeclaredConstructors()[0].newInstance();
+        return cls.getMethod("value").invoke(instance);
+    }
+
+    private static String uniqueClassName() {
+        return "ClassLoaderStrategyTestClass" + CLASS_NAME_COUNTER.incrementAndGet();
+    }
+}